@@ -0,0 +1,16 @@
+package gov.cms.madie.terminology.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+@Configuration
+public class CacheConfig {
+
+  /** Time source of the in-memory caches' expiry, replaced in tests to expire entries. */
+  @Bean
+  public Ticker cacheTicker() {
+    return Ticker.systemTicker();
+  }
+}
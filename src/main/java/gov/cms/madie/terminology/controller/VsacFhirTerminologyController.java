@@ -2,23 +2,32 @@ package gov.cms.madie.terminology.controller;
 
 import gov.cms.madie.models.measure.ManifestExpansion;
 import gov.cms.madie.terminology.dto.Code;
+import gov.cms.madie.terminology.dto.CodeSystemDelta;
+import gov.cms.madie.terminology.dto.CodeSystemRefreshResult;
 import gov.cms.madie.terminology.dto.QdmValueSet;
+import gov.cms.madie.terminology.dto.SerializedCodeSystems;
 import gov.cms.madie.terminology.dto.ValueSetSearchResult;
 import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
-import gov.cms.madie.terminology.models.CodeSystem;
 import gov.cms.madie.terminology.models.UmlsUser;
+import gov.cms.madie.terminology.service.CodeLookupService;
 import gov.cms.madie.terminology.service.FhirTerminologyService;
 import gov.cms.madie.terminology.service.VsacService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.security.access.prepost.PreAuthorize;
+import reactor.core.publisher.Mono;
 
 import java.security.Principal;
+import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 
@@ -29,31 +38,32 @@ import java.util.Map;
 public class VsacFhirTerminologyController {
   private final FhirTerminologyService fhirTerminologyService;
   private final VsacService vsacService;
+  private final CodeLookupService codeLookupService;
 
   @GetMapping("/manifest-list")
-  public ResponseEntity<List<ManifestExpansion>> getManifests(Principal principal) {
+  public Mono<ResponseEntity<List<ManifestExpansion>>> getManifests(Principal principal) {
     final String username = principal.getName();
     log.info("Retrieving List of available manifests, requested by HARP ID : [{}}]", username);
     UmlsUser umlsUser = vsacService.verifyUmlsAccess(username);
-    return ResponseEntity.ok().body(fhirTerminologyService.getManifests(umlsUser));
+    return fhirTerminologyService.getManifests(umlsUser).map(ResponseEntity::ok);
   }
 
   @PutMapping("/value-sets/expansion/qdm")
-  public ResponseEntity<List<QdmValueSet>> getValueSetsExpansions(
+  public Mono<ResponseEntity<List<QdmValueSet>>> getValueSetsExpansions(
       Principal principal, @RequestBody ValueSetsSearchCriteria searchCriteria) {
     final String username = principal.getName();
     log.info(
         "User [{}] is attempting to fetch value sets expansions from VSAC FHIR Terminology Server.",
         username);
     UmlsUser umlsUser = vsacService.verifyUmlsAccess(username);
-    List<QdmValueSet> qdmValueSets =
-        fhirTerminologyService.getValueSetsExpansionsForQdm(searchCriteria, umlsUser);
-    return ResponseEntity.ok().body(qdmValueSets);
+    return fhirTerminologyService
+        .getValueSetsExpansionsForQdm(searchCriteria, umlsUser)
+        .map(ResponseEntity::ok);
   }
 
   @GetMapping(path = "/update-code-systems", produces = MediaType.APPLICATION_JSON_VALUE)
   @PreAuthorize("#request.getHeader('api-key') == #apiKey")
-  public ResponseEntity<List<CodeSystem>> retrieveAndUpdateCodeSystems(
+  public ResponseEntity<CodeSystemRefreshResult> retrieveAndUpdateCodeSystems(
       Principal principal,
       HttpServletRequest request,
       @Value("${code-system-refresh-task.admin-api-key}") String apiKey,
@@ -63,25 +73,83 @@ public class VsacFhirTerminologyController {
     return ResponseEntity.ok().body(fhirTerminologyService.retrieveAllCodeSystems(umlsUser));
   }
 
+  /**
+   * Sends the code system list serialized when the catalog was loaded, gzipped if the client
+   * accepts it. A client that already has the current list, as identified by its ETag, gets a 304.
+   * The gzipped list is a different representation, so it has an ETag of its own.
+   */
   @GetMapping(path = "/get-code-systems", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<List<CodeSystem>> getAllCodeSystems(Principal principal) {
+  public ResponseEntity<byte[]> getAllCodeSystems(
+      Principal principal,
+      WebRequest webRequest,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+          String acceptEncoding) {
     final String username = principal.getName();
     log.info("Retrieving list of codeSystems for user: {}", username);
-    return ResponseEntity.ok().body(fhirTerminologyService.getAllCodeSystems());
+    SerializedCodeSystems codeSystems = fhirTerminologyService.getSerializedCodeSystems();
+    boolean gzip = acceptsGzip(acceptEncoding);
+    String eTag = gzip ? codeSystems.getVersion() + "-gzip" : codeSystems.getVersion();
+    // clients must revalidate, or the security headers would forbid caching the list at all
+    CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+    if (webRequest.checkNotModified(eTag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+          .eTag(eTag)
+          .cacheControl(cacheControl)
+          .varyBy(HttpHeaders.ACCEPT_ENCODING)
+          .build();
+    }
+    ResponseEntity.BodyBuilder response =
+        ResponseEntity.ok()
+            .eTag(eTag)
+            .cacheControl(cacheControl)
+            .varyBy(HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      return response
+          .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+          .body(codeSystems.getGzippedJson());
+    }
+    return response.body(codeSystems.getJson());
+  }
+
+  /**
+   * Sends the code systems changed and deleted since the client's last sync, identified by the
+   * watermark that sync returned. Without a watermark, all code systems are sent.
+   */
+  @GetMapping(path = "/code-systems/changes", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<CodeSystemDelta> getCodeSystemChanges(
+      Principal principal, @RequestParam(required = false) Instant since) {
+    final String username = principal.getName();
+    log.info("Retrieving codeSystems changed since {} for user: {}", since, username);
+    return ResponseEntity.ok(fhirTerminologyService.getCodeSystemChangesSince(since));
+  }
+
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      boolean refused = parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?");
+      if ("gzip".equalsIgnoreCase(parts[0].trim()) && !refused) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @GetMapping(path = "/search-value-sets", produces = MediaType.APPLICATION_JSON_VALUE)
   @ResponseBody
-  public ResponseEntity<ValueSetSearchResult> searchValueSets(
+  public Mono<ResponseEntity<ValueSetSearchResult>> searchValueSets(
       Principal principal, @RequestParam Map<String, String> queryParams) {
     final String username = principal.getName();
     UmlsUser umlsUser = vsacService.verifyUmlsAccess(username);
-    var result = fhirTerminologyService.searchValueSets(umlsUser.getApiKey(), queryParams);
-    return ResponseEntity.ok().body(result);
+    return fhirTerminologyService
+        .searchValueSets(umlsUser.getApiKey(), queryParams)
+        .map(ResponseEntity::ok);
   }
 
   @GetMapping(path = "/code", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<Code> getCode(
+  public Mono<ResponseEntity<Code>> getCode(
       @RequestParam() String code,
       @RequestParam() String codeSystem,
       @RequestParam() String version,
@@ -94,16 +162,19 @@ public class VsacFhirTerminologyController {
         codeSystem,
         version);
     UmlsUser user = vsacService.verifyUmlsAccess(username);
-    return ResponseEntity.ok()
-        .body(fhirTerminologyService.retrieveCode(code, codeSystem, version, user.getApiKey()));
+    return codeLookupService
+        .retrieveCode(code, codeSystem, version, user.getApiKey())
+        .map(ResponseEntity::ok)
+        .defaultIfEmpty(ResponseEntity.ok().build());
   }
 
   @PostMapping(path = "/codes", produces = MediaType.APPLICATION_JSON_VALUE)
-  public ResponseEntity<List<Code>> getCodesAndCodeSystems(
+  public Mono<ResponseEntity<List<Code>>> getCodesAndCodeSystems(
       @RequestBody() List<Map<String, String>> codeList, Principal principal) {
     final String username = principal.getName();
     UmlsUser user = vsacService.verifyUmlsAccess(username);
-    return ResponseEntity.ok()
-        .body(fhirTerminologyService.retrieveCodesAndCodeSystems(codeList, user.getApiKey()));
+    return codeLookupService
+        .retrieveCodesAndCodeSystems(codeList, user.getApiKey())
+        .map(ResponseEntity::ok);
   }
 }
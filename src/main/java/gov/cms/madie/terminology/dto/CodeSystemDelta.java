@@ -0,0 +1,27 @@
+package gov.cms.madie.terminology.dto;
+
+import gov.cms.madie.terminology.models.CodeSystem;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Code systems changed since a client's last sync. Clients apply the deletions before the changed
+ * code systems, as a deleted code system may have been added again since, then pass the watermark
+ * as "since" of their next sync.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CodeSystemDelta {
+  // codeSystems holds every code system, clients replace their copy instead of applying changes
+  private boolean fullSync;
+  private List<CodeSystem> codeSystems;
+  private List<String> deletedIds;
+  private Instant watermark;
+}
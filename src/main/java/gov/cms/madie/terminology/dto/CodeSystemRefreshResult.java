@@ -0,0 +1,46 @@
+package gov.cms.madie.terminology.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/** Counts of the code systems requested from VSAC by a refresh, and of the changes stored. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CodeSystemRefreshResult {
+  private boolean fullSweep;
+  private int retrieved;
+  private int inserted;
+  private int modified;
+  private int unchanged;
+  private long deleted;
+  private Integer reportedTotal; // code systems VSAC reported for the refresh, if it did
+  private Instant newestUpstreamUpdate; // newest VSAC lastUpdated of the code systems retrieved
+
+  /** @return the sum of both results, as a new result */
+  public CodeSystemRefreshResult add(CodeSystemRefreshResult other) {
+    return CodeSystemRefreshResult.builder()
+        .fullSweep(fullSweep)
+        .retrieved(retrieved + other.retrieved)
+        .inserted(inserted + other.inserted)
+        .modified(modified + other.modified)
+        .unchanged(unchanged + other.unchanged)
+        .deleted(deleted + other.deleted)
+        .reportedTotal(reportedTotal != null ? reportedTotal : other.reportedTotal)
+        .newestUpstreamUpdate(later(newestUpstreamUpdate, other.newestUpstreamUpdate))
+        .build();
+  }
+
+  /** @return the later of both instants, either of which may be null */
+  public static Instant later(Instant first, Instant second) {
+    if (first == null) {
+      return second;
+    }
+    return second == null || first.isAfter(second) ? first : second;
+  }
+}
@@ -0,0 +1,13 @@
+package gov.cms.madie.terminology.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+/** Counts of the code systems written by a refresh. */
+@Data
+@Builder
+public class CodeSystemUpsertResult {
+  private int inserted;
+  private int modified;
+  private int unchanged;
+}
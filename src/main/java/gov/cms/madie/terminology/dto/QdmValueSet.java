@@ -1,13 +1,18 @@
 package gov.cms.madie.terminology.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.util.List;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class QdmValueSet {
   private String oid;
 
@@ -17,8 +22,14 @@ public class QdmValueSet {
   private String version;
   private List<Concept> concepts;
 
+  // set instead of the concepts when this value set could not be retrieved
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String error;
+
   @Data
   @Builder
+  @NoArgsConstructor
+  @AllArgsConstructor
   public static class Concept {
     private String code;
 
@@ -0,0 +1,13 @@
+package gov.cms.madie.terminology.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/** The list of all code systems as sent to clients, serialized once per catalog load. */
+@Getter
+@AllArgsConstructor
+public class SerializedCodeSystems {
+  private final String version; // SHA-256 hash of the json, a strong ETag of the list
+  private final byte[] json;
+  private final byte[] gzippedJson;
+}
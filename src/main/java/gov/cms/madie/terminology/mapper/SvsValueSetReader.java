@@ -0,0 +1,102 @@
+package gov.cms.madie.terminology.mapper;
+
+import gov.cms.madie.terminology.dto.QdmValueSet;
+import gov.cms.madie.terminology.exceptions.VsacGenericException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming (StAX) reader for SVS RetrieveMultipleValueSets responses. Concepts are mapped as they
+ * are read, so the response is never held as a JAXB object tree.
+ */
+@Slf4j
+public final class SvsValueSetReader {
+  private static final String DESCRIBED_VALUE_SET = "DescribedValueSet";
+  private static final String CONCEPT_LIST = "ConceptList";
+  private static final String CONCEPT = "Concept";
+
+  // factories are thread safe once configured
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  private SvsValueSetReader() {}
+
+  /**
+   * @param svsResponse SVS RetrieveMultipleValueSets response xml
+   * @return the described value set of the response with its concepts
+   */
+  public static QdmValueSet readQdmValueSet(InputStream svsResponse) {
+    XMLStreamReader reader = null;
+    try {
+      reader = XML_INPUT_FACTORY.createXMLStreamReader(svsResponse);
+      QdmValueSet valueSet = null;
+      List<QdmValueSet.Concept> concepts = new ArrayList<>();
+      boolean hasConceptList = false;
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        switch (reader.getLocalName()) {
+          case DESCRIBED_VALUE_SET -> valueSet =
+              QdmValueSet.builder()
+                  .oid(reader.getAttributeValue(null, "ID"))
+                  .displayName(reader.getAttributeValue(null, "displayName"))
+                  .version(reader.getAttributeValue(null, "version"))
+                  .build();
+          case CONCEPT_LIST -> hasConceptList = true;
+          case CONCEPT -> concepts.add(readConcept(reader));
+          default -> {
+            // other elements are not part of a QDM value set
+          }
+        }
+      }
+      if (valueSet == null) {
+        throw new VsacGenericException("SVS response does not contain a value set");
+      }
+      if (!hasConceptList) {
+        log.info("Empty value set:{}", valueSet.getOid());
+      }
+      valueSet.setConcepts(concepts);
+      return valueSet;
+    } catch (XMLStreamException ex) {
+      throw new VsacGenericException("Unable to read SVS response: " + ex.getMessage());
+    } finally {
+      close(reader);
+    }
+  }
+
+  private static QdmValueSet.Concept readConcept(XMLStreamReader reader) {
+    return QdmValueSet.Concept.builder()
+        .code(reader.getAttributeValue(null, "code"))
+        .codeSystemOid(reader.getAttributeValue(null, "codeSystem"))
+        .codeSystemName(reader.getAttributeValue(null, "codeSystemName"))
+        .codeSystemVersion(reader.getAttributeValue(null, "codeSystemVersion"))
+        .displayName(reader.getAttributeValue(null, "displayName"))
+        .build();
+  }
+
+  private static void close(XMLStreamReader reader) {
+    if (reader == null) {
+      return;
+    }
+    try {
+      reader.close();
+    } catch (XMLStreamException ex) {
+      log.debug("Unable to close SVS response reader", ex);
+    }
+  }
+
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    // responses never need a DTD, and external entities are an XXE risk
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+}
@@ -18,11 +18,9 @@ import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Component
 @Slf4j
@@ -65,98 +63,32 @@ public class VsacToFhirValueSetMapper {
     return fhirValueSet;
   }
 
+  /**
+   * Groups the concepts by code system and code system version into compose includes, in a single
+   * pass over the concepts. Includes are added in the order their first concept appears.
+   */
   protected void addFhirValueSetComposeComponent(
       List<Concept> vsacConceptList, ValueSet fhirValueSet) {
     ValueSetComposeComponent fhirValueSetComposeComponent = new ValueSetComposeComponent();
     fhirValueSetComposeComponent.setInclude(new ArrayList<>());
     fhirValueSet.setCompose(fhirValueSetComposeComponent);
-    Map<String, List<Concept>> conceptsByCodeAndVersionMap =
-        getConceptMapByCodeAndVersion(vsacConceptList);
-    createFhirConceptSetComponents(conceptsByCodeAndVersionMap, fhirValueSetComposeComponent);
-  }
-
-  protected Map<String, List<Concept>> getConceptMapByCodeAndVersion(
-      List<Concept> vsacConceptList) {
-    Map<String, String> codeMap = getVsacCodeMap(vsacConceptList);
-    Map<String, List<Concept>> conceptsByCodeMap = new HashMap<>();
-    Map<String, List<Concept>> conceptsByCodeAndVersionMap = new HashMap<>();
-    codeMap
-        .entrySet()
-        .forEach(
-            code -> {
-              List<Concept> conceptsListByCode =
-                  getVsacConceptListByCode(code.getKey(), vsacConceptList);
-              conceptsByCodeMap.put(code.getKey(), conceptsListByCode);
-            });
-    for (var entry : conceptsByCodeMap.entrySet()) {
-      String code = entry.getKey();
-      List<Concept> conceptListByCode = entry.getValue();
-      Map<String, String> versionMap = getVsacVersionMap(conceptListByCode);
-
-      for (Map.Entry<String, String> ent : versionMap.entrySet()) {
-        String version = ent.getKey();
-        List<Concept> conceptsByCodeAndVersion =
-            getVsacConceptListByCodeAndVersion(code, version, conceptListByCode);
-        conceptsByCodeAndVersionMap.put(code, conceptsByCodeAndVersion);
-      }
-    }
-
-    return conceptsByCodeAndVersionMap;
-  }
-
-  protected Map<String, String> getVsacCodeMap(List<Concept> vsacConcepts) {
-    Map<String, String> vsacCodeMap = new HashMap<>();
-    vsacConcepts.forEach(
-        vsacConcept -> vsacCodeMap.put(vsacConcept.getCodeSystem(), vsacConcept.getCodeSystem()));
-    return vsacCodeMap;
-  }
-
-  protected List<Concept> getVsacConceptListByCode(String code, List<Concept> concepts) {
-    return concepts.stream()
-        .filter(c -> code.equalsIgnoreCase(c.getCodeSystem()))
-        .collect(Collectors.toList());
-  }
-
-  protected List<Concept> getVsacConceptListByCodeAndVersion(
-      String code, String version, List<Concept> concepts) {
-    return concepts.stream()
-        .filter(
-            vsacConcept ->
-                code.equalsIgnoreCase(vsacConcept.getCodeSystem())
-                    && version.equalsIgnoreCase(vsacConcept.getCodeSystemVersion()))
-        .collect(Collectors.toList());
-  }
-
-  protected Map<String, String> getVsacVersionMap(List<Concept> vsacConcepts) {
-    Map<String, String> vsacVersionMap = new HashMap<>();
-
-    vsacConcepts.forEach(
-        vsacConcept ->
-            vsacVersionMap.put(
-                vsacConcept.getCodeSystemVersion(), vsacConcept.getCodeSystemVersion()));
-    return vsacVersionMap;
-  }
-
-  protected void createFhirConceptSetComponents(
-      Map<String, List<Concept>> conceptsByCodeAndVersionMap,
-      ValueSetComposeComponent valueSetComposeComponent) {
-
-    for (Map.Entry<String, List<Concept>> entry : conceptsByCodeAndVersionMap.entrySet()) {
-      ConceptSetComponent fhirComponent = new ConceptSetComponent();
-      List<Concept> conceptList = entry.getValue();
-      fhirComponent.setVersion(conceptList.get(0).getCodeSystemVersion());
-
-      fhirComponent.setSystem(getUrlByOid(conceptList.get(0).getCodeSystem()));
-      fhirComponent.setConcept(createFhirConceptReferenceComponents(conceptList));
-      valueSetComposeComponent.getInclude().add(fhirComponent);
+    Map<CodeSystemVersion, ConceptSetComponent> includes = new LinkedHashMap<>();
+    for (Concept vsacConcept : vsacConceptList) {
+      includes
+          .computeIfAbsent(
+              CodeSystemVersion.of(vsacConcept),
+              key -> createFhirInclude(vsacConcept, fhirValueSetComposeComponent))
+          .addConcept(createFhirConceptSetComponent(vsacConcept));
     }
   }
 
-  protected List<ConceptReferenceComponent> createFhirConceptReferenceComponents(
-      List<Concept> vsacConceptList) {
-    return vsacConceptList.stream()
-        .map(this::createFhirConceptSetComponent)
-        .collect(Collectors.toList());
+  private ConceptSetComponent createFhirInclude(
+      Concept firstVsacConcept, ValueSetComposeComponent valueSetComposeComponent) {
+    ConceptSetComponent fhirComponent = new ConceptSetComponent();
+    fhirComponent.setVersion(firstVsacConcept.getCodeSystemVersion());
+    fhirComponent.setSystem(getUrlByOid(firstVsacConcept.getCodeSystem()));
+    valueSetComposeComponent.getInclude().add(fhirComponent);
+    return fhirComponent;
   }
 
   protected ConceptReferenceComponent createFhirConceptSetComponent(Concept vascConcept) {
@@ -166,17 +98,22 @@ public class VsacToFhirValueSetMapper {
   }
 
   protected String getUrlByOid(String oid) {
-    List<CodeSystemEntry> codeSystemEntries = mappingService.getCodeSystemEntries();
+    if (StringUtils.isBlank(oid)) {
+      return oid;
+    }
+    return mappingService
+        .getCodeSystemEntryIndex()
+        .findByOid(oid)
+        .map(CodeSystemEntry::getUrl)
+        .orElse(oid);
+  }
 
-    if (!StringUtils.isBlank(oid)) {
-      Optional<CodeSystemEntry> codeSystemEntry =
-          codeSystemEntries.stream()
-              .filter(cse -> cse.getOid().replace("urn:oid:", "").equals(oid))
-              .findFirst();
-      if (codeSystemEntry.isPresent()) {
-        return codeSystemEntry.get().getUrl();
-      }
+  /** Code systems and versions are matched ignoring case. */
+  private record CodeSystemVersion(String codeSystem, String version) {
+    static CodeSystemVersion of(Concept vsacConcept) {
+      return new CodeSystemVersion(
+          StringUtils.lowerCase(vsacConcept.getCodeSystem()),
+          StringUtils.lowerCase(vsacConcept.getCodeSystemVersion()));
     }
-    return oid;
   }
 }
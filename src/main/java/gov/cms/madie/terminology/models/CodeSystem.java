@@ -9,6 +9,7 @@ import java.time.Instant;
 import java.util.Date;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
@@ -25,6 +26,7 @@ public class CodeSystem {
   private String qdmDisplayVersion; // match version HL7V3.0_2019-12 against fhir
   private String versionId;
   private String oid; // identifier[0].value oid of identifier List
-  private Instant lastUpdated; // when queried
+  @Indexed private Instant lastUpdated; // when its content last changed
+  private Instant lastSeen; // when last retrieved from VSAC
   private Date lastUpdatedUpstream; // when was resource last updated on vsac end
 }
@@ -0,0 +1,29 @@
+package gov.cms.madie.terminology.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Data
+@AllArgsConstructor
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@Document
+public class CodeSystemSyncState {
+  public static final String CODE_SYSTEMS = "code-systems";
+
+  @Id private String id;
+  private Instant lastFullSweep; // start of the last completed refresh of all code systems
+  private Instant lastRefresh; // start of the last completed refresh, full or incremental
+  // newest VSAC lastUpdated retrieved by a completed refresh, incremental refreshes request the
+  // code systems updated after it
+  private Instant upstreamWatermark;
+  private Instant catalogUpdated; // when the stored code systems last changed
+  private String qdmDisplayMappingVersion; // mapping the qdmDisplayVersions were resolved with
+}
@@ -0,0 +1,22 @@
+package gov.cms.madie.terminology.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Records the deletion of a code system, so clients syncing changes can delete their copy. */
+@Data
+@AllArgsConstructor
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@Document
+public class CodeSystemTombstone {
+  @Id private String id; // id of the deleted code system
+  private Instant deleted;
+}
@@ -0,0 +1,32 @@
+package gov.cms.madie.terminology.models;
+
+import gov.cms.madie.terminology.dto.QdmValueSet;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Data
+@AllArgsConstructor
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@Document
+public class ValueSetExpansion {
+  @Id private String id; // oid, manifest or version, and profile the value set was expanded for
+  private String oid;
+  private String manifest;
+  private String version;
+  private String profile;
+  private String mappingVersion; // code system entry mapping the concepts were mapped with
+  private QdmValueSet valueSet;
+  private Instant expandedAt;
+  // Mongo removes expired expansions, null for expansions pinned to a manifest or version
+  @Indexed(expireAfter = "0s")
+  private Instant expiresAt;
+}
@@ -2,12 +2,30 @@ package gov.cms.madie.terminology.repositories;
 
 import gov.cms.madie.terminology.models.CodeSystem;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
-public interface CodeSystemRepository extends MongoRepository<CodeSystem, String> {
+public interface CodeSystemRepository
+    extends MongoRepository<CodeSystem, String>, CodeSystemRepositoryCustom {
   Optional<CodeSystem> findById(String id);
 
-  Optional<CodeSystem> findByNameAndVersion(String name, String version);
+  /** Loads only the ids of the code systems not retrieved from VSAC since the given instant. */
+  @Query(
+      value = "{ $or: [ { 'lastSeen': { $lt: ?0 } }, { 'lastSeen': null } ] }",
+      fields = "{ '_id': 1 }")
+  List<CodeSystem> findIdsByLastSeenBefore(Instant lastSeen);
+
+  /** @return the code systems last updated after the first instant, up to the second one */
+  @Query("{ 'lastUpdated': { $gt: ?0, $lte: ?1 } }")
+  List<CodeSystem> findByLastUpdatedBetween(Instant after, Instant upTo);
+
+  /** @return the code systems last updated up to the given instant, or never stamped */
+  @Query("{ $or: [ { 'lastUpdated': { $lte: ?0 } }, { 'lastUpdated': null } ] }")
+  List<CodeSystem> findByLastUpdatedUpTo(Instant upTo);
 
-  Optional<CodeSystem> findByOidAndVersion(String oid, String version);
+  @Query(value = "{ $or: [ { 'lastSeen': { $lt: ?0 } }, { 'lastSeen': null } ] }", delete = true)
+  long deleteByLastSeenBefore(Instant lastSeen);
 }
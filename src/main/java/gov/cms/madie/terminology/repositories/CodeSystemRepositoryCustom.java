@@ -0,0 +1,28 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.dto.CodeSystemUpsertResult;
+import gov.cms.madie.terminology.models.CodeSystem;
+
+import java.util.List;
+import java.util.Map;
+
+public interface CodeSystemRepositoryCustom {
+
+  /**
+   * Inserts the code systems that do not exist yet and updates the existing ones, keyed on id.
+   * Only new and changed code systems are written and stamped with a new lastUpdated, all of them
+   * are stamped with a new lastSeen.
+   *
+   * @return how many code systems were inserted, modified or already up-to-date
+   */
+  CodeSystemUpsertResult upsertAll(List<CodeSystem> codeSystems);
+
+  /**
+   * Sets the qdmDisplayVersion of code systems, and stamps them with a new lastUpdated, with one
+   * bulk write per batch.
+   *
+   * @param qdmDisplayVersionsById display version by code system id, a null version is cleared
+   * @return how many code systems were modified
+   */
+  int updateQdmDisplayVersions(Map<String, String> qdmDisplayVersionsById);
+}
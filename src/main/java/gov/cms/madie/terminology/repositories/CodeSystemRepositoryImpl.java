@@ -0,0 +1,139 @@
+package gov.cms.madie.terminology.repositories;
+
+import com.mongodb.bulk.BulkWriteResult;
+import gov.cms.madie.terminology.dto.CodeSystemUpsertResult;
+import gov.cms.madie.terminology.models.CodeSystem;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Writes code systems with unordered bulk upserts, batchSize code systems per round-trip, instead
+ * of a find and a save per code system. The stored code systems of a batch are read first, so
+ * that only the new and changed ones are written.
+ */
+public class CodeSystemRepositoryImpl implements CodeSystemRepositoryCustom {
+  private final MongoTemplate mongoTemplate;
+  private final int batchSize;
+
+  public CodeSystemRepositoryImpl(
+      MongoTemplate mongoTemplate,
+      @Value("${code-system-refresh-task.batch-size:500}") int batchSize) {
+    this.mongoTemplate = mongoTemplate;
+    this.batchSize = batchSize;
+  }
+
+  @Override
+  public CodeSystemUpsertResult upsertAll(List<CodeSystem> codeSystems) {
+    // an unordered bulk may apply upserts of the same id in parallel, so the last one wins here
+    Map<String, CodeSystem> codeSystemsById = new LinkedHashMap<>();
+    codeSystems.forEach(codeSystem -> codeSystemsById.put(codeSystem.getId(), codeSystem));
+    List<CodeSystem> distinctCodeSystems = new ArrayList<>(codeSystemsById.values());
+
+    CodeSystemUpsertResult result = CodeSystemUpsertResult.builder().build();
+    for (int start = 0; start < distinctCodeSystems.size(); start += batchSize) {
+      List<CodeSystem> batch =
+          distinctCodeSystems.subList(
+              start, Math.min(start + batchSize, distinctCodeSystems.size()));
+      upsertBatch(batch, result);
+    }
+    return result;
+  }
+
+  private void upsertBatch(List<CodeSystem> batch, CodeSystemUpsertResult result) {
+    List<String> ids = batch.stream().map(CodeSystem::getId).toList();
+    Map<String, CodeSystem> storedById =
+        mongoTemplate.find(Query.query(Criteria.where("_id").in(ids)), CodeSystem.class).stream()
+            .collect(Collectors.toMap(CodeSystem::getId, Function.identity()));
+    // a full sweep retrieves every code system, clients syncing changes are only sent the ones
+    // whose content changed
+    List<CodeSystem> changed =
+        batch.stream()
+            .filter(codeSystem -> !hasSameContent(storedById.get(codeSystem.getId()), codeSystem))
+            .toList();
+    result.setUnchanged(result.getUnchanged() + batch.size() - changed.size());
+    Instant now = Instant.now();
+    if (!changed.isEmpty()) {
+      BulkOperations bulkOperations =
+          mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CodeSystem.class);
+      changed.forEach(
+          codeSystem ->
+              bulkOperations.upsert(
+                  byId(codeSystem.getId()), toUpdate(codeSystem).set("lastUpdated", now)));
+      BulkWriteResult writeResult = bulkOperations.execute();
+      result.setInserted(result.getInserted() + writeResult.getUpserts().size());
+      result.setModified(result.getModified() + writeResult.getModifiedCount());
+      result.setUnchanged(
+          result.getUnchanged() + writeResult.getMatchedCount() - writeResult.getModifiedCount());
+    }
+
+    // lastSeen records when a code system was last retrieved, so a full sweep can delete the ones
+    // it did not see. It is set apart from the upsert so that it does not count as a modification
+    mongoTemplate.updateMulti(
+        Query.query(Criteria.where("_id").in(ids)),
+        Update.update("lastSeen", now),
+        CodeSystem.class);
+  }
+
+  @Override
+  public int updateQdmDisplayVersions(Map<String, String> qdmDisplayVersionsById) {
+    List<Map.Entry<String, String>> updates = new ArrayList<>(qdmDisplayVersionsById.entrySet());
+    int modified = 0;
+    // the changed code systems are sent to clients syncing changes since their last sync
+    Instant lastUpdated = Instant.now();
+    for (int start = 0; start < updates.size(); start += batchSize) {
+      BulkOperations bulkOperations =
+          mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CodeSystem.class);
+      updates
+          .subList(start, Math.min(start + batchSize, updates.size()))
+          .forEach(
+              update ->
+                  bulkOperations.updateOne(
+                      byId(update.getKey()),
+                      Update.update("qdmDisplayVersion", update.getValue())
+                          .set("lastUpdated", lastUpdated)));
+      modified += bulkOperations.execute().getModifiedCount();
+    }
+    return modified;
+  }
+
+  private Query byId(String id) {
+    return Query.query(Criteria.where("_id").is(id));
+  }
+
+  private static boolean hasSameContent(CodeSystem stored, CodeSystem codeSystem) {
+    return stored != null
+        && Objects.equals(stored.getTitle(), codeSystem.getTitle())
+        && Objects.equals(stored.getFullUrl(), codeSystem.getFullUrl())
+        && Objects.equals(stored.getName(), codeSystem.getName())
+        && Objects.equals(stored.getVersion(), codeSystem.getVersion())
+        && Objects.equals(stored.getVersionId(), codeSystem.getVersionId())
+        && Objects.equals(stored.getOid(), codeSystem.getOid())
+        && Objects.equals(stored.getQdmDisplayVersion(), codeSystem.getQdmDisplayVersion())
+        && Objects.equals(stored.getLastUpdatedUpstream(), codeSystem.getLastUpdatedUpstream());
+  }
+
+  private Update toUpdate(CodeSystem codeSystem) {
+    return new Update()
+        .set("title", codeSystem.getTitle())
+        .set("fullUrl", codeSystem.getFullUrl())
+        .set("name", codeSystem.getName())
+        .set("version", codeSystem.getVersion())
+        .set("versionId", codeSystem.getVersionId())
+        .set("oid", codeSystem.getOid())
+        .set("qdmDisplayVersion", codeSystem.getQdmDisplayVersion())
+        .set("lastUpdatedUpstream", codeSystem.getLastUpdatedUpstream());
+  }
+}
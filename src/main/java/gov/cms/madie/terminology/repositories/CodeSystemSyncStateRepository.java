@@ -0,0 +1,7 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface CodeSystemSyncStateRepository
+    extends MongoRepository<CodeSystemSyncState, String>, CodeSystemSyncStateRepositoryCustom {}
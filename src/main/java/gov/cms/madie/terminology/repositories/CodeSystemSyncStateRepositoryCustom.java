@@ -0,0 +1,30 @@
+package gov.cms.madie.terminology.repositories;
+
+import java.time.Instant;
+
+/**
+ * Writes of the code system sync state that only set the fields their writer owns, so that the
+ * code system refresh and the QDM display version update never overwrite each other's fields.
+ */
+public interface CodeSystemSyncStateRepositoryCustom {
+
+  /**
+   * Records a completed code system refresh. The upstream watermark and catalogUpdated only move
+   * forward.
+   *
+   * @param fullSweep whether the refresh requested every code system, recorded as lastFullSweep
+   * @param upstreamWatermark newest VSAC lastUpdated retrieved by the refresh, or null if none
+   */
+  void saveRefresh(
+      Instant refreshStartedAt,
+      boolean fullSweep,
+      Instant upstreamWatermark,
+      Instant catalogUpdated);
+
+  /**
+   * Records the mapping the QDM display versions of the stored code systems were resolved with.
+   *
+   * @param catalogUpdated when display versions were changed, or null if none were
+   */
+  void saveQdmDisplayMappingVersion(String mappingVersion, Instant catalogUpdated);
+}
@@ -0,0 +1,54 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+/**
+ * Upserts the sync state document with $set and $max of single fields, instead of saving the
+ * whole document read at the start of a possibly long-running writer.
+ */
+public class CodeSystemSyncStateRepositoryImpl implements CodeSystemSyncStateRepositoryCustom {
+  private final MongoTemplate mongoTemplate;
+
+  public CodeSystemSyncStateRepositoryImpl(MongoTemplate mongoTemplate) {
+    this.mongoTemplate = mongoTemplate;
+  }
+
+  @Override
+  public void saveRefresh(
+      Instant refreshStartedAt,
+      boolean fullSweep,
+      Instant upstreamWatermark,
+      Instant catalogUpdated) {
+    Update update = new Update().set("lastRefresh", refreshStartedAt);
+    if (fullSweep) {
+      update.set("lastFullSweep", refreshStartedAt);
+    }
+    if (upstreamWatermark != null) {
+      update.max("upstreamWatermark", upstreamWatermark);
+    }
+    update.max("catalogUpdated", catalogUpdated);
+    upsert(update);
+  }
+
+  @Override
+  public void saveQdmDisplayMappingVersion(String mappingVersion, Instant catalogUpdated) {
+    Update update = new Update().set("qdmDisplayMappingVersion", mappingVersion);
+    if (catalogUpdated != null) {
+      update.max("catalogUpdated", catalogUpdated);
+    }
+    upsert(update);
+  }
+
+  private void upsert(Update update) {
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(CodeSystemSyncState.CODE_SYSTEMS)),
+        update,
+        CodeSystemSyncState.class);
+  }
+}
@@ -0,0 +1,18 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.CodeSystemTombstone;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface CodeSystemTombstoneRepository
+    extends MongoRepository<CodeSystemTombstone, String> {
+
+  /** @return the code systems deleted after the first instant, up to the second one */
+  @Query("{ 'deleted': { $gt: ?0, $lte: ?1 } }")
+  List<CodeSystemTombstone> findByDeletedBetween(Instant after, Instant upTo);
+
+  long deleteByDeletedBefore(Instant deleted);
+}
@@ -0,0 +1,95 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.ValueSetExpansion;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Creates the indexes declared on the indexed documents at startup, as index auto creation is
+ * disabled, then reports any declared index a collection still lacks. A failure is logged rather
+ * than failing startup: delta syncs only slow down without the code system index, and expired
+ * value set expansions are still ignored on read without their TTL index.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MongoIndexInitializer {
+  static final List<Class<?>> INDEXED_DOCUMENTS =
+      List.of(CodeSystem.class, ValueSetExpansion.class);
+
+  private final MongoTemplate mongoTemplate;
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void ensureIndexes() {
+    INDEXED_DOCUMENTS.forEach(this::ensureIndexes);
+  }
+
+  private void ensureIndexes(Class<?> documentClass) {
+    try {
+      IndexOperations indexOperations = mongoTemplate.indexOps(documentClass);
+      List<IndexDefinition> declaredIndexes = new ArrayList<>();
+      IndexResolver.create(mongoTemplate.getConverter().getMappingContext())
+          .resolveIndexFor(documentClass)
+          .forEach(declaredIndexes::add);
+      for (IndexDefinition index : declaredIndexes) {
+        ensureIndex(indexOperations, documentClass, index);
+      }
+      reportMissingIndexes(indexOperations, documentClass, declaredIndexes);
+    } catch (RuntimeException ex) {
+      log.error("Unable to verify the {} indexes", documentClass.getSimpleName(), ex);
+    }
+  }
+
+  private void ensureIndex(
+      IndexOperations indexOperations, Class<?> documentClass, IndexDefinition index) {
+    try {
+      indexOperations.ensureIndex(index);
+    } catch (RuntimeException ex) {
+      log.error(
+          "Unable to create {} index {}",
+          documentClass.getSimpleName(),
+          index.getIndexKeys().toJson(),
+          ex);
+    }
+  }
+
+  /** @return the keys of the declared indexes the collection lacks */
+  List<List<String>> reportMissingIndexes(
+      IndexOperations indexOperations,
+      Class<?> documentClass,
+      List<IndexDefinition> declaredIndexes) {
+    Set<List<String>> existingKeys =
+        indexOperations.getIndexInfo().stream()
+            .map(IndexInfo::getIndexFields)
+            .map(fields -> fields.stream().map(IndexField::getKey).toList())
+            .collect(Collectors.toSet());
+    List<List<String>> missingKeys =
+        declaredIndexes.stream()
+            .map(index -> List.copyOf(index.getIndexKeys().keySet()))
+            .filter(keys -> !existingKeys.contains(keys))
+            .toList();
+    if (missingKeys.isEmpty()) {
+      log.info(
+          "All {} {} indexes are present", declaredIndexes.size(), documentClass.getSimpleName());
+    } else {
+      missingKeys.forEach(
+          keys -> log.warn("{} index on {} is missing", documentClass.getSimpleName(), keys));
+    }
+    return missingKeys;
+  }
+}
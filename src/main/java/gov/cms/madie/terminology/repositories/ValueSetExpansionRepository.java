@@ -0,0 +1,6 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.ValueSetExpansion;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface ValueSetExpansionRepository extends MongoRepository<ValueSetExpansion, String> {}
@@ -0,0 +1,42 @@
+package gov.cms.madie.terminology.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records how many codes of a request were duplicates of another code in the same request, and so
+ * were resolved without a call of their own to VSAC.
+ */
+@Component
+@RequiredArgsConstructor
+public class CodeDeduplicationMetrics {
+  static final String DEDUP_RATIO = "terminology.codes.dedup.ratio";
+  static final String LOOKUPS_SAVED = "terminology.codes.lookups.saved";
+
+  private final MeterRegistry meterRegistry;
+
+  /**
+   * @param operation the request the codes were part of, e.g. validate-codes
+   * @param requested number of codes in the request
+   * @param distinct number of distinct codes that were resolved
+   */
+  public void record(String operation, int requested, int distinct) {
+    if (requested == 0) {
+      return;
+    }
+    int saved = requested - distinct;
+    DistributionSummary.builder(DEDUP_RATIO)
+        .description("Share of the codes in a request that duplicate another code")
+        .tag("operation", operation)
+        .register(meterRegistry)
+        .record((double) saved / requested);
+    Counter.builder(LOOKUPS_SAVED)
+        .description("Code lookups saved by resolving duplicate codes once")
+        .tag("operation", operation)
+        .register(meterRegistry)
+        .increment(saved);
+  }
+}
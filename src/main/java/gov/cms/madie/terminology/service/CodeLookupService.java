@@ -0,0 +1,231 @@
+package gov.cms.madie.terminology.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import gov.cms.madie.terminology.dto.Code;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
+import gov.cms.madie.terminology.webclient.FhirTerminologyServiceWebClient;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
+import org.hl7.fhir.r4.model.Parameters;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Looks up codes on the VSAC FHIR Terminology Server, together with their status in SVS, for the
+ * code systems and versions known to the code system mapping.
+ */
+@Service
+@RequiredArgsConstructor
+public class CodeLookupService {
+  private final FhirContext fhirContext;
+  private final FhirTerminologyServiceWebClient fhirTerminologyServiceWebClient;
+  private final MappingService mappingService;
+  private final CodeSystemCatalog codeSystemCatalog;
+  private final VsacService vsacService;
+  private final CodeDeduplicationMetrics codeDeduplicationMetrics;
+
+  @Value("${client.code-lookup-concurrency:8}")
+  private int codeLookupConcurrency;
+
+  /**
+   * @return the code, or an empty Mono if the code system or its version mapping is not found.
+   */
+  public Mono<Code> retrieveCode(
+      String codeName, String codeSystemName, String version, String apiKey) {
+    if (StringUtils.isEmpty(codeName)
+        || StringUtils.isEmpty(codeSystemName)
+        || StringUtils.isEmpty(version)) {
+      return Mono.empty();
+    }
+
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    return Mono.justOrEmpty(codeSystemCatalog.findByNameAndVersion(codeSystemName, version))
+        .flatMap(
+            codeSystem -> {
+              Optional<Map.Entry<String, String>> mappedVersion =
+                  mapVersion(version, codeSystem.getOid(), codeSystemEntryIndex, "fhirVersion");
+              if (mappedVersion.isEmpty()) {
+                return Mono.empty();
+              }
+              String vsacVersion = mappedVersion.get().getKey();
+              String fhirVersion = mappedVersion.get().getValue();
+              return retrieveCodes(
+                  codeName, codeSystemName, vsacVersion, fhirVersion, codeSystem, apiKey);
+            });
+  }
+
+  /**
+   * Versions of all codes are mapped in one pass and their code systems are read from the catalog.
+   * The codes are then looked up concurrently, at most codeLookupConcurrency at a time.
+   * Codes repeated in the request are retrieved once and the result is shared by every repeat.
+   *
+   * @return the codes in input order. An entry is null if its code system or version mapping is not
+   *     found.
+   */
+  public Mono<List<Code>> retrieveCodesAndCodeSystems(
+      List<Map<String, String>> codeList, String apiKey) {
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    // versions of all distinct codes are mapped in one pass, repeated codes are retrieved once
+    Map<List<String>, Optional<CodeRequest>> distinctCodes = new LinkedHashMap<>();
+    codeList.forEach(
+        codeDetails ->
+            distinctCodes.computeIfAbsent(
+                getCodeKey(codeDetails), key -> toCodeRequest(codeDetails, codeSystemEntryIndex)));
+    codeDeduplicationMetrics.record("retrieve-codes", codeList.size(), distinctCodes.size());
+    List<CodeRequest> codeRequests =
+        distinctCodes.values().stream().flatMap(Optional::stream).toList();
+    return Flux.fromIterable(codeRequests)
+        .flatMap(
+            codeRequest ->
+                retrieveCode(codeRequest, apiKey).map(code -> Map.entry(codeRequest, code)),
+            codeLookupConcurrency)
+        .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+        // codes complete in any order, the response is assembled in input order. Reactive streams
+        // cannot carry nulls, unresolved codes are added as null entries here
+        .map(
+            codes ->
+                codeList.stream()
+                    .map(
+                        codeDetails ->
+                            distinctCodes
+                                .get(getCodeKey(codeDetails))
+                                .map(codes::get)
+                                .map(code -> withVersionIncluded(code, codeDetails))
+                                .orElse(null))
+                    .collect(Collectors.toList()));
+  }
+
+  /** The parts of the code details a retrieved code depends on, other than versionIncluded. */
+  private List<String> getCodeKey(Map<String, String> codeDetails) {
+    return Arrays.asList(
+        getOid(codeDetails),
+        codeDetails.get("version"),
+        codeDetails.get("code"),
+        codeDetails.get("codeSystem"));
+  }
+
+  private String getOid(Map<String, String> codeDetails) {
+    return codeDetails.get("oid") != null ? codeDetails.get("oid").replaceAll("'|'", "") : null;
+  }
+
+  /** Repeats share the retrieved code, so each gets a copy with its own versionIncluded flag. */
+  private Code withVersionIncluded(Code code, Map<String, String> codeDetails) {
+    return code.toBuilder()
+        .versionIncluded("true".equals(codeDetails.get("versionIncluded")))
+        .build();
+  }
+
+  /**
+   * @return the code with its mapped versions, or empty if the code system or version mapping is
+   *     not found.
+   */
+  private Optional<CodeRequest> toCodeRequest(
+      Map<String, String> codeDetails, CodeSystemEntryIndex codeSystemEntryIndex) {
+    String codeName = codeDetails.get("code");
+    String codeSystemName = codeDetails.get("codeSystem");
+    String oid = getOid(codeDetails);
+
+    Optional<Map.Entry<String, String>> mappedVersion =
+        mapVersion(codeDetails.get("version"), oid, codeSystemEntryIndex, "svsVersion");
+    if (mappedVersion.isEmpty()) {
+      return Optional.empty();
+    }
+    String vsacVersion = mappedVersion.get().getKey();
+    String fhirVersion = mappedVersion.get().getValue();
+
+    if (StringUtils.isEmpty(codeName)
+        || StringUtils.isEmpty(codeSystemName)
+        || StringUtils.isEmpty(fhirVersion)) {
+      return Optional.empty();
+    }
+    return Optional.of(new CodeRequest(codeName, codeSystemName, oid, vsacVersion, fhirVersion));
+  }
+
+  private Mono<Code> retrieveCode(CodeRequest codeRequest, String apiKey) {
+    return Mono.justOrEmpty(
+            codeSystemCatalog.findByOidAndVersion(codeRequest.oid(), codeRequest.fhirVersion()))
+        .flatMap(
+            codeSystem ->
+                retrieveCodes(
+                    codeRequest.codeName(),
+                    codeRequest.codeSystemName(),
+                    codeRequest.vsacVersion(),
+                    codeRequest.fhirVersion(),
+                    codeSystem,
+                    apiKey));
+  }
+
+  private Optional<Map.Entry<String, String>> mapVersion(
+      String version,
+      String oid,
+      CodeSystemEntryIndex codeSystemEntryIndex,
+      String versionType) {
+    if (oid == null) {
+      return Optional.empty();
+    }
+
+    Optional<CodeSystemEntry> codeSystemEntry = codeSystemEntryIndex.findByOid(oid);
+    if (codeSystemEntry.isEmpty()) {
+      return Optional.empty();
+    }
+
+    Optional<CodeSystemEntry.Version> codeSystemVersion;
+    if (version == null) {
+      codeSystemVersion = Optional.of(codeSystemEntry.get().getVersions().get(0));
+    } else if ("svsVersion".equals(versionType)) {
+      // depending on the version type suitable mapping is done
+      codeSystemVersion = codeSystemEntryIndex.findVersionByVsac(oid, version);
+    } else {
+      codeSystemVersion = codeSystemEntryIndex.findVersionByFhir(oid, version);
+    }
+
+    return codeSystemVersion.map(v -> Map.entry(v.getVsac(), v.getFhir()));
+  }
+
+  private Mono<Code> retrieveCodes(
+      String codeName,
+      String codeSystemName,
+      String vsacVersion,
+      String fhirVersion,
+      CodeSystem codeSystem,
+      String apiKey) {
+    // the SVS status only needs the code, system and versions, so it is requested alongside the
+    // $lookup instead of after it
+    Code statusRequest =
+        Code.builder()
+            .name(codeName)
+            .codeSystem(codeSystemName)
+            .fhirVersion(fhirVersion)
+            .svsVersion(vsacVersion)
+            .codeSystemOid(codeSystem.getOid())
+            .build();
+    Mono<Parameters> lookup =
+        fhirTerminologyServiceWebClient
+            .getCodeResourceMono(codeName, codeSystem, apiKey)
+            .map(codeJson -> fhirContext.newJsonParser().parseResource(Parameters.class, codeJson));
+    return Mono.zip(lookup, vsacService.getCodeStatus(statusRequest, apiKey))
+        .map(
+            lookupAndStatus -> {
+              Parameters parameters = lookupAndStatus.getT1();
+              return statusRequest.toBuilder()
+                  .display(parameters.getParameter("display").getValue().toString())
+                  .codeSystemOid(parameters.getParameter("Oid").getValue().toString())
+                  .status(lookupAndStatus.getT2())
+                  .build();
+            });
+  }
+
+  private record CodeRequest(
+      String codeName, String codeSystemName, String oid, String vsacVersion, String fhirVersion) {}
+}
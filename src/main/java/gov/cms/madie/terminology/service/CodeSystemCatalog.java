@@ -0,0 +1,166 @@
+package gov.cms.madie.terminology.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.madie.terminology.dto.SerializedCodeSystems;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemSyncStateRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory copy of all stored code systems, indexed by id, by name and version and by oid and
+ * version. The catalog is loaded on first use and replaced as a whole once a refresh completes, so
+ * readers always see one consistent set. Other replicas notice the refresh through the
+ * catalogUpdated stamp of the code system sync state and reload their own copy. The list of all
+ * code systems is serialized and gzipped once per load, so it can be sent as is.
+ *
+ * <p>Code systems are shared by all readers and must not be modified.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CodeSystemCatalog {
+  private final CodeSystemRepository codeSystemRepository;
+  private final CodeSystemSyncStateRepository codeSystemSyncStateRepository;
+  private final ObjectMapper objectMapper;
+
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+  /** @return all code systems */
+  public List<CodeSystem> getAll() {
+    return getSnapshot().codeSystems();
+  }
+
+  /** @return the list of all code systems serialized as json, with its version */
+  public SerializedCodeSystems getSerialized() {
+    return getSnapshot().serialized();
+  }
+
+  public Optional<CodeSystem> findById(String id) {
+    return Optional.ofNullable(getSnapshot().byId().get(id));
+  }
+
+  public Optional<CodeSystem> findByNameAndVersion(String name, String version) {
+    return Optional.ofNullable(getSnapshot().byNameAndVersion().get(Arrays.asList(name, version)));
+  }
+
+  public Optional<CodeSystem> findByOidAndVersion(String oid, String version) {
+    return Optional.ofNullable(getSnapshot().byOidAndVersion().get(Arrays.asList(oid, version)));
+  }
+
+  /**
+   * Loads all code systems from Mongo and replaces the catalog in one step. The sync state is read
+   * first, so a refresh completing during the load is picked up by the next check.
+   */
+  public synchronized void reload() {
+    Instant catalogUpdated = readCatalogUpdated();
+    List<CodeSystem> codeSystems = List.copyOf(codeSystemRepository.findAll());
+    snapshot.set(
+        new Snapshot(
+            catalogUpdated,
+            codeSystems,
+            index(codeSystems, CodeSystem::getId),
+            index(
+                codeSystems,
+                codeSystem -> Arrays.asList(codeSystem.getName(), codeSystem.getVersion())),
+            index(
+                codeSystems,
+                codeSystem -> Arrays.asList(codeSystem.getOid(), codeSystem.getVersion())),
+            serialize(codeSystems)));
+    log.info("Code system catalog loaded with {} code systems", codeSystems.size());
+  }
+
+  /** Reloads the catalog if a refresh on any replica has completed since it was loaded. */
+  @Scheduled(
+      initialDelayString = "${code-system-catalog.check-interval:PT1M}",
+      fixedDelayString = "${code-system-catalog.check-interval:PT1M}")
+  public void reloadIfChanged() {
+    Snapshot current = snapshot.get();
+    if (current == null) {
+      // nothing was read yet, the catalog is loaded on first use
+      return;
+    }
+    try {
+      if (!Objects.equals(current.catalogUpdated(), readCatalogUpdated())) {
+        log.info("Code systems were refreshed since the catalog was loaded, reloading it");
+        reload();
+      }
+    } catch (RuntimeException ex) {
+      // the loaded catalog is kept, the next check tries again
+      log.warn("Unable to check the code system catalog for changes", ex);
+    }
+  }
+
+  private Snapshot getSnapshot() {
+    Snapshot current = snapshot.get();
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot.get() == null) {
+          reload();
+        }
+        current = snapshot.get();
+      }
+    }
+    return current;
+  }
+
+  private Instant readCatalogUpdated() {
+    return codeSystemSyncStateRepository
+        .findById(CodeSystemSyncState.CODE_SYSTEMS)
+        .map(CodeSystemSyncState::getCatalogUpdated)
+        .orElse(null);
+  }
+
+  private SerializedCodeSystems serialize(List<CodeSystem> codeSystems) {
+    try {
+      byte[] json = objectMapper.writeValueAsBytes(codeSystems);
+      ByteArrayOutputStream gzippedJson = new ByteArrayOutputStream(json.length / 4);
+      try (GZIPOutputStream gzip = new GZIPOutputStream(gzippedJson)) {
+        gzip.write(json);
+      }
+      String version = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(json));
+      return new SerializedCodeSystems(version, json, gzippedJson.toByteArray());
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Unable to serialize code systems", ex);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA-256 is not available", ex);
+    }
+  }
+
+  private static <K> Map<K, CodeSystem> index(
+      List<CodeSystem> codeSystems, Function<CodeSystem, K> key) {
+    Map<K, CodeSystem> index = new HashMap<>();
+    // a key shared by several code systems resolves to the first one
+    codeSystems.forEach(codeSystem -> index.putIfAbsent(key.apply(codeSystem), codeSystem));
+    return index;
+  }
+
+  private record Snapshot(
+      Instant catalogUpdated,
+      List<CodeSystem> codeSystems,
+      Map<String, CodeSystem> byId,
+      Map<List<String>, CodeSystem> byNameAndVersion,
+      Map<List<String>, CodeSystem> byOidAndVersion,
+      SerializedCodeSystems serialized) {}
+}
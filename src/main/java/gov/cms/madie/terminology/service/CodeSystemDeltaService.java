@@ -0,0 +1,88 @@
+package gov.cms.madie.terminology.service;
+
+import gov.cms.madie.terminology.dto.CodeSystemDelta;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemTombstone;
+import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemTombstoneRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Lets clients that mirror the code systems sync only what changed since their last sync. Changed
+ * code systems are found by their lastUpdated stamp, which is only renewed when their content
+ * changes, deleted ones by the tombstone recorded when they were deleted.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CodeSystemDeltaService {
+  private final CodeSystemRepository codeSystemRepository;
+  private final CodeSystemTombstoneRepository codeSystemTombstoneRepository;
+
+  // stamps are taken before the writes complete, and by several replicas, so changes are only
+  // sent once they are this old
+  @Value("${code-system-delta.settle-time:PT1M}")
+  private Duration settleTime;
+
+  @Value("${code-system-delta.tombstone-retention:P90D}")
+  private Duration tombstoneRetention;
+
+  /**
+   * @param since watermark of the client's last sync, or null if it has none
+   * @return the code systems changed and deleted since the watermark, or all code systems if the
+   *     client has no watermark or its watermark is older than the retained tombstones
+   */
+  public CodeSystemDelta getChangesSince(Instant since) {
+    Instant now = Instant.now();
+    Instant upTo = now.minus(settleTime);
+    if (since == null || since.isBefore(now.minus(tombstoneRetention))) {
+      // code systems stored before they were stamped have no lastUpdated
+      List<CodeSystem> codeSystems = codeSystemRepository.findByLastUpdatedUpTo(upTo);
+      return CodeSystemDelta.builder()
+          .fullSync(true)
+          .codeSystems(codeSystems)
+          .deletedIds(List.of())
+          .watermark(upTo)
+          .build();
+    }
+    List<String> deletedIds =
+        codeSystemTombstoneRepository.findByDeletedBetween(since, upTo).stream()
+            .map(CodeSystemTombstone::getId)
+            .toList();
+    return CodeSystemDelta.builder()
+        .fullSync(false)
+        .codeSystems(codeSystemRepository.findByLastUpdatedBetween(since, upTo))
+        .deletedIds(deletedIds)
+        .watermark(upTo.isAfter(since) ? upTo : since)
+        .build();
+  }
+
+  /**
+   * Deletes the code systems not retrieved from VSAC since the given instant, recording a tombstone
+   * for each of them, and drops the tombstones older than tombstoneRetention.
+   *
+   * @return how many code systems were deleted
+   */
+  public long deleteCodeSystemsNotSeenSince(Instant lastSeen) {
+    Instant deleted = Instant.now();
+    List<CodeSystemTombstone> tombstones =
+        codeSystemRepository.findIdsByLastSeenBefore(lastSeen).stream()
+            .map(codeSystem -> new CodeSystemTombstone(codeSystem.getId(), deleted))
+            .toList();
+    // tombstones are written first, so a failed delete at worst has clients drop a code system
+    // that the next full sweep deletes anyway
+    codeSystemTombstoneRepository.saveAll(tombstones);
+    long deletedCount = codeSystemRepository.deleteByLastSeenBefore(lastSeen);
+    long expired =
+        codeSystemTombstoneRepository.deleteByDeletedBefore(deleted.minus(tombstoneRetention));
+    log.debug("Dropped {} code system tombstones older than {}", expired, tombstoneRetention);
+    return deletedCount;
+  }
+}
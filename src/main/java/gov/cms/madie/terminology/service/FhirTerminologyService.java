@@ -6,18 +6,26 @@ import gov.cms.madie.models.mapping.CodeSystemEntry;
 import gov.cms.madie.models.measure.ManifestExpansion;
 import gov.cms.madie.terminology.dto.*;
 import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemSyncStateRepository;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
 import gov.cms.madie.terminology.util.TerminologyServiceUtil;
+import gov.cms.madie.terminology.util.ValueSetResult;
+import gov.cms.madie.terminology.webclient.FhirResourcePager;
 import gov.cms.madie.terminology.webclient.FhirTerminologyServiceWebClient;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.r4.model.*;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
-import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -30,131 +38,197 @@ public class FhirTerminologyService {
   private final FhirTerminologyServiceWebClient fhirTerminologyServiceWebClient;
   private final MappingService mappingService;
   private final CodeSystemRepository codeSystemRepository;
-  private final VsacService vsacService;
+  private final ValueSetExpansionCache valueSetExpansionCache;
+  private final CodeSystemSyncStateRepository codeSystemSyncStateRepository;
+  private final CodeSystemCatalog codeSystemCatalog;
+  private final QdmDisplayVersionService qdmDisplayVersionService;
+  private final CodeSystemDeltaService codeSystemDeltaService;
 
+  @Value("${client.value-set-concurrency:8}")
+  private int valueSetConcurrency;
+
+  @Value("${client.fhir-terminology-service.expansion-page-concurrency:4}")
+  private int expansionPageConcurrency;
+
+  @Value("${code-system-refresh-task.full-sweep-interval:P7D}")
+  private Duration fullSweepInterval;
+
+  @Value("${code-system-refresh-task.page-size:50}")
+  private int codeSystemPageSize;
+
+  @Value("${code-system-refresh-task.page-concurrency:4}")
+  private int codeSystemPageConcurrency;
+
+  // reactive return types are cached by their emitted value
   @Cacheable("manifest-list")
-  public List<ManifestExpansion> getManifests(UmlsUser umlsUser) {
-    IParser parser = fhirContext.newJsonParser();
-    String responseString = fhirTerminologyServiceWebClient.getManifestBundle(umlsUser.getApiKey());
-    Bundle manifestBundle = parser.parseResource(Bundle.class, responseString);
-    var manifestOptions = new ArrayList<ManifestExpansion>();
-    manifestBundle
-        .getEntry()
-        .forEach(
-            entry ->
-                manifestOptions.add(
-                    ManifestExpansion.builder()
-                        .id(entry.getResource().getIdPart())
-                        .fullUrl(entry.getFullUrl())
-                        .build()));
-    return manifestOptions;
+  public Mono<List<ManifestExpansion>> getManifests(UmlsUser umlsUser) {
+    return fhirTerminologyServiceWebClient
+        .getManifestBundleMono(umlsUser.getApiKey())
+        // bundles are parsed off the event loop the response arrived on
+        .publishOn(Schedulers.boundedElastic())
+        .map(
+            responseString -> {
+              IParser parser = fhirContext.newJsonParser();
+              Bundle manifestBundle = parser.parseResource(Bundle.class, responseString);
+              var manifestOptions = new ArrayList<ManifestExpansion>();
+              manifestBundle
+                  .getEntry()
+                  .forEach(
+                      entry ->
+                          manifestOptions.add(
+                              ManifestExpansion.builder()
+                                  .id(entry.getResource().getIdPart())
+                                  .fullUrl(entry.getFullUrl())
+                                  .build()));
+              return manifestOptions;
+            });
   }
 
-  // spin off requests based on values provided in the expansion
-  public List<QdmValueSet> recursivelyRequestAllValueSetsExpansionsForQDM(
-      List<QdmValueSet> allValueSets,
+  /**
+   * Requests the first page of the value set expansion and, once its total is known, all remaining
+   * pages concurrently, at most expansionPageConcurrency at a time. The concepts of all pages are
+   * appended in offset order to one list, sized to the total, and the QdmValueSet is built once
+   * all pages have arrived.
+   */
+  public Mono<QdmValueSet> requestAllValueSetExpansionPagesForQDM(
       String apiKey,
       ValueSetsSearchCriteria.ValueSetParams vsParam,
       ValueSetsSearchCriteria valueSetsSearchCriteria,
-      List<CodeSystemEntry> codeSystemEntries) {
-    IParser parser = fhirContext.newJsonParser();
-    String resource =
-        fhirTerminologyServiceWebClient.getValueSetResource(
-            apiKey,
-            vsParam,
-            valueSetsSearchCriteria.getProfile(),
-            valueSetsSearchCriteria.getIncludeDraft(),
-            valueSetsSearchCriteria.getManifestExpansion());
-
-    ValueSet valueSetResource = parser.parseResource(ValueSet.class, resource);
-    var total = valueSetResource.getExpansion().getTotal(); // total valuesets
+      CodeSystemEntryIndex codeSystemEntryIndex) {
+    return requestValueSetExpansionPage(apiKey, vsParam, valueSetsSearchCriteria)
+        .flatMap(
+            firstPage -> {
+              int total = firstPage.getExpansion().getTotal();
+              List<QdmValueSet.Concept> concepts = new ArrayList<>(Math.max(total, 0));
+              return Flux.concat(
+                      Mono.just(firstPage),
+                      requestRemainingValueSetExpansionPages(
+                          apiKey, vsParam, valueSetsSearchCriteria, total))
+                  .doOnNext(
+                      page ->
+                          concepts.addAll(getValueSetConcepts(page, codeSystemEntryIndex, "QDM")))
+                  .then(
+                      Mono.fromSupplier(
+                          () ->
+                              QdmValueSet.builder()
+                                  .oid(firstPage.getIdPart())
+                                  .displayName(firstPage.getName())
+                                  .version(firstPage.getVersion())
+                                  .concepts(concepts)
+                                  .build()));
+            });
+  }
 
-    List<QdmValueSet.Concept> concepts =
-        getValueSetConcepts(valueSetResource, codeSystemEntries, "QDM");
-    log.info(
-        "vs total [{}] count: [{}] offset: [{}], oid: [{}]",
-        total,
-        vsParam.getCount(),
+  private Flux<ValueSet> requestRemainingValueSetExpansionPages(
+      String apiKey,
+      ValueSetsSearchCriteria.ValueSetParams vsParam,
+      ValueSetsSearchCriteria valueSetsSearchCriteria,
+      int total) {
+    return FhirResourcePager.requestRemainingPages(
         vsParam.getOffset(),
-        vsParam.getOid());
+        vsParam.getCount(),
+        total,
+        expansionPageConcurrency,
+        offset ->
+            requestValueSetExpansionPage(
+                apiKey,
+                ValueSetsSearchCriteria.ValueSetParams.builder()
+                    .oid(vsParam.getOid())
+                    .release(vsParam.getRelease())
+                    .version(vsParam.getVersion())
+                    .count(vsParam.getCount())
+                    .offset(offset)
+                    .build(),
+                valueSetsSearchCriteria));
+  }
 
-    // Check if the ValueSet with the same oid already exists in allValueSets
-    QdmValueSet existingValueSet =
-        allValueSets.stream()
-            .filter(vs -> vs.getOid().equals(vsParam.getOid()))
-            .findFirst()
-            .orElse(null);
-    if (existingValueSet != null) {
-      List<QdmValueSet.Concept> updatedConcepts = new ArrayList<>(existingValueSet.getConcepts());
-      updatedConcepts.addAll(concepts);
-      // Create a new QdmValueSet with the updated concepts
-      QdmValueSet updatedValueSet =
-          QdmValueSet.builder()
-              .oid(existingValueSet.getOid())
-              .displayName(existingValueSet.getDisplayName())
-              .version(existingValueSet.getVersion())
-              .concepts(updatedConcepts)
-              .build();
-      // Replace the existing QdmValueSet in the list
-      allValueSets.set(allValueSets.indexOf(existingValueSet), updatedValueSet);
-    } else {
-      allValueSets.add(
-          QdmValueSet.builder()
-              .oid(valueSetResource.getIdPart())
-              .displayName(valueSetResource.getName())
-              .version(valueSetResource.getVersion())
-              .concepts(concepts)
-              .build());
-    }
-    //  if the total results in the searchSet are still greater than our current offset + the count
-    // of our last request, then we request again
-    if (vsParam.getOffset() + vsParam.getCount() <= total) {
-      vsParam.setOffset(vsParam.getOffset() + 1000);
-      return recursivelyRequestAllValueSetsExpansionsForQDM(
-          allValueSets, apiKey, vsParam, valueSetsSearchCriteria, codeSystemEntries);
-    }
-    return allValueSets;
+  private Mono<ValueSet> requestValueSetExpansionPage(
+      String apiKey,
+      ValueSetsSearchCriteria.ValueSetParams pageParam,
+      ValueSetsSearchCriteria valueSetsSearchCriteria) {
+    return fhirTerminologyServiceWebClient
+        .getValueSetResourceMono(
+            apiKey,
+            pageParam,
+            valueSetsSearchCriteria.getProfile(),
+            valueSetsSearchCriteria.getIncludeDraft(),
+            valueSetsSearchCriteria.getManifestExpansion())
+        // an expansion page can hold thousands of concepts, it is parsed off the event loop
+        .publishOn(Schedulers.boundedElastic())
+        .map(
+            resource -> {
+              ValueSet valueSetResource =
+                  fhirContext.newJsonParser().parseResource(ValueSet.class, resource);
+              log.info(
+                  "vs total [{}] count: [{}] offset: [{}], oid: [{}]",
+                  valueSetResource.getExpansion().getTotal(),
+                  pageParam.getCount(),
+                  pageParam.getOffset(),
+                  pageParam.getOid());
+              return valueSetResource;
+            });
   }
 
-  public List<QdmValueSet> getValueSetsExpansionsForQdm(
+  public Mono<List<QdmValueSet>> getValueSetsExpansionsForQdm(
       ValueSetsSearchCriteria valueSetsSearchCriteria, UmlsUser umlsUser) {
-    List<CodeSystemEntry> codeSystemEntries = mappingService.getCodeSystemEntries();
-    return valueSetsSearchCriteria.getValueSetParams().stream()
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    return Flux.fromIterable(valueSetsSearchCriteria.getValueSetParams())
         .map(
             vsParam -> {
               vsParam.setCount(1000);
               vsParam.setOffset(0);
               return vsParam;
             })
-        .flatMap(
+        // value sets are expanded concurrently, at most valueSetConcurrency at a time, in input
+        // order. A failed expansion is reported on its value set unless all of them failed.
+        .flatMapSequential(
             vsParam ->
-                recursivelyRequestAllValueSetsExpansionsForQDM(
-                    new ArrayList<>(),
-                    umlsUser.getApiKey(),
-                    vsParam,
-                    valueSetsSearchCriteria,
-                    codeSystemEntries)
-                    .stream())
-        .collect(Collectors.toList());
+                ValueSetResult.capture(
+                    vsParam.getOid(),
+                    valueSetExpansionCache.getOrExpand(
+                        valueSetsSearchCriteria,
+                        vsParam,
+                        () ->
+                            requestAllValueSetExpansionPagesForQDM(
+                                umlsUser.getApiKey(),
+                                vsParam,
+                                valueSetsSearchCriteria,
+                                codeSystemEntryIndex))),
+            valueSetConcurrency)
+        .collectList()
+        .flatMap(ValueSetResult::failIfAllFailed)
+        .map(results -> results.stream().map(this::getExpandedValueSet).toList());
+  }
+
+  private QdmValueSet getExpandedValueSet(ValueSetResult<QdmValueSet> result) {
+    if (!result.failed()) {
+      return result.value();
+    }
+    log.warn("Unable to expand value set {}", result.oid(), result.error());
+    return QdmValueSet.builder()
+        .oid(result.oid())
+        .concepts(List.of())
+        .error(result.getErrorMessage())
+        .build();
   }
 
   /**
    * @param valueSet resource from FHIR Terminology Server
-   * @param codeSystemEntries Code Systems mapping document
+   * @param codeSystemEntryIndex Code Systems mapping document
    * @return a List of QdmValueSet.Concept if the valueSet has expansions. Also, valueSet resource
    *     only has CodeSystem URL info for its expansions, so we use codeSystem entries to find its
    *     appropriate OID If associated OID is not found, we return the original FHIR URL of the code
    *     system.
    */
   private List<QdmValueSet.Concept> getValueSetConcepts(
-      ValueSet valueSet, List<CodeSystemEntry> codeSystemEntries, String model) {
+      ValueSet valueSet, CodeSystemEntryIndex codeSystemEntryIndex, String model) {
     if (valueSet.getExpansion() != null && valueSet.getExpansion().getTotal() > 0) {
       return valueSet.getExpansion().getContains().stream()
           .map(
               concept -> {
                 Optional<CodeSystemEntry> optionalCodeSystemEntry =
                     TerminologyServiceUtil.getCodeSystemEntry(
-                        codeSystemEntries, concept.getSystem(), "FHIR");
+                        codeSystemEntryIndex, concept.getSystem(), "FHIR");
                 String codeSystemOid = concept.getSystem();
                 String codeSystem = concept.getSystem();
                 String codeSystemVersion = concept.getVersion();
@@ -163,7 +237,10 @@ public class FhirTerminologyService {
                   codeSystem = optionalCodeSystemEntry.get().getName();
                   codeSystemVersion =
                       TerminologyServiceUtil.getCodeSystemVersion(
-                          optionalCodeSystemEntry.get(), concept.getVersion(), model);
+                          codeSystemEntryIndex,
+                          optionalCodeSystemEntry.get(),
+                          concept.getVersion(),
+                          model);
                 }
                 return QdmValueSet.Concept.builder()
                     .code(concept.getCode())
@@ -179,57 +256,44 @@ public class FhirTerminologyService {
     return List.of();
   }
 
-  public ValueSetSearchResult searchValueSets(String apiKey, Map<String, String> queryParams) {
-    IParser parser = fhirContext.newJsonParser();
-    String responseString = fhirTerminologyServiceWebClient.searchValueSets(apiKey, queryParams);
-    Bundle bundle = parser.parseResource(Bundle.class, responseString);
-    List<ValueSetForSearch> valueSetList = new ArrayList<>();
-    bundle
-        .getEntry()
-        .forEach(
-            entry -> {
-              traverseValueSet(entry, valueSetList);
+  public Mono<ValueSetSearchResult> searchValueSets(
+      String apiKey, Map<String, String> queryParams) {
+    return fhirTerminologyServiceWebClient
+        .searchValueSetsMono(apiKey, queryParams)
+        .publishOn(Schedulers.boundedElastic())
+        .flatMap(
+            responseString -> {
+              IParser parser = fhirContext.newJsonParser();
+              Bundle bundle = parser.parseResource(Bundle.class, responseString);
+              List<ValueSetForSearch> valueSetList = new ArrayList<>();
+              //  if there's a next link we want to hit it, and append the results until we're
+              // out of results
+              return FhirResourcePager.followNextLinks(
+                      Mono.just(bundle), url -> requestValueSetsPage(url, apiKey))
+                  .doOnNext(
+                      page ->
+                          page.getEntry().forEach(entry -> traverseValueSet(entry, valueSetList)))
+                  .then(
+                      Mono.fromSupplier(
+                          () ->
+                              ValueSetSearchResult.builder()
+                                  .valueSets(valueSetList)
+                                  .resultBundle(responseString)
+                                  .build()));
             });
-    //  if there's a next link we want to hit it, and append the results until we're out of results
-    var links = bundle.getLink();
-    links.forEach(
-        (l) -> {
-          if (l.getRelation().equals("next")) {
-            recursiveRequestValueSets(valueSetList, apiKey, l.getUrl());
-          }
-        });
-
-    return ValueSetSearchResult.builder()
-        .valueSets(valueSetList)
-        .resultBundle(responseString)
-        .build();
   }
 
-  public void recursiveRequestValueSets(
-      List<ValueSetForSearch> allValueSets, String apiKey, String uriString) {
+  private Mono<Bundle> requestValueSetsPage(String uriString, String apiKey) {
     String httpsString = uriString.replaceFirst("http", "https");
     log.info(
         "uri we're going to hit is[{}]",
         httpsString); // vsac gives us http, we want https or it fails
-    IParser parser = fhirContext.newJsonParser();
-    String responseString =
-        fhirTerminologyServiceWebClient.fetchResourceFromVsac(httpsString, apiKey, "bundle");
-    Bundle bundle = parser.parseResource(Bundle.class, responseString);
-    List<ValueSetForSearch> valueSetListPage = new ArrayList<>();
-    bundle
-        .getEntry()
-        .forEach(
-            entry -> {
-              traverseValueSet(entry, valueSetListPage);
-            });
-    allValueSets.addAll(valueSetListPage);
-    var links = bundle.getLink();
-    links.forEach(
-        (l) -> {
-          if (l.getRelation().equals("next")) {
-            recursiveRequestValueSets(allValueSets, apiKey, l.getUrl());
-          }
-        });
+    return fhirTerminologyServiceWebClient
+        .fetchResourceFromVsacMono(httpsString, apiKey, "bundle")
+        .publishOn(Schedulers.boundedElastic())
+        .map(
+            responseString ->
+                fhirContext.newJsonParser().parseResource(Bundle.class, responseString));
   }
 
   private void traverseValueSet(
@@ -282,89 +346,140 @@ public class FhirTerminologyService {
     }
   }
 
-  public List<CodeSystem> getAllCodeSystems() {
-    // remove items that are marked as not present in vsac to cut expense
-    List<CodeSystemEntry> codeSystemMappingEntries =
-        mappingService.getCodeSystemEntries().stream()
-            .filter(codeSystemEntry -> !codeSystemEntry.getOid().contains("NOT.IN.VSAC"))
-            .toList();
-    List<CodeSystem> codeSystems = codeSystemRepository.findAll();
-    codeSystems.forEach(
-        codeSystem -> {
-          Optional<CodeSystemEntry> matchingEntry =
-              codeSystemMappingEntries.stream()
-                  .filter(entry -> entry.getOid().equals(codeSystem.getOid()))
-                  .findFirst();
-          if (matchingEntry.isPresent()) {
-            matchingEntry
-                .get()
-                .getVersions()
-                .forEach(
-                    version -> {
-                      // We use fhir url to interact with VSAC FHIR Term Service.
-                      // Goal here is to look for fhir version, then give users
-                      // viewing QDM measures a display version that looks like
-                      // svs vsac because that's what they expect.
-                      if (version.getFhir().equals(codeSystem.getVersion())
-                          && version.getVsac() != null) {
-                        codeSystem.setQdmDisplayVersion(version.getVsac());
-                        log.debug(
-                            "CodeSystem title {} , version: {} was found in mapping document",
-                            codeSystem.getTitle(),
-                            codeSystem.getVersion());
-                      }
-                    });
-          } else {
-            // it was not found, we log that it's not located within vsac.
-            log.debug(
-                "CodeSystem title {} , version: {} was NOT found in mapping document",
-                codeSystem.getTitle(),
-                codeSystem.getName());
-          }
-        });
-    return codeSystems;
+  /** @return all stored code systems, serialized as json once per catalog load */
+  public SerializedCodeSystems getSerializedCodeSystems() {
+    return codeSystemCatalog.getSerialized();
   }
 
-  public List<CodeSystem> retrieveAllCodeSystems(UmlsUser umlsUser) {
-    List<CodeSystem> allCodeSystems = new ArrayList<>();
-
-    recursiveRetrieveCodeSystems(umlsUser, 0, 50, allCodeSystems);
-    // Once we have all codeSystems, update DB using mongo
-    updateOrInsertAllCodeSystems(allCodeSystems);
-    return allCodeSystems;
+  /** @return the code systems changed and deleted since the given watermark */
+  public CodeSystemDelta getCodeSystemChangesSince(Instant since) {
+    return codeSystemDeltaService.getChangesSince(since);
   }
 
-  public Code retrieveCode(String codeName, String codeSystemName, String version, String apiKey) {
-    if (StringUtils.isEmpty(codeName)
-        || StringUtils.isEmpty(codeSystemName)
-        || StringUtils.isEmpty(version)) {
-      return null;
+  /**
+   * Refreshes the stored code systems from VSAC. Only code systems updated in VSAC after the
+   * upstream watermark are requested, unless the last full sweep is older than fullSweepInterval.
+   * A full sweep requests every code system and deletes the stored ones VSAC no longer has. Each
+   * page of code systems is stored as soon as it is received, but the watermark only advances once
+   * every page is stored, as the pages are not ordered by lastUpdated: a failed refresh is
+   * requested again in full by the next one.
+   *
+   * @return counts of the code systems requested from VSAC and of the changes stored
+   */
+  public CodeSystemRefreshResult retrieveAllCodeSystems(UmlsUser umlsUser) {
+    Instant refreshStartedAt = Instant.now();
+    CodeSystemSyncState syncState =
+        codeSystemSyncStateRepository
+            .findById(CodeSystemSyncState.CODE_SYSTEMS)
+            .orElseGet(
+                () -> CodeSystemSyncState.builder().id(CodeSystemSyncState.CODE_SYSTEMS).build());
+    Instant lastUpdatedAfter =
+        isFullSweepDue(syncState, refreshStartedAt) ? null : syncState.getUpstreamWatermark();
+    if (lastUpdatedAfter == null) {
+      log.info("Refreshing all code systems");
+    } else {
+      log.info("Refreshing code systems updated after {}", lastUpdatedAfter);
     }
-
-    CodeSystem codeSystem =
-        codeSystemRepository.findByNameAndVersion(codeSystemName, version).orElse(null);
-    if (codeSystem == null) {
-      return null;
+    // QDM display versions are resolved with the mapping in use at the start of the refresh
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    CodeSystemRefreshResult result =
+        retrieveCodeSystemPages(umlsUser, lastUpdatedAfter)
+            .concatMap(
+                bundle ->
+                    updateOrInsertCodeSystems(
+                        toCodeSystems(bundle, codeSystemEntryIndex),
+                        bundle.hasTotal() ? bundle.getTotal() : null))
+            .reduce(
+                CodeSystemRefreshResult.builder().fullSweep(lastUpdatedAfter == null).build(),
+                CodeSystemRefreshResult::add)
+            .block();
+    log.info(
+        "Code systems refreshed: {} retrieved, {} inserted, {} modified, {} unchanged",
+        result.getRetrieved(),
+        result.getInserted(),
+        result.getModified(),
+        result.getUnchanged());
+    if (result.isFullSweep()) {
+      result.setDeleted(deleteCodeSystemsMissingFromSweep(result, refreshStartedAt));
     }
+    // only the refresh fields are written, the QDM display version update may run concurrently.
+    // Other replicas reload their catalog once they see the new catalogUpdated stamp.
+    codeSystemSyncStateRepository.saveRefresh(
+        refreshStartedAt, result.isFullSweep(), result.getNewestUpstreamUpdate(), Instant.now());
+    codeSystemCatalog.reload();
+    return result;
+  }
 
-    List<CodeSystemEntry> codeSystemEntries = mappingService.getCodeSystemEntries();
-    Optional<Map.Entry<String, String>> mappedVersion =
-        mapVersion(version, codeSystem.getOid(), codeSystemEntries, "fhirVersion");
+  /**
+   * Requests the first page of code systems, then the remaining pages concurrently once the first
+   * page reports the total. If VSAC does not report a total, the pages are requested one after the
+   * other for as long as there is a "next" page.
+   *
+   * @return the pages of code systems, in offset order
+   */
+  private Flux<Bundle> retrieveCodeSystemPages(UmlsUser umlsUser, Instant lastUpdatedAfter) {
+    return retrieveCodeSystemsPage(umlsUser, 0, codeSystemPageSize, lastUpdatedAfter)
+        .flatMapMany(
+            firstPage -> {
+              Flux<Bundle> remainingPages;
+              if (firstPage.hasTotal()) {
+                remainingPages =
+                    FhirResourcePager.requestRemainingPages(
+                        0,
+                        codeSystemPageSize,
+                        firstPage.getTotal(),
+                        codeSystemPageConcurrency,
+                        offset ->
+                            retrieveCodeSystemsPage(
+                                umlsUser, offset, codeSystemPageSize, lastUpdatedAfter));
+              } else if (firstPage.getLink(Bundle.LINK_NEXT) != null) {
+                remainingPages =
+                    FhirResourcePager.pageByOffset(
+                        codeSystemPageSize,
+                        codeSystemPageSize,
+                        (offset, count) ->
+                            retrieveCodeSystemsPage(umlsUser, offset, count, lastUpdatedAfter));
+              } else {
+                remainingPages = Flux.empty();
+              }
+              return Flux.concat(Mono.just(firstPage), remainingPages);
+            });
+  }
 
-    if (mappedVersion.isPresent()) {
-      String vsacVersion = mappedVersion.get().getKey();
-      String fhirVersion = mappedVersion.get().getValue();
+  private boolean isFullSweepDue(CodeSystemSyncState syncState, Instant now) {
+    return syncState.getLastFullSweep() == null
+        || syncState.getUpstreamWatermark() == null
+        || !syncState.getLastFullSweep().plus(fullSweepInterval).isAfter(now);
+  }
 
-      return retrieveCodes(codeName, codeSystemName, vsacVersion, fhirVersion, codeSystem, apiKey);
+  /**
+   * Every code system of a full sweep is stamped with a lastSeen after the sweep started, so the
+   * ones not seen since are no longer in VSAC. Their deletion is recorded for clients
+   * syncing changes. Nothing is deleted unless the sweep retrieved as many code systems as VSAC
+   * reported, or, if VSAC reported no total, as many as were stored before the sweep.
+   */
+  private long deleteCodeSystemsMissingFromSweep(
+      CodeSystemRefreshResult sweep, Instant sweepStartedAt) {
+    long expected =
+        sweep.getReportedTotal() != null
+            ? sweep.getReportedTotal()
+            : codeSystemRepository.count() - sweep.getInserted();
+    if (sweep.getRetrieved() == 0 || sweep.getRetrieved() < expected) {
+      // a truncated sweep would delete every code system it missed, keep the stored ones
+      log.warn(
+          "Full code system sweep retrieved {} of {} code systems, nothing is deleted",
+          sweep.getRetrieved(),
+          expected);
+      return 0;
     }
-    return null;
+    long deleted = codeSystemDeltaService.deleteCodeSystemsNotSeenSince(sweepStartedAt);
+    log.info("Deleted {} code systems no longer in VSAC", deleted);
+    return deleted;
   }
 
-  private void recursiveRetrieveCodeSystems(
-      UmlsUser umlsUser, Integer offset, Integer count, List<CodeSystem> allCodeSystems) {
-    log.info("requesting page offset: {} count: {}", offset, count);
-    Bundle codeSystemBundle = retrieveCodeSystemsPage(umlsUser, offset, count);
-    List<CodeSystem> codeSystemsPage = new ArrayList<>(); // build small list
+  private List<CodeSystem> toCodeSystems(
+      Bundle codeSystemBundle, CodeSystemEntryIndex codeSystemEntryIndex) {
+    List<CodeSystem> codeSystemsPage = new ArrayList<>();
     codeSystemBundle
         .getEntry()
         .forEach(
@@ -386,162 +501,47 @@ public class FhirTerminologyService {
                       .version(codeSystem.getVersion())
                       .versionId(codeSystem.getMeta().getVersionId())
                       .oid(codeSystemValue)
-                      .lastUpdated(Instant.now())
+                      .qdmDisplayVersion(
+                          qdmDisplayVersionService.resolve(
+                              codeSystemValue, codeSystem.getVersion(), codeSystemEntryIndex))
                       .lastUpdatedUpstream(codeSystem.getMeta().getLastUpdated())
                       .build());
             });
-    allCodeSystems.addAll(codeSystemsPage); // update big list
-    var links = codeSystemBundle.getLink();
-    links.forEach(
-        (l) -> {
-          if (l.getRelation().equals("next")) {
-            // if next, call self and continue until fail.
-            UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(l.getUrl());
-            String newOffset = builder.build().getQueryParams().getFirst("_offset");
-            String newCount = builder.build().getQueryParams().getFirst("_count");
-            assert newOffset != null;
-            assert newCount != null;
-            recursiveRetrieveCodeSystems(
-                umlsUser, Integer.parseInt(newOffset), Integer.parseInt(newCount), allCodeSystems);
-          }
-        });
-  }
-
-  // one to call only, one to mutate and build
-  private Bundle retrieveCodeSystemsPage(UmlsUser umlsUser, Integer offset, Integer count) {
-    IParser parser = fhirContext.newJsonParser();
-    String responseString =
-        fhirTerminologyServiceWebClient.getCodeSystemsPage(offset, count, umlsUser.getApiKey());
-    return parser.parseResource(Bundle.class, responseString);
+    return codeSystemsPage;
   }
 
-  private void updateOrInsertAllCodeSystems(List<CodeSystem> codeSystemList) {
-    for (CodeSystem codeSystem : codeSystemList) {
-      var id = codeSystem.getTitle() + codeSystem.getVersion();
-      Optional<CodeSystem> existingCodeSystemOptional = codeSystemRepository.findById(id);
-      if (existingCodeSystemOptional.isEmpty()) {
-        // Insert new CodeSystem
-        codeSystemRepository.save(codeSystem);
-        log.info("New CodeSystem inserted: {}", codeSystem);
-      } else {
-        CodeSystem existingCodeSystem = existingCodeSystemOptional.get();
-        existingCodeSystem.setTitle(codeSystem.getTitle());
-        existingCodeSystem.setFullUrl(codeSystem.getFullUrl());
-        existingCodeSystem.setName(codeSystem.getName());
-        existingCodeSystem.setVersion(codeSystem.getVersion());
-        existingCodeSystem.setVersionId(codeSystem.getVersionId());
-        existingCodeSystem.setOid(codeSystem.getOid());
-        existingCodeSystem.setLastUpdated(codeSystem.getLastUpdated());
-        existingCodeSystem.setLastUpdatedUpstream(codeSystem.getLastUpdatedUpstream());
-        codeSystemRepository.save(existingCodeSystem);
-        log.info("CodeSystem updated: {}", existingCodeSystem);
-      }
-    }
-  }
-
-  public List<Code> retrieveCodesAndCodeSystems(List<Map<String, String>> codeList, String apiKey) {
-    return codeList.stream()
+  private Mono<Bundle> retrieveCodeSystemsPage(
+      UmlsUser umlsUser, int offset, int count, Instant lastUpdatedAfter) {
+    log.info("requesting page offset: {} count: {}", offset, count);
+    return fhirTerminologyServiceWebClient
+        .getCodeSystemsPageMono(offset, count, lastUpdatedAfter, umlsUser.getApiKey())
+        .publishOn(Schedulers.boundedElastic())
         .map(
-            codeDetails -> {
-              List<CodeSystemEntry> codeSystemEntries = mappingService.getCodeSystemEntries();
-              String codeName = codeDetails.get("code");
-              String codeSystemName = codeDetails.get("codeSystem");
-              String oid =
-                  codeDetails.get("oid") != null
-                      ? codeDetails.get("oid").replaceAll("'|'", "")
-                      : null;
-
-              Optional<Map.Entry<String, String>> mappedVersion =
-                  mapVersion(codeDetails.get("version"), oid, codeSystemEntries, "svsVersion");
-
-              if (mappedVersion.isPresent()) {
-                String vsacVersion = mappedVersion.get().getKey();
-                String fhirVersion = mappedVersion.get().getValue();
-
-                if (StringUtils.isEmpty(codeName)
-                    || StringUtils.isEmpty(codeSystemName)
-                    || StringUtils.isEmpty(fhirVersion)) {
-                  return null;
-                }
-
-                CodeSystem codeSystem =
-                    codeSystemRepository.findByOidAndVersion(oid, fhirVersion).orElse(null);
-                if (codeSystem == null) {
-                  return null;
-                }
-
-                Code code =
-                    retrieveCodes(
-                        codeName, codeSystemName, vsacVersion, fhirVersion, codeSystem, apiKey);
-                code.setVersionIncluded("true".equals(codeDetails.get("versionIncluded")));
-                return code;
-              }
-              return null;
-            })
-        .collect(Collectors.toList());
+            responseString ->
+                fhirContext.newJsonParser().parseResource(Bundle.class, responseString));
   }
 
-  private Optional<Map.Entry<String, String>> mapVersion(
-      String version, String oid, List<CodeSystemEntry> codeSystemEntries, String versionType) {
-    if (oid == null) {
-      return Optional.empty();
-    }
-
-    Optional<Map.Entry<String, String>> result;
-    if (version == null) {
-      result =
-          codeSystemEntries.stream()
-              .filter(codeSystemEntry -> StringUtils.equals(codeSystemEntry.getOid(), oid))
-              .findFirst()
-              .map(
-                  codeSystemVersion ->
-                      Map.entry(
-                          codeSystemVersion.getVersions().get(0).getVsac(),
-                          codeSystemVersion.getVersions().get(0).getFhir()));
-    } else {
-      result =
-          codeSystemEntries.stream()
-              .filter(codeSystemEntry -> StringUtils.equals(codeSystemEntry.getOid(), oid))
-              .flatMap(codeSystemEntry -> codeSystemEntry.getVersions().stream())
-              // depending on the version type suitable mapping is done
-              .filter(
-                  codeSystemVersion ->
-                      StringUtils.equals(
-                          versionType == "svsVersion"
-                              ? codeSystemVersion.getVsac()
-                              : codeSystemVersion.getFhir(),
-                          version))
-              .map(
-                  codeSystemVersion ->
-                      Map.entry(codeSystemVersion.getVsac(), codeSystemVersion.getFhir()))
-              .findFirst();
-    }
-
-    return result;
-  }
-
-  private Code retrieveCodes(
-      String codeName,
-      String codeSystemName,
-      String vsacVersion,
-      String fhirVersion,
-      CodeSystem codeSystem,
-      String apiKey) {
-    String codeJson = fhirTerminologyServiceWebClient.getCodeResource(codeName, codeSystem, apiKey);
-
-    Parameters parameters = fhirContext.newJsonParser().parseResource(Parameters.class, codeJson);
-    Code code =
-        Code.builder()
-            .name(codeName)
-            .codeSystem(codeSystemName)
-            .fhirVersion(fhirVersion)
-            .svsVersion(vsacVersion)
-            .display(parameters.getParameter("display").getValue().toString())
-            .codeSystemOid(parameters.getParameter("Oid").getValue().toString())
-            .build();
-
-    CodeStatus status = vsacService.getCodeStatus(code, apiKey);
-    code.setStatus(status);
-    return code;
+  /** Stores a page of code systems, off the thread the page was received on. */
+  private Mono<CodeSystemRefreshResult> updateOrInsertCodeSystems(
+      List<CodeSystem> codeSystems, Integer reportedTotal) {
+    Instant newestUpstreamUpdate =
+        codeSystems.stream()
+            .map(CodeSystem::getLastUpdatedUpstream)
+            .filter(Objects::nonNull)
+            .map(Date::toInstant)
+            .max(Comparator.naturalOrder())
+            .orElse(null);
+    return Mono.fromCallable(() -> codeSystemRepository.upsertAll(codeSystems))
+        .subscribeOn(Schedulers.boundedElastic())
+        .map(
+            upserted ->
+                CodeSystemRefreshResult.builder()
+                    .retrieved(codeSystems.size())
+                    .inserted(upserted.getInserted())
+                    .modified(upserted.getModified())
+                    .unchanged(upserted.getUnchanged())
+                    .reportedTotal(reportedTotal)
+                    .newestUpstreamUpdate(newestUpstreamUpdate)
+                    .build());
   }
 }
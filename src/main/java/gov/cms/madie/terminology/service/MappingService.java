@@ -2,18 +2,32 @@ package gov.cms.madie.terminology.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.cms.madie.models.mapping.CodeSystemEntry;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @Slf4j
@@ -22,32 +36,198 @@ public class MappingService {
   @Value("${mapping.data.code-system-entry-url}")
   private String codeSystemEntryUrl;
 
+  @Value("${mapping.data.snapshot-path:}")
+  private String snapshotPath;
+
+  // the download runs on the scheduler thread, so a hung request must not hold it indefinitely
+  @Value("${mapping.data.connect-timeout:PT5S}")
+  private Duration connectTimeout;
+
+  @Value("${mapping.data.read-timeout:PT30S}")
+  private Duration readTimeout;
+
   private final ObjectMapper objectMapper;
 
-  public List<CodeSystemEntry> getCodeSystemEntries() {
+  // resident, indexed copy of the mapping document, swapped as a whole on every refresh
+  private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+
+  /**
+   * @return lookup tables over the in-memory copy of the mapping document. The document is
+   *     downloaded on first use if the background refresh has not loaded it yet.
+   */
+  public CodeSystemEntryIndex getCodeSystemEntryIndex() {
+    return getSnapshot().index();
+  }
+
+  /**
+   * @return SHA-256 hash of the mapping document currently in use, or null if it has not been
+   *     loaded yet.
+   */
+  public String getSnapshotVersion() {
+    Snapshot current = snapshot.get();
+    return current == null ? null : current.version();
+  }
+
+  /**
+   * @return SHA-256 hash of the mapping document currently in use if it was downloaded from (or
+   *     confirmed against) the remote document, or null while only the local snapshot is loaded.
+   *     The local snapshot can be older than the remote document, so changes derived from the
+   *     mapping and shared with other instances should wait for this version.
+   */
+  public String getConfirmedSnapshotVersion() {
+    Snapshot current = snapshot.get();
+    return current == null || !current.remote() ? null : current.version();
+  }
+
+  /**
+   * Loads the last good copy of the mapping document from local disk, so that a fresh instance can
+   * serve requests without waiting for (or depending on) the remote document. The remote document
+   * is then picked up by the scheduled refresh in the background.
+   */
+  @PostConstruct
+  public void loadLocalSnapshot() {
+    Path path = getLocalSnapshotPath();
+    if (path == null || !Files.isRegularFile(path)) {
+      return;
+    }
+    try {
+      Snapshot local = parseSnapshot(Files.readAllBytes(path), null, null, false);
+      if (snapshot.compareAndSet(null, local)) {
+        log.info(
+            "Code system entry mapping loaded from {} with {} entries, version {}",
+            path,
+            local.index().getEntries().size(),
+            local.version());
+      }
+    } catch (IOException | RuntimeException ex) {
+      log.warn("Unable to load local code system entry mapping snapshot {}", path, ex);
+    }
+  }
+
+  /**
+   * Downloads the mapping document and replaces the in-memory copy. The request is conditional on
+   * the ETag and Last-Modified of the copy in use, so an unchanged document is neither parsed nor
+   * re-indexed. If the download fails, the previously loaded copy is kept. A changed document is
+   * also written to the local snapshot.
+   */
+  @Scheduled(fixedDelayString = "${mapping.data.refresh-interval:PT5M}")
+  public void refreshCodeSystemEntries() {
+    try {
+      Snapshot current = snapshot.get();
+      Snapshot refreshed = fetchSnapshot(current);
+      snapshot.set(refreshed);
+      if (current == null || !current.version().equals(refreshed.version())) {
+        log.info(
+            "Code system entry mapping refreshed with {} entries, version {}",
+            refreshed.index().getEntries().size(),
+            refreshed.version());
+      }
+    } catch (RuntimeException ex) {
+      log.error("Unable to refresh code system entry mapping document", ex);
+    }
+  }
+
+  private Snapshot getSnapshot() {
+    Snapshot current = snapshot.get();
+    if (current == null) {
+      current = loadSnapshot();
+    }
+    return current;
+  }
+
+  private synchronized Snapshot loadSnapshot() {
+    // another thread may have completed the load while this one was waiting
+    Snapshot current = snapshot.get();
+    if (current == null) {
+      current = fetchSnapshot(null);
+      snapshot.set(current);
+    }
+    return current;
+  }
+
+  private Snapshot fetchSnapshot(Snapshot current) {
     try {
-      CodeSystemEntry[] data =
-          objectMapper.readValue(new URL(codeSystemEntryUrl), CodeSystemEntry[].class);
-      if (data != null) {
-        return Arrays.asList(data);
+      URLConnection connection = new URL(codeSystemEntryUrl).openConnection();
+      connection.setConnectTimeout((int) connectTimeout.toMillis());
+      connection.setReadTimeout((int) readTimeout.toMillis());
+      if (current != null && connection instanceof HttpURLConnection httpConnection) {
+        if (current.etag() != null) {
+          httpConnection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, current.etag());
+        }
+        if (current.lastModified() != null) {
+          httpConnection.setRequestProperty(
+              HttpHeaders.IF_MODIFIED_SINCE, current.lastModified());
+        }
+        if (httpConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+          httpConnection.disconnect();
+          log.debug("Code system entry mapping version {} not modified", current.version());
+          return new Snapshot(
+              current.index(), current.version(), current.etag(), current.lastModified(), true);
+        }
+      }
+      byte[] document;
+      try (InputStream inputStream = connection.getInputStream()) {
+        document = inputStream.readAllBytes();
       }
+      String etag = connection.getHeaderField(HttpHeaders.ETAG);
+      String lastModified = connection.getHeaderField(HttpHeaders.LAST_MODIFIED);
+      // origins without validators (e.g. file: urls) still skip parsing an identical document
+      if (current != null && current.version().equals(hash(document))) {
+        return new Snapshot(current.index(), current.version(), etag, lastModified, true);
+      }
+      Snapshot fetched = parseSnapshot(document, etag, lastModified, true);
+      saveLocalSnapshot(document);
+      return fetched;
     } catch (IOException ioException) {
       throw new RuntimeException(
           "Error while accessing code system entry mapping document", ioException);
     }
-    return Collections.emptyList();
   }
 
-  public CodeSystemEntry getCodeSystemEntryByOid(String oid) {
-    List<CodeSystemEntry> codeSystemEntries = getCodeSystemEntries();
-    if (CollectionUtils.isEmpty(codeSystemEntries)) {
-      return null;
+  private Snapshot parseSnapshot(
+      byte[] document, String etag, String lastModified, boolean remote) throws IOException {
+    CodeSystemEntry[] data = objectMapper.readValue(document, CodeSystemEntry[].class);
+    List<CodeSystemEntry> entries =
+        data == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(data));
+    return new Snapshot(
+        CodeSystemEntryIndex.of(entries), hash(document), etag, lastModified, remote);
+  }
+
+  private void saveLocalSnapshot(byte[] document) {
+    Path path = getLocalSnapshotPath();
+    if (path == null) {
+      return;
+    }
+    try {
+      // write next to the target and move it into place, so a crash never leaves a partial file
+      Path directory = path.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      Path tempFile = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+      Files.write(tempFile, document);
+      Files.move(
+          tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      log.warn("Unable to save local code system entry mapping snapshot {}", path, ex);
+    }
+  }
+
+  private Path getLocalSnapshotPath() {
+    return StringUtils.hasText(snapshotPath) ? Path.of(snapshotPath) : null;
+  }
+
+  private static String hash(byte[] document) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(document));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
     }
-    return codeSystemEntries.stream()
-        .filter(
-            entry ->
-                Objects.equals(entry.getOid(), oid.startsWith("urn:oid:") ? oid : "urn:oid:" + oid))
-        .findFirst()
-        .orElse(null);
   }
+
+  // remote is false for a copy loaded from the local snapshot until the remote document confirms it
+  private record Snapshot(
+      CodeSystemEntryIndex index,
+      String version,
+      String etag,
+      String lastModified,
+      boolean remote) {}
 }
@@ -0,0 +1,112 @@
+package gov.cms.madie.terminology.service;
+
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemSyncStateRepository;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Resolves the QDM display version of code systems. It is stored with each code system when code
+ * systems are refreshed, and updated for all of them when the code system entry mapping changes,
+ * so reading code systems never consults the mapping.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QdmDisplayVersionService {
+  private final MappingService mappingService;
+  private final CodeSystemRepository codeSystemRepository;
+  private final CodeSystemSyncStateRepository codeSystemSyncStateRepository;
+  private final CodeSystemCatalog codeSystemCatalog;
+
+  // mapping version this instance last updated the display versions for
+  private volatile String appliedMappingVersion;
+
+  /**
+   * We use the fhir version to interact with the VSAC FHIR Terminology Service. Users viewing QDM
+   * measures expect a display version that looks like the SVS VSAC version, so the fhir version is
+   * mapped back to it.
+   *
+   * @return the SVS VSAC version mapped to the fhir version of the code system, or null if the code
+   *     system is not in the mapping or is marked as not present in VSAC
+   */
+  public String resolve(String oid, String version, CodeSystemEntryIndex codeSystemEntryIndex) {
+    Optional<CodeSystemEntry> matchingEntry =
+        codeSystemEntryIndex
+            .findByOid(oid)
+            .filter(entry -> !entry.getOid().contains("NOT.IN.VSAC"));
+    if (matchingEntry.isEmpty()) {
+      log.debug("CodeSystem oid {} , version: {} was NOT found in mapping document", oid, version);
+      return null;
+    }
+    return codeSystemEntryIndex
+        .findLastVsacVersionByFhir(matchingEntry.get(), version)
+        .map(CodeSystemEntry.Version::getVsac)
+        .orElse(null);
+  }
+
+  /**
+   * Updates the stored display versions once this instance has loaded a mapping they were not
+   * resolved with. Only code systems whose display version changes are written. A mapping only
+   * loaded from the local snapshot is not applied until the remote document confirms it, as it
+   * may be older than the mapping another instance already applied.
+   */
+  @Scheduled(
+      initialDelayString = "${mapping.data.refresh-interval:PT5M}",
+      fixedDelayString = "${mapping.data.refresh-interval:PT5M}")
+  public void updateIfMappingChanged() {
+    String mappingVersion = mappingService.getConfirmedSnapshotVersion();
+    if (mappingVersion == null || mappingVersion.equals(appliedMappingVersion)) {
+      return;
+    }
+    try {
+      String resolvedMappingVersion =
+          codeSystemSyncStateRepository
+              .findById(CodeSystemSyncState.CODE_SYSTEMS)
+              .map(CodeSystemSyncState::getQdmDisplayMappingVersion)
+              .orElse(null);
+      if (!mappingVersion.equals(resolvedMappingVersion)) {
+        updateQdmDisplayVersions(mappingVersion);
+      }
+      appliedMappingVersion = mappingVersion;
+    } catch (RuntimeException ex) {
+      // the next check tries again
+      log.warn("Unable to update the QDM display versions of code systems", ex);
+    }
+  }
+
+  private void updateQdmDisplayVersions(String mappingVersion) {
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    Map<String, String> changedVersions = new HashMap<>();
+    for (CodeSystem codeSystem : codeSystemCatalog.getAll()) {
+      String qdmDisplayVersion =
+          resolve(codeSystem.getOid(), codeSystem.getVersion(), codeSystemEntryIndex);
+      if (!Objects.equals(qdmDisplayVersion, codeSystem.getQdmDisplayVersion())) {
+        changedVersions.put(codeSystem.getId(), qdmDisplayVersion);
+      }
+    }
+    Instant catalogUpdated = null;
+    if (!changedVersions.isEmpty()) {
+      int modified = codeSystemRepository.updateQdmDisplayVersions(changedVersions);
+      log.info("Code system mapping changed, updated {} QDM display versions", modified);
+      catalogUpdated = Instant.now();
+    }
+    // only the mapping version and catalog stamp are written, a refresh may run concurrently
+    codeSystemSyncStateRepository.saveQdmDisplayMappingVersion(mappingVersion, catalogUpdated);
+    if (!changedVersions.isEmpty()) {
+      codeSystemCatalog.reload();
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package gov.cms.madie.terminology.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.mongodb.MongoClientSettings;
+import gov.cms.madie.terminology.dto.QdmValueSet;
+import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
+import gov.cms.madie.terminology.models.ValueSetExpansion;
+import gov.cms.madie.terminology.repositories.ValueSetExpansionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Cache of QDM value set expansions, kept in memory and in Mongo. An expansion for a manifest or
+ * an explicit value set version is immutable and never expires. An expansion of the latest
+ * version expires after latestTtl. An entry is only used if its concepts were mapped with the
+ * code system entry mapping currently in use. The in-memory cache is bounded by the number of
+ * concepts it holds, as a single expansion can hold anything from a few to 100k concepts.
+ */
+@Slf4j
+@Service
+public class ValueSetExpansionCache {
+  // Mongo rejects larger documents
+  static final int MAX_DOCUMENT_BYTES = 16 * 1024 * 1024;
+  private static final Codec<Document> DOCUMENT_CODEC =
+      MongoClientSettings.getDefaultCodecRegistry().get(Document.class);
+
+  private final ValueSetExpansionRepository valueSetExpansionRepository;
+  private final MongoConverter mongoConverter;
+  private final MappingService mappingService;
+  private final Duration latestTtl;
+  private final Cache<String, ValueSetExpansion> expansions;
+
+  public ValueSetExpansionCache(
+      ValueSetExpansionRepository valueSetExpansionRepository,
+      MongoConverter mongoConverter,
+      MappingService mappingService,
+      @Value("${cache.value-set-expansion.latest-ttl:PT10M}") Duration latestTtl,
+      @Value("${cache.value-set-expansion.max-concepts:500000}") long maxConcepts,
+      Ticker cacheTicker) {
+    this.valueSetExpansionRepository = valueSetExpansionRepository;
+    this.mongoConverter = mongoConverter;
+    this.mappingService = mappingService;
+    this.latestTtl = latestTtl;
+    this.expansions =
+        Caffeine.newBuilder()
+            .maximumWeight(maxConcepts)
+            .weigher(ValueSetExpansionCache::weigh)
+            .expireAfter(new ExpansionExpiry())
+            .ticker(cacheTicker)
+            .build();
+  }
+
+  /**
+   * @param expansion requests the expansion from VSAC, subscribed to only on a cache miss
+   * @return the cached expansion of the value set, or the one requested from VSAC. A failed
+   *     expansion is not cached.
+   */
+  public Mono<QdmValueSet> getOrExpand(
+      ValueSetsSearchCriteria valueSetsSearchCriteria,
+      ValueSetsSearchCriteria.ValueSetParams vsParam,
+      Supplier<Mono<QdmValueSet>> expansion) {
+    ValueSetExpansion key = buildKey(valueSetsSearchCriteria, vsParam);
+    String mappingVersion = mappingService.getSnapshotVersion();
+    ValueSetExpansion cached = expansions.getIfPresent(key.getId());
+    if (isUsable(cached, mappingVersion)) {
+      return Mono.just(cached.getValueSet());
+    }
+    return findStoredExpansion(key.getId())
+        .filter(stored -> isUsable(stored, mappingVersion))
+        .doOnNext(stored -> expansions.put(stored.getId(), stored))
+        .map(ValueSetExpansion::getValueSet)
+        .switchIfEmpty(
+            Mono.defer(expansion).doOnNext(valueSet -> store(key, mappingVersion, valueSet)));
+  }
+
+  private Mono<ValueSetExpansion> findStoredExpansion(String id) {
+    return Mono.fromCallable(() -> valueSetExpansionRepository.findById(id))
+        .subscribeOn(Schedulers.boundedElastic())
+        .flatMap(Mono::justOrEmpty)
+        .onErrorResume(
+            ex -> {
+              log.warn("Unable to read cached value set expansion {}", id, ex);
+              return Mono.empty();
+            });
+  }
+
+  private void store(ValueSetExpansion key, String mappingVersion, QdmValueSet valueSet) {
+    Instant now = Instant.now();
+    ValueSetExpansion expansion =
+        key.toBuilder()
+            .mappingVersion(mappingVersion)
+            .valueSet(valueSet)
+            .expandedAt(now)
+            .expiresAt(isPinned(key) ? null : now.plus(latestTtl))
+            .build();
+    expansions.put(expansion.getId(), expansion);
+    // the expansion is returned without waiting for Mongo, a failed write only costs a cache miss
+    Mono.fromRunnable(() -> save(expansion))
+        .subscribeOn(Schedulers.boundedElastic())
+        .subscribe(
+            null, ex -> log.warn("Unable to cache value set expansion {}", expansion.getId(), ex));
+  }
+
+  private void save(ValueSetExpansion expansion) {
+    Document document = new Document();
+    mongoConverter.write(expansion, document);
+    int size = new RawBsonDocument(document, DOCUMENT_CODEC).getByteBuffer().remaining();
+    if (size > MAX_DOCUMENT_BYTES) {
+      // it would fail on every write, it is only cached in memory
+      log.warn(
+          "Value set expansion {} is {} bytes, too large to cache in Mongo",
+          expansion.getId(),
+          size);
+      return;
+    }
+    valueSetExpansionRepository.save(expansion);
+  }
+
+  private boolean isUsable(ValueSetExpansion expansion, String mappingVersion) {
+    return expansion != null
+        && Objects.equals(expansion.getMappingVersion(), mappingVersion)
+        && (expansion.getExpiresAt() == null || expansion.getExpiresAt().isAfter(Instant.now()));
+  }
+
+  /**
+   * The value set version takes precedence over the manifest, as it does in the $expand request.
+   */
+  private ValueSetExpansion buildKey(
+      ValueSetsSearchCriteria valueSetsSearchCriteria,
+      ValueSetsSearchCriteria.ValueSetParams vsParam) {
+    String version = StringUtils.trimToNull(vsParam.getVersion());
+    String manifest =
+        version != null || valueSetsSearchCriteria.getManifestExpansion() == null
+            ? null
+            : StringUtils.trimToNull(valueSetsSearchCriteria.getManifestExpansion().getFullUrl());
+    String profile = StringUtils.defaultString(valueSetsSearchCriteria.getProfile());
+    String pin;
+    if (version != null) {
+      pin = "version:" + version;
+    } else if (manifest != null) {
+      pin = "manifest:" + manifest;
+    } else {
+      // drafts are only part of the latest expansion if requested
+      pin = "latest:" + StringUtils.isNotBlank(valueSetsSearchCriteria.getIncludeDraft());
+    }
+    return ValueSetExpansion.builder()
+        .id(String.join("|", vsParam.getOid(), pin, profile))
+        .oid(vsParam.getOid())
+        .manifest(manifest)
+        .version(version)
+        .profile(profile)
+        .build();
+  }
+
+  private static int weigh(String key, ValueSetExpansion expansion) {
+    List<QdmValueSet.Concept> concepts = expansion.getValueSet().getConcepts();
+    return 1 + (concepts == null ? 0 : concepts.size());
+  }
+
+  private static boolean isPinned(ValueSetExpansion expansion) {
+    return expansion.getVersion() != null || expansion.getManifest() != null;
+  }
+
+  private static class ExpansionExpiry implements Expiry<String, ValueSetExpansion> {
+    @Override
+    public long expireAfterCreate(String key, ValueSetExpansion expansion, long currentTime) {
+      return Optional.ofNullable(expansion.getExpiresAt())
+          .map(expiresAt -> Duration.between(Instant.now(), expiresAt).toNanos())
+          .orElse(Long.MAX_VALUE);
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String key, ValueSetExpansion expansion, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, expansion, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String key, ValueSetExpansion expansion, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
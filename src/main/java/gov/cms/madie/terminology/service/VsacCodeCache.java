@@ -0,0 +1,96 @@
+package gov.cms.madie.terminology.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import gov.cms.madie.models.cql.terminology.VsacCode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Cache of VSAC code lookups, keyed on the code path (code system name, VSAC version and code). A
+ * lookup does not depend on the user, so entries are shared by all users. A found code is kept
+ * for ttl, a code system, version or code that was not found (errors 800, 801 and 802) for the
+ * shorter notFoundTtl. Any other response, such as a communication error, is not cached.
+ */
+@Slf4j
+@Service
+public class VsacCodeCache {
+  private static final Set<String> NOT_FOUND_ERROR_CODES = Set.of("800", "801", "802");
+
+  private final Duration ttl;
+  private final Duration notFoundTtl;
+  private final Cache<String, VsacCode> codes;
+
+  public VsacCodeCache(
+      @Value("${cache.vsac-code.ttl:PT1H}") Duration ttl,
+      @Value("${cache.vsac-code.not-found-ttl:PT5M}") Duration notFoundTtl,
+      @Value("${cache.vsac-code.max-entries:10000}") long maxEntries,
+      Ticker cacheTicker) {
+    this.ttl = ttl;
+    this.notFoundTtl = notFoundTtl;
+    this.codes =
+        Caffeine.newBuilder()
+            .maximumSize(maxEntries)
+            .expireAfter(new CodeExpiry())
+            .ticker(cacheTicker)
+            .build();
+  }
+
+  /**
+   * @param codePath path of the code, as built by TerminologyServiceUtil.buildCodePath
+   * @param lookup requests the code from VSAC, subscribed to only on a cache miss
+   * @return the cached lookup result of the code, or the one requested from VSAC
+   */
+  public Mono<VsacCode> getOrLookup(String codePath, Supplier<Mono<VsacCode>> lookup) {
+    VsacCode cached = codes.getIfPresent(codePath);
+    if (cached != null) {
+      log.debug("VSAC code cache hit for {}", codePath);
+      return Mono.just(cached);
+    }
+    return Mono.defer(lookup)
+        .doOnNext(
+            vsacCode -> {
+              if (isFound(vsacCode) || isNotFound(vsacCode)) {
+                codes.put(codePath, vsacCode);
+              }
+            });
+  }
+
+  private static boolean isFound(VsacCode vsacCode) {
+    return "ok".equalsIgnoreCase(vsacCode.getStatus());
+  }
+
+  private static boolean isNotFound(VsacCode vsacCode) {
+    return vsacCode.getErrors() != null
+        && vsacCode.getErrors().getResultSet() != null
+        && !vsacCode.getErrors().getResultSet().isEmpty()
+        && NOT_FOUND_ERROR_CODES.contains(vsacCode.getErrors().getResultSet().get(0).getErrCode());
+  }
+
+  private class CodeExpiry implements Expiry<String, VsacCode> {
+    @Override
+    public long expireAfterCreate(String key, VsacCode vsacCode, long currentTime) {
+      return (isFound(vsacCode) ? ttl : notFoundTtl).toNanos();
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String key, VsacCode vsacCode, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, vsacCode, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String key, VsacCode vsacCode, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+}
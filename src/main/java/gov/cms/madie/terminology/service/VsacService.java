@@ -9,26 +9,32 @@ import gov.cms.madie.terminology.dto.CodeStatus;
 import gov.cms.madie.terminology.dto.QdmValueSet;
 import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
 import gov.cms.madie.terminology.exceptions.VsacUnauthorizedException;
+import gov.cms.madie.terminology.mapper.SvsValueSetReader;
 import gov.cms.madie.terminology.mapper.VsacToFhirValueSetMapper;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.repositories.UmlsUserRepository;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
 import gov.cms.madie.terminology.util.TerminologyServiceUtil;
+import gov.cms.madie.terminology.util.ValueSetResult;
 import gov.cms.madie.terminology.webclient.TerminologyServiceWebClient;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.r4.model.ValueSet;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static generated.vsac.nlm.nih.gov.RetrieveMultipleValueSetsResponse.DescribedValueSet;
-
 @Service
 @Slf4j
 @RequiredArgsConstructor
@@ -38,8 +44,16 @@ public class VsacService {
   private final VsacToFhirValueSetMapper vsacToFhirValueSetMapper;
   private final MappingService mappingService;
   private final UmlsUserRepository umlsUserRepository;
+  private final VsacCodeCache vsacCodeCache;
+  private final CodeDeduplicationMetrics codeDeduplicationMetrics;
   private static final String CS_VERSION_PREFIX = "urn:hl7:version:";
 
+  @Value("${client.value-set-concurrency:8}")
+  private int valueSetConcurrency;
+
+  @Value("${client.code-validation-concurrency:8}")
+  private int codeValidationConcurrency;
+
   /**
    * If umlsUser is not available or if API-KEY is unavailable then return false. Otherwise, return
    * true.
@@ -59,8 +73,18 @@ public class VsacService {
       String includeDraft,
       String release,
       String version) {
+    return getValueSetMono(oid, umlsUser, profile, includeDraft, release, version).block();
+  }
+
+  public Mono<RetrieveMultipleValueSetsResponse> getValueSetMono(
+      String oid,
+      UmlsUser umlsUser,
+      String profile,
+      String includeDraft,
+      String release,
+      String version) {
     log.debug("Fetching SVS ValueSet: " + oid);
-    return terminologyWebClient.getValueSet(
+    return terminologyWebClient.getValueSetMono(
         oid, umlsUser.getApiKey(), profile, includeDraft, release, version);
   }
 
@@ -77,25 +101,77 @@ public class VsacService {
 
   public List<RetrieveMultipleValueSetsResponse> getValueSets(
       ValueSetsSearchCriteria searchCriteria, UmlsUser umlsUser) {
-    List<ValueSetsSearchCriteria.ValueSetParams> valueSetParams =
-        searchCriteria.getValueSetParams();
-    return valueSetParams.stream()
-        .map(
+    return getValueSetsMono(searchCriteria, umlsUser).block();
+  }
+
+  public Mono<List<RetrieveMultipleValueSetsResponse>> getValueSetsMono(
+      ValueSetsSearchCriteria searchCriteria, UmlsUser umlsUser) {
+    return requestValueSets(
+            searchCriteria,
             vsParam ->
-                getValueSet(
+                getValueSetMono(
                     vsParam.getOid(),
                     umlsUser,
                     searchCriteria.getProfile(),
                     searchCriteria.getIncludeDraft(),
                     vsParam.getRelease(),
                     vsParam.getVersion()))
-        .collect(Collectors.toList());
+        .flatMap(
+            results -> {
+              // a FHIR ValueSet has no place for a per-OID error, so any failure fails the search
+              Optional<ValueSetResult<RetrieveMultipleValueSetsResponse>> failure =
+                  results.stream().filter(ValueSetResult::failed).findFirst();
+              if (failure.isPresent()) {
+                return Mono.<List<RetrieveMultipleValueSetsResponse>>error(failure.get().error());
+              }
+              return Mono.just(results.stream().map(ValueSetResult::value).toList());
+            });
   }
 
   public List<QdmValueSet> getValueSetsInQdmFormat(
       ValueSetsSearchCriteria searchCriteria, UmlsUser umlsUser) {
-    List<RetrieveMultipleValueSetsResponse> vsacValueSets = getValueSets(searchCriteria, umlsUser);
-    return convertToQdmValueSets(vsacValueSets);
+    return getValueSetsInQdmFormatMono(searchCriteria, umlsUser).block();
+  }
+
+  /**
+   * Non-blocking variant of {@link #getValueSetsInQdmFormat}. A value set that could not be
+   * retrieved is returned with an error instead of concepts, unless all of them failed. The SVS
+   * responses are read as a stream, straight into QDM concepts.
+   */
+  public Mono<List<QdmValueSet>> getValueSetsInQdmFormatMono(
+      ValueSetsSearchCriteria searchCriteria, UmlsUser umlsUser) {
+    return requestValueSets(
+            searchCriteria,
+            vsParam ->
+                terminologyWebClient.readValueSetMono(
+                    vsParam.getOid(),
+                    umlsUser.getApiKey(),
+                    searchCriteria.getProfile(),
+                    searchCriteria.getIncludeDraft(),
+                    vsParam.getRelease(),
+                    vsParam.getVersion(),
+                    SvsValueSetReader::readQdmValueSet))
+        .flatMap(ValueSetResult::failIfAllFailed)
+        .map(results -> results.stream().map(this::convertToQdmValueSet).toList());
+  }
+
+  /**
+   * Requests the value sets concurrently, at most valueSetConcurrency at a time, in input order.
+   */
+  private <T> Mono<List<ValueSetResult<T>>> requestValueSets(
+      ValueSetsSearchCriteria searchCriteria,
+      Function<ValueSetsSearchCriteria.ValueSetParams, Mono<T>> valueSetRequest) {
+    return Flux.fromIterable(searchCriteria.getValueSetParams())
+        .flatMapSequential(
+            vsParam -> ValueSetResult.capture(vsParam.getOid(), valueSetRequest.apply(vsParam)),
+            valueSetConcurrency)
+        .doOnNext(
+            result -> {
+              if (result.failed()) {
+                log.warn("Unable to retrieve SVS ValueSet {}", result.oid(), result.error());
+              }
+            })
+        .collectList();
   }
 
   /**
@@ -106,85 +182,146 @@ public class VsacService {
    *     displayed to user by cql-elm-translator
    */
   public List<CqlCode> validateCodes(List<CqlCode> cqlCodes, UmlsUser umlsUser, String model) {
-    List<CodeSystemEntry> codeSystemEntries = mappingService.getCodeSystemEntries();
-    for (CqlCode cqlCode : cqlCodes) {
-      cqlCode.setValid(true);
-      if (cqlCode.getCodeSystem() != null) {
-        cqlCode.getCodeSystem().setValid(true);
-        String cqlCodeSystemOid = cqlCode.getCodeSystem().getOid();
-        if (!StringUtils.isBlank(cqlCodeSystemOid)) {
-          Optional<CodeSystemEntry> codeSystemEntry =
-              TerminologyServiceUtil.getCodeSystemEntry(codeSystemEntries, cqlCodeSystemOid, model);
-          if (codeSystemEntry.isPresent()) {
-            // if codeSystemEntry is available in mapping json, but listed as NOT IN VSAC, then it
-            // is a valid FHIR code system.
-            if (!codeSystemEntry.get().getOid().contains("NOT.IN.VSAC")) {
-              String codeSystemVersion = buildCodeSystemVersion(cqlCode, codeSystemEntry.get());
-              String codeId = cqlCode.getCodeId();
-              if (codeId == null || TerminologyServiceUtil.sanitizeInput(codeId).isBlank()) {
-                log.info("Code id is not available for code {}", cqlCode.getName());
-                cqlCode.setValid(false);
-                cqlCode.setErrorMessage("Code Id is required");
-              } else if (!StringUtils.isBlank(codeSystemVersion)) {
-                String codePath =
-                    TerminologyServiceUtil.buildCodePath(
-                        codeSystemEntry.get().getName(),
-                        codeSystemVersion,
-                        TerminologyServiceUtil.sanitizeInput(cqlCode.getCodeId()));
-                VsacCode vsacCode = validateCodeAgainstVsac(codePath, umlsUser);
-                /* if the statusCode is "error" and either CodeSystem or CodeSystem version
-                 or Code is not found
-                if the statusCode is "ok" then it is a valid code */
-                if (!vsacCode.getStatus().equalsIgnoreCase("ok")) {
-                  buildVsacErrorMessage(cqlCode, vsacCode);
-                } else {
-                  cqlCode.setValid(true);
-                }
-              }
-            }
-          } else {
-            // unidentified code system.
-            log.info(
-                "No associated Code system found in code system entry json for {}",
-                cqlCode.getCodeSystem().getOid());
-            cqlCode.getCodeSystem().setValid(false);
-            cqlCode.getCodeSystem().setErrorMessage("Invalid Code system");
-          }
-        } else {
-          // if oid/url is not provided in cql, then the code system is considered invalid.
-          log.info("CodeSystem {} does not contain any URL", cqlCode.getCodeSystem().getName());
-          cqlCode.getCodeSystem().setValid(false);
-          cqlCode.getCodeSystem().setErrorMessage("Code system URL is required");
-        }
+    return validateCodesMono(cqlCodes, umlsUser, model).block();
+  }
+
+  /**
+   * Non-blocking variant of {@link #validateCodes(List, UmlsUser, String)}. Codes are validated
+   * against VSAC concurrently, at most codeValidationConcurrency at a time. Codes repeated in the
+   * request are validated once and the result is copied to every repeat. Each result is written
+   * onto its own CqlCode, so the returned list keeps the input order.
+   */
+  public Mono<List<CqlCode>> validateCodesMono(
+      List<CqlCode> cqlCodes, UmlsUser umlsUser, String model) {
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    Map<CodeKey, List<CqlCode>> distinctCodes =
+        cqlCodes.stream()
+            .collect(Collectors.groupingBy(CodeKey::of, LinkedHashMap::new, Collectors.toList()));
+    codeDeduplicationMetrics.record("validate-codes", cqlCodes.size(), distinctCodes.size());
+    return Flux.fromIterable(distinctCodes.values())
+        .flatMap(
+            repeats ->
+                validateCode(repeats.get(0), umlsUser, model, codeSystemEntryIndex)
+                    .doOnNext(cqlCode -> copyValidationResult(cqlCode, repeats)),
+            codeValidationConcurrency)
+        .then(Mono.just(cqlCodes));
+  }
+
+  private void copyValidationResult(CqlCode validated, List<CqlCode> repeats) {
+    for (CqlCode repeat : repeats.subList(1, repeats.size())) {
+      repeat.setValid(validated.isValid());
+      repeat.setErrorMessage(validated.getErrorMessage());
+      if (validated.getCodeSystem() != null) {
+        repeat.getCodeSystem().setValid(validated.getCodeSystem().isValid());
+        repeat.getCodeSystem().setErrorMessage(validated.getCodeSystem().getErrorMessage());
       }
     }
-    return cqlCodes;
   }
 
-  public CodeStatus getCodeStatus(Code code, String apiKey) {
+  private Mono<CqlCode> validateCode(
+      CqlCode cqlCode,
+      UmlsUser umlsUser,
+      String model,
+      CodeSystemEntryIndex codeSystemEntryIndex) {
+    cqlCode.setValid(true);
+    if (cqlCode.getCodeSystem() == null) {
+      return Mono.just(cqlCode);
+    }
+    cqlCode.getCodeSystem().setValid(true);
+    String cqlCodeSystemOid = cqlCode.getCodeSystem().getOid();
+    if (StringUtils.isBlank(cqlCodeSystemOid)) {
+      // if oid/url is not provided in cql, then the code system is considered invalid.
+      log.info("CodeSystem {} does not contain any URL", cqlCode.getCodeSystem().getName());
+      cqlCode.getCodeSystem().setValid(false);
+      cqlCode.getCodeSystem().setErrorMessage("Code system URL is required");
+      return Mono.just(cqlCode);
+    }
+    Optional<CodeSystemEntry> codeSystemEntry =
+        TerminologyServiceUtil.getCodeSystemEntry(codeSystemEntryIndex, cqlCodeSystemOid, model);
+    if (codeSystemEntry.isEmpty()) {
+      // unidentified code system.
+      log.info(
+          "No associated Code system found in code system entry json for {}",
+          cqlCode.getCodeSystem().getOid());
+      cqlCode.getCodeSystem().setValid(false);
+      cqlCode.getCodeSystem().setErrorMessage("Invalid Code system");
+      return Mono.just(cqlCode);
+    }
+    return validateCodeInCodeSystem(cqlCode, codeSystemEntry.get(), umlsUser, codeSystemEntryIndex);
+  }
+
+  private Mono<CqlCode> validateCodeInCodeSystem(
+      CqlCode cqlCode,
+      CodeSystemEntry codeSystemEntry,
+      UmlsUser umlsUser,
+      CodeSystemEntryIndex codeSystemEntryIndex) {
+    // if codeSystemEntry is available in mapping json, but listed as NOT IN VSAC, then it
+    // is a valid FHIR code system.
+    if (codeSystemEntry.getOid().contains("NOT.IN.VSAC")) {
+      return Mono.just(cqlCode);
+    }
+    String codeSystemVersion =
+        buildCodeSystemVersion(cqlCode, codeSystemEntry, codeSystemEntryIndex);
+    String codeId = cqlCode.getCodeId();
+    if (codeId == null || TerminologyServiceUtil.sanitizeInput(codeId).isBlank()) {
+      log.info("Code id is not available for code {}", cqlCode.getName());
+      cqlCode.setValid(false);
+      cqlCode.setErrorMessage("Code Id is required");
+      return Mono.just(cqlCode);
+    }
+    if (StringUtils.isBlank(codeSystemVersion)) {
+      return Mono.just(cqlCode);
+    }
+    String codePath =
+        TerminologyServiceUtil.buildCodePath(
+            codeSystemEntry.getName(),
+            codeSystemVersion,
+            TerminologyServiceUtil.sanitizeInput(cqlCode.getCodeId()));
+    return validateCodeAgainstVsac(codePath, umlsUser)
+        .map(
+            vsacCode -> {
+              /* if the statusCode is "error" and either CodeSystem or CodeSystem version
+               or Code is not found
+              if the statusCode is "ok" then it is a valid code */
+              if (!vsacCode.getStatus().equalsIgnoreCase("ok")) {
+                buildVsacErrorMessage(cqlCode, vsacCode);
+              } else {
+                cqlCode.setValid(true);
+              }
+              return cqlCode;
+            });
+  }
+
+  public Mono<CodeStatus> getCodeStatus(Code code, String apiKey) {
     String svsVersion = getSvsCodeSystemVersion(code);
     if (svsVersion == null) {
-      return CodeStatus.NA;
+      return Mono.just(CodeStatus.NA);
     }
     // prepare code path e.g. CODE:/CodeSystem/ActCode/Version/9.0.0/Code/AMB/Info
     String codePath =
         TerminologyServiceUtil.buildCodePath(code.getCodeSystem(), svsVersion, code.getName());
-    VsacCode svsCode = terminologyWebClient.getCode(codePath, apiKey);
-    if (svsCode.getStatus().equalsIgnoreCase("ok")) {
-      if ("Yes".equals(svsCode.getData().getResultSet().get(0).getActive())) {
-        return CodeStatus.ACTIVE;
-      } else {
-        return CodeStatus.INACTIVE;
-      }
-    }
-    return CodeStatus.NA;
+    return vsacCodeCache
+        .getOrLookup(codePath, () -> terminologyWebClient.getCodeMono(codePath, apiKey))
+        .map(
+            svsCode -> {
+              if (svsCode.getStatus().equalsIgnoreCase("ok")) {
+                if ("Yes".equals(svsCode.getData().getResultSet().get(0).getActive())) {
+                  return CodeStatus.ACTIVE;
+                } else {
+                  return CodeStatus.INACTIVE;
+                }
+              }
+              return CodeStatus.NA;
+            });
   }
 
   private String getSvsCodeSystemVersion(Code code) {
     if (StringUtils.isNotBlank(code.getSvsVersion())) {
       return code.getSvsVersion();
     }
-    CodeSystemEntry systemEntry = mappingService.getCodeSystemEntryByOid(code.getCodeSystemOid());
+    CodeSystemEntryIndex codeSystemEntryIndex = mappingService.getCodeSystemEntryIndex();
+    CodeSystemEntry systemEntry =
+        codeSystemEntryIndex.findByOid(code.getCodeSystemOid()).orElse(null);
     // do not call SVS API to get code status if the system is not in SVS API
     if (systemEntry == null
         || systemEntry.getOid().contains("NOT.IN.VSAC")
@@ -194,10 +331,7 @@ public class VsacService {
 
     // get corresponding SVS version for given FHIR version
     CodeSystemEntry.Version version =
-        systemEntry.getVersions().stream()
-            .filter(v -> Objects.equals(v.getFhir(), code.getFhirVersion()))
-            .findFirst()
-            .orElse(null);
+        codeSystemEntryIndex.findVersionByFhir(systemEntry, code.getFhirVersion()).orElse(null);
     if (version == null || version.getVsac() == null) {
       return null;
     }
@@ -219,21 +353,24 @@ public class VsacService {
     return user;
   }
 
-  private VsacCode validateCodeAgainstVsac(String codePath, UmlsUser umlsUser) {
+  private Mono<VsacCode> validateCodeAgainstVsac(String codePath, UmlsUser umlsUser) {
     log.info("codedPath is {}", codePath);
-    return terminologyWebClient.getCode(codePath, umlsUser.getApiKey());
+    return vsacCodeCache.getOrLookup(
+        codePath, () -> terminologyWebClient.getCodeMono(codePath, umlsUser.getApiKey()));
   }
 
   /**
    * @param cqlCode object generated by Antlr from user entered CQL string.
    * @param codeSystemEntry object retrieved from the mapping document based on code system oid.
+   * @param codeSystemEntryIndex index the codeSystemEntry was retrieved from.
    * @return if user provides a FHIR Code system version, find the equivalent VSAC version in
    *     codeSystemEntry and returns it. if there is no equivalent version in codeSystemEntry, or
    *     there are no versions at all in codeSystemEntry, then this method returns user provided
    *     FHIR version. Finally, if user doesn't provide a version in CQL, get the latest vsac
    *     version from codeSystemEntry (first element in the version List).
    */
-  private String buildCodeSystemVersion(CqlCode cqlCode, CodeSystemEntry codeSystemEntry) {
+  private String buildCodeSystemVersion(
+      CqlCode cqlCode, CodeSystemEntry codeSystemEntry, CodeSystemEntryIndex codeSystemEntryIndex) {
     List<CodeSystemEntry.Version> codeSystemEntryVersion = codeSystemEntry.getVersions();
     if (!StringUtils.isBlank(cqlCode.getCodeSystem().getVersion())) {
       // TODO: address QICore code system versions
@@ -246,9 +383,7 @@ public class VsacService {
         return cqlCodeSystemVersion;
       } else {
         Optional<CodeSystemEntry.Version> optionalCodeSystemVersion =
-            codeSystemEntry.getVersions().stream()
-                .filter(v -> v.getFhir().equalsIgnoreCase(cqlCodeSystemVersion))
-                .findFirst();
+            codeSystemEntryIndex.findVersionByFhirIgnoreCase(codeSystemEntry, cqlCodeSystemVersion);
         if (optionalCodeSystemVersion.isPresent()) {
           return optionalCodeSystemVersion.get().getVsac() == null
               ? cqlCodeSystemVersion
@@ -319,43 +454,29 @@ public class VsacService {
     return umlsUserRepository.save(umlsUser);
   }
 
-  private List<QdmValueSet> convertToQdmValueSets(
-      List<RetrieveMultipleValueSetsResponse> valueSetsResponses) {
-    return valueSetsResponses.stream()
-        .map(
-            response -> {
-              var describedValueSet = response.getDescribedValueSet();
-              List<QdmValueSet.Concept> concepts = getValueSetConcepts(describedValueSet);
-              return QdmValueSet.builder()
-                  .oid(describedValueSet.getID())
-                  .displayName(describedValueSet.getDisplayName())
-                  .version(describedValueSet.getVersion())
-                  .concepts(concepts)
-                  .build();
-            })
-        .toList();
-  }
-
-  private List<QdmValueSet.Concept> getValueSetConcepts(DescribedValueSet valueSet) {
-    var conceptList = valueSet.getConceptList();
-    if (conceptList == null) {
-      log.info("Empty value set:{}", valueSet.getID());
-      return List.of();
+  private QdmValueSet convertToQdmValueSet(ValueSetResult<QdmValueSet> result) {
+    if (!result.failed()) {
+      return result.value();
     }
-    return conceptList.getConcepts().stream()
-        .map(
-            concept ->
-                QdmValueSet.Concept.builder()
-                    .code(concept.getCode())
-                    .codeSystemName(concept.getCodeSystemName())
-                    .codeSystemVersion(concept.getCodeSystemVersion())
-                    .codeSystemOid(concept.getCodeSystem())
-                    .displayName(concept.getDisplayName())
-                    .build())
-        .toList();
+    return QdmValueSet.builder()
+        .oid(result.oid())
+        .concepts(List.of())
+        .error(result.getErrorMessage())
+        .build();
   }
 
   public Optional<UmlsUser> findByHarpId(String harpId) {
     return umlsUserRepository.findByHarpId(harpId);
   }
+
+  /** The parts of a CqlCode its validation result depends on. */
+  private record CodeKey(
+      boolean hasCodeSystem, String codeSystemOid, String codeSystemVersion, String codeId) {
+    static CodeKey of(CqlCode cqlCode) {
+      CqlCode.CqlCodeSystem codeSystem = cqlCode.getCodeSystem();
+      return codeSystem == null
+          ? new CodeKey(false, null, null, cqlCode.getCodeId())
+          : new CodeKey(true, codeSystem.getOid(), codeSystem.getVersion(), cqlCode.getCodeId());
+    }
+  }
 }
@@ -1,6 +1,6 @@
 package gov.cms.madie.terminology.task;
 
-import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.dto.CodeSystemRefreshResult;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.service.FhirTerminologyService;
 import lombok.RequiredArgsConstructor;
@@ -9,8 +9,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-
 @Service
 @RequiredArgsConstructor
 @Slf4j
@@ -26,7 +24,7 @@ public class UpdateCodeSystemTask {
 
     UmlsUser user = new UmlsUser();
     user.setApiKey(apiKey);
-    List<CodeSystem> response = fhirTerminologyService.retrieveAllCodeSystems(user);
-    log.info("Successfully retrieved and updated code systems for user: {}", response);
+    CodeSystemRefreshResult response = fhirTerminologyService.retrieveAllCodeSystems(user);
+    log.info("Successfully retrieved and updated {} code systems", response.getRetrieved());
   }
 }
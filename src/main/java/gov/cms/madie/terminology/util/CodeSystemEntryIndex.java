@@ -0,0 +1,193 @@
+package gov.cms.madie.terminology.util;
+
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Immutable lookup tables over one copy of the code system entry mapping document. Built once per
+ * mapping snapshot so that lookups by OID, URL or version are constant time instead of a scan of
+ * the entry list. When the document has duplicate OIDs or URLs, the first entry wins, as it did
+ * with the previous {@code findFirst()} scans. Versions can also be looked up across every entry
+ * with an OID, as the version mapping of code lookups did.
+ */
+public final class CodeSystemEntryIndex {
+  private static final String URN_OID_PREFIX = "urn:oid:";
+  private static final CodeSystemEntryIndex EMPTY = new CodeSystemEntryIndex(List.of());
+
+  private final List<CodeSystemEntry> entries;
+  private final Map<String, CodeSystemEntry> entriesByOid = new HashMap<>();
+  private final Map<String, CodeSystemEntry> entriesByUrl = new HashMap<>();
+  private final Map<CodeSystemEntry, VersionIndex> versionsByEntry = new IdentityHashMap<>();
+  private final Map<String, VersionIndex> versionsByOid = new HashMap<>();
+
+  private CodeSystemEntryIndex(List<CodeSystemEntry> entries) {
+    this.entries = Collections.unmodifiableList(entries);
+    for (CodeSystemEntry entry : entries) {
+      if (StringUtils.isNotBlank(entry.getOid())) {
+        entriesByOid.putIfAbsent(normalizeOid(entry.getOid()), entry);
+        versionsByOid
+            .computeIfAbsent(normalizeOid(entry.getOid()), oid -> new VersionIndex())
+            .addAll(entry.getVersions());
+      }
+      if (StringUtils.isNotBlank(entry.getUrl())) {
+        entriesByUrl.putIfAbsent(normalizeUrl(entry.getUrl()), entry);
+      }
+      VersionIndex versions = new VersionIndex();
+      versions.addAll(entry.getVersions());
+      versionsByEntry.put(entry, versions);
+    }
+  }
+
+  public static CodeSystemEntryIndex of(List<CodeSystemEntry> entries) {
+    return entries == null || entries.isEmpty() ? EMPTY : new CodeSystemEntryIndex(entries);
+  }
+
+  public static CodeSystemEntryIndex empty() {
+    return EMPTY;
+  }
+
+  public List<CodeSystemEntry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @param oid code system oid, with or without the "urn:oid:" prefix
+   * @return the mapped code system entry, if any
+   */
+  public Optional<CodeSystemEntry> findByOid(String oid) {
+    if (StringUtils.isBlank(oid)) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(entriesByOid.get(normalizeOid(oid)));
+  }
+
+  /**
+   * @param url code system url. Matching is case-insensitive.
+   * @return the mapped code system entry, if any
+   */
+  public Optional<CodeSystemEntry> findByUrl(String url) {
+    if (StringUtils.isBlank(url)) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(entriesByUrl.get(normalizeUrl(url)));
+  }
+
+  /** Exact match on the FHIR version of the given entry. */
+  public Optional<CodeSystemEntry.Version> findVersionByFhir(
+      CodeSystemEntry entry, String fhirVersion) {
+    VersionIndex versions = versionsByEntry.get(entry);
+    if (versions == null || fhirVersion == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(versions.byFhir.get(fhirVersion));
+  }
+
+  /**
+   * Exact match on the FHIR version of the given entry, among the versions that have a VSAC
+   * version. Unlike the other lookups the last matching version wins, as it did when the QDM
+   * display version was resolved by a scan that kept overwriting it.
+   */
+  public Optional<CodeSystemEntry.Version> findLastVsacVersionByFhir(
+      CodeSystemEntry entry, String fhirVersion) {
+    VersionIndex versions = versionsByEntry.get(entry);
+    if (versions == null || fhirVersion == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(versions.lastWithVsacByFhir.get(fhirVersion));
+  }
+
+  /** Case-insensitive match on the FHIR version of the given entry. */
+  public Optional<CodeSystemEntry.Version> findVersionByFhirIgnoreCase(
+      CodeSystemEntry entry, String fhirVersion) {
+    VersionIndex versions = versionsByEntry.get(entry);
+    if (versions == null || fhirVersion == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(
+        versions.byFhirIgnoreCase.get(fhirVersion.toLowerCase(Locale.ROOT)));
+  }
+
+  /** Exact match on the VSAC (SVS) version of the given entry. */
+  public Optional<CodeSystemEntry.Version> findVersionByVsac(
+      CodeSystemEntry entry, String vsacVersion) {
+    VersionIndex versions = versionsByEntry.get(entry);
+    if (versions == null || vsacVersion == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(versions.byVsac.get(vsacVersion));
+  }
+
+  /**
+   * Exact match on the VSAC (SVS) version, searching the versions of every entry with the oid in
+   * document order.
+   */
+  public Optional<CodeSystemEntry.Version> findVersionByVsac(String oid, String vsacVersion) {
+    VersionIndex versions = findVersionsByOid(oid);
+    if (versions == null || vsacVersion == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(versions.byVsac.get(vsacVersion));
+  }
+
+  /**
+   * Exact match on the FHIR version, searching the versions of every entry with the oid in document
+   * order.
+   */
+  public Optional<CodeSystemEntry.Version> findVersionByFhir(String oid, String fhirVersion) {
+    VersionIndex versions = findVersionsByOid(oid);
+    if (versions == null || fhirVersion == null) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(versions.byFhir.get(fhirVersion));
+  }
+
+  /** @return oid without the "urn:oid:" prefix and quotes, as used for the index key */
+  public static String normalizeOid(String oid) {
+    String value = TerminologyServiceUtil.sanitizeInput(oid).trim();
+    if (value.regionMatches(true, 0, URN_OID_PREFIX, 0, URN_OID_PREFIX.length())) {
+      value = value.substring(URN_OID_PREFIX.length());
+    }
+    return value;
+  }
+
+  private VersionIndex findVersionsByOid(String oid) {
+    return StringUtils.isBlank(oid) ? null : versionsByOid.get(normalizeOid(oid));
+  }
+
+  private static String normalizeUrl(String url) {
+    return TerminologyServiceUtil.sanitizeInput(url).trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static final class VersionIndex {
+    private final Map<String, CodeSystemEntry.Version> byFhir = new HashMap<>();
+    private final Map<String, CodeSystemEntry.Version> byFhirIgnoreCase = new HashMap<>();
+    private final Map<String, CodeSystemEntry.Version> byVsac = new HashMap<>();
+    private final Map<String, CodeSystemEntry.Version> lastWithVsacByFhir = new HashMap<>();
+
+    private void addAll(List<CodeSystemEntry.Version> versions) {
+      if (versions == null) {
+        return;
+      }
+      for (CodeSystemEntry.Version version : versions) {
+        if (version.getFhir() != null) {
+          byFhir.putIfAbsent(version.getFhir(), version);
+          byFhirIgnoreCase.putIfAbsent(version.getFhir().toLowerCase(Locale.ROOT), version);
+        }
+        if (version.getVsac() != null) {
+          byVsac.putIfAbsent(version.getVsac(), version);
+          if (version.getFhir() != null) {
+            lastWithVsacByFhir.put(version.getFhir(), version);
+          }
+        }
+      }
+    }
+  }
+}
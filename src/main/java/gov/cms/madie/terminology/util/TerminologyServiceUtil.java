@@ -1,6 +1,8 @@
 package gov.cms.madie.terminology.util;
 
 import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,9 +12,12 @@ import gov.cms.madie.models.mapping.CodeSystemEntry;
 import gov.cms.madie.models.measure.ManifestExpansion;
 import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -52,6 +57,23 @@ public class TerminologyServiceUtil {
     return UriComponentsBuilder.fromUriString(url).buildAndExpand(params).encode().toUri();
   }
 
+  /**
+   * @return connector with its own pool of at most maxConnections connections. It caps the
+   *     concurrent requests to VSAC across all incoming requests; at most maxPendingAcquires
+   *     further requests wait for a free connection, each for at most pendingAcquireTimeout.
+   *     Requests beyond that fail right away instead of queueing.
+   */
+  public static ReactorClientHttpConnector buildClientConnector(
+      String name, int maxConnections, int maxPendingAcquires, Duration pendingAcquireTimeout) {
+    ConnectionProvider connectionProvider =
+        ConnectionProvider.builder(name)
+            .maxConnections(maxConnections)
+            .pendingAcquireMaxCount(maxPendingAcquires)
+            .pendingAcquireTimeout(pendingAcquireTimeout)
+            .build();
+    return new ReactorClientHttpConnector(HttpClient.create(connectionProvider));
+  }
+
   public static URI buildRetrieveCodeUri(String baseUrl, String codePath) {
     Map<String, String> params = new HashMap<>();
     params.put("resultFormat", "json");
@@ -64,13 +86,24 @@ public class TerminologyServiceUtil {
   }
 
   public static URI buildRetrieveCodeSystemsUri(String baseUrl, Integer offset, Integer count) {
+    return buildRetrieveCodeSystemsUri(baseUrl, offset, count, null);
+  }
+
+  /**
+   * @param lastUpdatedAfter if not null, only code systems updated in VSAC after this instant are
+   *     requested
+   */
+  public static URI buildRetrieveCodeSystemsUri(
+      String baseUrl, Integer offset, Integer count, Instant lastUpdatedAfter) {
     //    http://uat-cts.nlm.nih.gov/fhir/res/CodeSystem?_offset=100&_count=100
-    return UriComponentsBuilder.fromUriString(baseUrl)
-        .queryParam("_offset", Integer.toString(offset))
-        .queryParam("_count", Integer.toString(count))
-        .buildAndExpand()
-        .encode()
-        .toUri();
+    UriComponentsBuilder uriBuilder =
+        UriComponentsBuilder.fromUriString(baseUrl)
+            .queryParam("_offset", Integer.toString(offset))
+            .queryParam("_count", Integer.toString(count));
+    if (lastUpdatedAfter != null) {
+      uriBuilder.queryParam("_lastUpdated", "gt" + lastUpdatedAfter);
+    }
+    return uriBuilder.buildAndExpand().encode().toUri();
   }
 
   public static String buildCodePath(
@@ -85,18 +118,20 @@ public class TerminologyServiceUtil {
         + "/Info";
   }
 
+  /**
+   * QDM code systems are identified by their oid, FHIR code systems by their url.
+   *
+   * @param codeSystemEntryIndex index over the code system mapping document
+   * @param cqlCodeSystemOid oid or url of the code system as given in CQL
+   * @param model QDM or FHIR
+   * @return matching code system entry, if any
+   */
   public static Optional<CodeSystemEntry> getCodeSystemEntry(
-      List<CodeSystemEntry> codeSystemEntries, String cqlCodeSystemOid, String model) {
-    return codeSystemEntries.stream()
-        .filter(cse -> isCodeSystemMatch(cse, cqlCodeSystemOid, model))
-        .findFirst();
-  }
-
-  private static boolean isCodeSystemMatch(CodeSystemEntry cse, String oid, String model) {
+      CodeSystemEntryIndex codeSystemEntryIndex, String cqlCodeSystemOid, String model) {
     if ("QDM".equals(model)) {
-      return cse.getOid().equalsIgnoreCase(TerminologyServiceUtil.sanitizeInput(oid));
+      return codeSystemEntryIndex.findByOid(cqlCodeSystemOid);
     }
-    return cse.getUrl().equalsIgnoreCase(TerminologyServiceUtil.sanitizeInput(oid));
+    return codeSystemEntryIndex.findByUrl(cqlCodeSystemOid);
   }
 
   public static String sanitizeInput(String input) {
@@ -144,23 +179,22 @@ public class TerminologyServiceUtil {
   /**
    * Returns model specific code system version
    *
+   * @param codeSystemEntryIndex index the code system entry belongs to
    * @param codeSystem
    * @param fhirCsVersion
    * @param model
    * @return code system version string
    */
   public static String getCodeSystemVersion(
-      CodeSystemEntry codeSystem, String fhirCsVersion, String model) {
+      CodeSystemEntryIndex codeSystemEntryIndex,
+      CodeSystemEntry codeSystem,
+      String fhirCsVersion,
+      String model) {
     if ("QDM".equals(model) && codeSystem != null && StringUtils.isNotBlank(fhirCsVersion)) {
-      CodeSystemEntry.Version csv =
-          codeSystem.getVersions().stream()
-              .filter(version -> fhirCsVersion.equals(version.getFhir()))
-              .findFirst()
-              .orElse(null);
-      if (csv == null) {
-        return null;
-      }
-      return csv.getVsac();
+      return codeSystemEntryIndex
+          .findVersionByFhir(codeSystem, fhirCsVersion)
+          .map(CodeSystemEntry.Version::getVsac)
+          .orElse(null);
     }
     return fhirCsVersion;
   }
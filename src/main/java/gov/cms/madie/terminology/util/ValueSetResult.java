@@ -0,0 +1,47 @@
+package gov.cms.madie.terminology.util;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Outcome of the request for one value set of a batch. A failed request is kept as a result, so
+ * that one bad OID does not abort the requests for the others.
+ *
+ * @param oid requested value set oid
+ * @param value the value set, null if the request failed
+ * @param error the failure, null if the request succeeded
+ */
+public record ValueSetResult<T>(String oid, T value, Throwable error) {
+
+  public static <T> Mono<ValueSetResult<T>> capture(String oid, Mono<T> request) {
+    return request
+        .map(value -> new ValueSetResult<T>(oid, value, null))
+        .onErrorResume(ex -> Mono.just(new ValueSetResult<T>(oid, null, ex)));
+  }
+
+  /**
+   * @return the results, or the first failure if every value set of the batch failed. In that
+   *     case the failure is most likely not specific to an OID (e.g. an invalid api key), and is
+   *     surfaced as the error of the whole request.
+   */
+  public static <T> Mono<List<ValueSetResult<T>>> failIfAllFailed(List<ValueSetResult<T>> results) {
+    if (!results.isEmpty() && results.stream().allMatch(ValueSetResult::failed)) {
+      return Mono.error(results.get(0).error());
+    }
+    return Mono.just(results);
+  }
+
+  public boolean failed() {
+    return error != null;
+  }
+
+  /** @return the error message reported to the client for this value set. */
+  public String getErrorMessage() {
+    if (error instanceof WebClientResponseException ex) {
+      return "Unable to retrieve value set " + oid + ": " + ex.getStatusCode().value();
+    }
+    return "Unable to retrieve value set " + oid + ": " + error.getMessage();
+  }
+}
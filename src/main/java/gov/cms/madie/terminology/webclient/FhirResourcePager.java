@@ -0,0 +1,81 @@
+package gov.cms.madie.terminology.webclient;
+
+import org.hl7.fhir.r4.model.Bundle;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Paging over FHIR searches and expansions served by the VSAC FHIR Terminology Server. Pages are
+ * requested iteratively, so the number of pages does not grow the call stack. Each page is emitted
+ * as soon as it is available, so callers can process results page by page; the following page is
+ * requested while the current one is being processed.
+ */
+public final class FhirResourcePager {
+
+  private FhirResourcePager() {}
+
+  /**
+   * Follows the "next" links of a search result.
+   *
+   * @param firstPage first page of the search result
+   * @param pageRequest requests the page for a "next" link url
+   * @return the first page followed by all pages reachable through "next" links
+   */
+  public static Flux<Bundle> followNextLinks(
+      Mono<Bundle> firstPage, Function<String, Mono<Bundle>> pageRequest) {
+    return firstPage.expand(bundle -> getNextLink(bundle).map(pageRequest).orElseGet(Mono::empty));
+  }
+
+  /**
+   * Requests pages of count resources starting at offset, for as long as the server reports a
+   * "next" page. The offset of the next page is derived from the current one instead of parsing
+   * the "next" link url.
+   *
+   * @param pageRequest requests the page for an offset and count
+   */
+  public static Flux<Bundle> pageByOffset(
+      int offset, int count, BiFunction<Integer, Integer, Mono<Bundle>> pageRequest) {
+    return requestPage(offset, count, pageRequest)
+        .expand(
+            page ->
+                getNextLink(page.bundle()).isPresent()
+                    ? requestPage(page.offset() + count, count, pageRequest)
+                    : Mono.empty())
+        .map(Page::bundle);
+  }
+
+  /**
+   * Requests the pages that follow the first one when the total is known up front, such as for a
+   * ValueSet $expand. Pages are requested concurrently, at most concurrency at a time, and emitted
+   * in offset order whatever order they complete in.
+   *
+   * @param offset offset of the first page, which the caller has already requested
+   * @param count page size
+   * @param total total number of resources reported by the first page
+   * @param pageRequest requests the page at an offset
+   */
+  public static <T> Flux<T> requestRemainingPages(
+      int offset, int count, int total, int concurrency, IntFunction<Mono<T>> pageRequest) {
+    int pages = (total - offset + count - 1) / count;
+    return Flux.range(1, Math.max(pages - 1, 0))
+        .map(page -> offset + page * count)
+        .flatMapSequential(pageRequest::apply, concurrency);
+  }
+
+  private static Mono<Page> requestPage(
+      int offset, int count, BiFunction<Integer, Integer, Mono<Bundle>> pageRequest) {
+    return pageRequest.apply(offset, count).map(bundle -> new Page(offset, bundle));
+  }
+
+  private static Optional<String> getNextLink(Bundle bundle) {
+    return Optional.ofNullable(bundle.getLink(Bundle.LINK_NEXT))
+        .map(Bundle.BundleLinkComponent::getUrl);
+  }
+
+  private record Page(int offset, Bundle bundle) {}
+}
@@ -22,6 +22,8 @@ import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -42,7 +44,10 @@ public class FhirTerminologyServiceWebClient {
       @Value("${client.fhir-terminology-service.code-system-urn}") String codeSystemUrn,
       @Value("${client.fhir-terminology-service.code-lookups}") String codeLookupsUrl,
       @Value("${client.default_profile}") String defaultProfile,
-      @Value("${client.search_value_set_endpoint}") String searchValueSetEndpoint) {
+      @Value("${client.search_value_set_endpoint}") String searchValueSetEndpoint,
+      @Value("${client.max-connections:32}") int maxConnections,
+      @Value("${client.max-pending-acquires:256}") int maxPendingAcquires,
+      @Value("${client.pending-acquire-timeout:PT10S}") Duration pendingAcquireTimeout) {
     DefaultUriBuilderFactory uriBuilderFactory =
         new DefaultUriBuilderFactory(fhirTerminologyServiceBaseUrl);
     uriBuilderFactory.setEncodingMode(DefaultUriBuilderFactory.EncodingMode.NONE);
@@ -50,6 +55,9 @@ public class FhirTerminologyServiceWebClient {
         WebClient.builder()
             .uriBuilderFactory(uriBuilderFactory)
             .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .clientConnector(
+                TerminologyServiceUtil.buildClientConnector(
+                    "vsac-fhir", maxConnections, maxPendingAcquires, pendingAcquireTimeout))
             .codecs(
                 clientCodecConfigurer -> clientCodecConfigurer.defaultCodecs().maxInMemorySize(-1))
             .build();
@@ -60,18 +68,30 @@ public class FhirTerminologyServiceWebClient {
     this.searchValueSetEndpoint = searchValueSetEndpoint;
   }
 
-  public String getManifestBundle(String apiKey) {
-    return fetchResourceFromVsac(manifestPath, apiKey, "Manifest");
+  public Mono<String> getManifestBundleMono(String apiKey) {
+    return fetchResourceFromVsacMono(manifestPath, apiKey, "Manifest");
   }
 
-  public String getCodeSystemsPage(Integer offset, Integer count, String apiKey) {
+  /**
+   * @param lastUpdatedAfter if not null, only code systems updated in VSAC after this instant are
+   *     requested
+   */
+  public Mono<String> getCodeSystemsPageMono(
+      Integer offset, Integer count, Instant lastUpdatedAfter, String apiKey) {
     //  https://uat-cts.nlm.nih.gov/fhir/res/CodeSystem?_offset=0&_count=100
-    URI codeUri = TerminologyServiceUtil.buildRetrieveCodeSystemsUri(codeSystemPath, offset, count);
-    log.debug("Retrieving codeSystems at {}, offset {}, count {}", codeSystemPath, offset, count);
-    return fetchResourceFromVsac(codeUri.toString(), apiKey, "CodeSystem");
+    URI codeUri =
+        TerminologyServiceUtil.buildRetrieveCodeSystemsUri(
+            codeSystemPath, offset, count, lastUpdatedAfter);
+    log.debug(
+        "Retrieving codeSystems at {}, offset {}, count {}, updated after {}",
+        codeSystemPath,
+        offset,
+        count,
+        lastUpdatedAfter);
+    return fetchResourceFromVsacMono(codeUri.toString(), apiKey, "CodeSystem");
   }
 
-  public String searchValueSets(String apiKey, Map<String, String> queryParams) {
+  public Mono<String> searchValueSetsMono(String apiKey, Map<String, String> queryParams) {
     if (queryParams.containsKey("url")) {
       String urlValue = queryParams.get("url");
       // if the value does not contain the vsac url we add it
@@ -100,10 +120,10 @@ public class FhirTerminologyServiceWebClient {
     URI uri = URI.create(url);
 
     log.info("value set search url is: {}", uri.toString());
-    return fetchResourceFromVsac(uri.toString(), apiKey, "bundle");
+    return fetchResourceFromVsacMono(uri.toString(), apiKey, "bundle");
   }
 
-  public String getValueSetResource(
+  public Mono<String> getValueSetResourceMono(
       String apiKey,
       ValueSetsSearchCriteria.ValueSetParams valueSetParams,
       String profile,
@@ -114,19 +134,25 @@ public class FhirTerminologyServiceWebClient {
         TerminologyServiceUtil.buildValueSetResourceUri(
             valueSetParams, profile, includeDraft, manifestExpansion);
 
-    return fetchResourceFromVsac(uri.toString(), apiKey, "ValueSet");
+    return fetchResourceFromVsacMono(uri.toString(), apiKey, "ValueSet");
   }
 
-  public String getCodeResource(String code, CodeSystem codeSystem, String apiKey) {
+  public Mono<String> getCodeResourceMono(String code, CodeSystem codeSystem, String apiKey) {
     Map<String, String> params =
         Map.of(
             "fullUrl", codeSystem.getFullUrl(), "code", code, "version", codeSystem.getVersion());
     URI uri =
         UriComponentsBuilder.fromUriString(codeLookupsUrl).buildAndExpand(params).encode().toUri();
-    return fetchResourceFromVsac(uri.toString(), apiKey, "Code");
+    return fetchResourceFromVsacMono(uri.toString(), apiKey, "Code");
   }
 
-  public String fetchResourceFromVsac(String uri, String apiKey, String resourceType) {
+  /**
+   * Requests a resource from VSAC. Nothing is requested until the returned Mono is subscribed to.
+   *
+   * @return the resource as json string. Errors with VsacResourceNotFoundException on 404 and with
+   *     VsacValueSetExpansionException on any other non-OK response.
+   */
+  public Mono<String> fetchResourceFromVsacMono(String uri, String apiKey, String resourceType) {
     return fhirTerminologyWebClient
         .get()
         .uri(uri)
@@ -165,7 +191,6 @@ public class FhirTerminologyServiceWebClient {
                                     uri.contains("manifest") ? "Manifest" : "Latest",
                                     uri)));
               }
-            })
-        .block();
+            });
   }
 }
@@ -6,14 +6,23 @@ import gov.cms.madie.terminology.util.TerminologyServiceUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.time.Duration;
+import java.util.function.Function;
 
 @Component
 @Slf4j
@@ -23,20 +32,37 @@ public class TerminologyServiceWebClient {
   private final String baseUrl;
   private final String valueSetEndpoint;
   private final String defaultProfile;
+  private final int maxBodyBytes;
 
   public TerminologyServiceWebClient(
       WebClient.Builder webClientBuilder,
       @Value("${client.vsac_base_url}") String baseUrl,
       @Value("${client.valueset_endpoint}") String valueSetEndpoint,
-      @Value("${client.default_profile}") String defaultProfile) {
-    this.terminologyClient = webClientBuilder.baseUrl(baseUrl).build();
+      @Value("${client.default_profile}") String defaultProfile,
+      @Value("${client.max-connections:32}") int maxConnections,
+      @Value("${client.max-pending-acquires:256}") int maxPendingAcquires,
+      @Value("${client.pending-acquire-timeout:PT10S}") Duration pendingAcquireTimeout,
+      @Value("${spring.codec.max-in-memory-size:24MB}") DataSize maxBodySize) {
+    this.terminologyClient =
+        webClientBuilder
+            .baseUrl(baseUrl)
+            .clientConnector(
+                TerminologyServiceUtil.buildClientConnector(
+                    "vsac-svs", maxConnections, maxPendingAcquires, pendingAcquireTimeout))
+            .build();
     this.baseUrl = baseUrl;
     this.valueSetEndpoint = valueSetEndpoint;
     this.defaultProfile = defaultProfile;
+    this.maxBodyBytes = Math.toIntExact(maxBodySize.toBytes());
     log.debug("baseUrl = " + baseUrl);
   }
 
-  public RetrieveMultipleValueSetsResponse getValueSet(
+  /**
+   * Requests a value set from the SVS RetrieveMultipleValueSets endpoint.
+   *
+   * @param apiKey user's UMLS ApiKey.
+   */
+  public Mono<RetrieveMultipleValueSetsResponse> getValueSetMono(
       String oid,
       String apiKey,
       String profile,
@@ -45,17 +71,55 @@ public class TerminologyServiceWebClient {
       String version) {
     URI valuesetURI = getValueSetURI(oid, profile, includeDraft, release, version);
     log.debug("valuesetURI = " + valuesetURI.getQuery());
-    Mono<RetrieveMultipleValueSetsResponse> responseMono =
-        terminologyClient
-            .get()
-            .uri(valuesetURI)
-            .headers(headers -> headers.setBasicAuth("apikey", apiKey))
-            .retrieve()
-            .onStatus(HttpStatusCode::is5xxServerError, ClientResponse::createException)
-            .onStatus(HttpStatusCode::is4xxClientError, ClientResponse::createException)
-            .bodyToMono(RetrieveMultipleValueSetsResponse.class);
-    // temp use of block until fixing 401 issue
-    return responseMono.block();
+    return terminologyClient
+        .get()
+        .uri(valuesetURI)
+        .headers(headers -> headers.setBasicAuth("apikey", apiKey))
+        .retrieve()
+        .onStatus(HttpStatusCode::is5xxServerError, ClientResponse::createException)
+        .onStatus(HttpStatusCode::is4xxClientError, ClientResponse::createException)
+        .bodyToMono(RetrieveMultipleValueSetsResponse.class);
+  }
+
+  /**
+   * Requests a value set like {@link #getValueSetMono}, but hands the SVS response body to
+   * valueSetReader as a stream instead of unmarshalling it into a JAXB object tree. The body is
+   * still buffered in full before it is read, so the reader works from memory rather than from the
+   * connection; a body larger than spring.codec.max-in-memory-size fails with a
+   * DataBufferLimitException, as it would when decoded by the codecs. valueSetReader runs on the
+   * bounded elastic scheduler, never on a Netty event loop thread.
+   *
+   * @param valueSetReader reads the SVS RetrieveMultipleValueSets response xml
+   */
+  public <T> Mono<T> readValueSetMono(
+      String oid,
+      String apiKey,
+      String profile,
+      String includeDraft,
+      String release,
+      String version,
+      Function<InputStream, T> valueSetReader) {
+    URI valuesetURI = getValueSetURI(oid, profile, includeDraft, release, version);
+    log.debug("valuesetURI = " + valuesetURI.getQuery());
+    return terminologyClient
+        .get()
+        .uri(valuesetURI)
+        .headers(headers -> headers.setBasicAuth("apikey", apiKey))
+        .retrieve()
+        .onStatus(HttpStatusCode::is5xxServerError, ClientResponse::createException)
+        .onStatus(HttpStatusCode::is4xxClientError, ClientResponse::createException)
+        .bodyToFlux(DataBuffer.class)
+        .as(body -> DataBufferUtils.join(body, maxBodyBytes))
+        .publishOn(Schedulers.boundedElastic())
+        .map(
+            body -> {
+              // closing the stream releases the buffer
+              try (InputStream inputStream = body.asInputStream(true)) {
+                return valueSetReader.apply(inputStream);
+              } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+              }
+            });
   }
 
   protected URI getValueSetURI(
@@ -72,7 +136,7 @@ public class TerminologyServiceWebClient {
    *     indicates a valid code Status Code, 400 indicates either CodeSystem or CodeSystem version
    *     or Code is not found.
    */
-  public VsacCode getCode(String codePath, String apiKey) {
+  public Mono<VsacCode> getCodeMono(String codePath, String apiKey) {
     URI codeUri = TerminologyServiceUtil.buildRetrieveCodeUri(baseUrl, codePath);
     log.info("Retrieving vsacCode for codePath {}", codePath);
     return terminologyClient
@@ -88,7 +152,6 @@ public class TerminologyServiceWebClient {
                 log.info("Received NON-OK response while retrieving codePath {}", codePath);
                 return clientResponse.createException().flatMap(Mono::error);
               }
-            })
-        .block();
+            });
   }
 }
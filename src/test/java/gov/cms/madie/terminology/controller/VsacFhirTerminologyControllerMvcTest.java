@@ -7,6 +7,7 @@ import gov.cms.madie.terminology.dto.QdmValueSet;
 import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
 import gov.cms.madie.terminology.exceptions.VsacUnauthorizedException;
 import gov.cms.madie.terminology.models.UmlsUser;
+import gov.cms.madie.terminology.service.CodeLookupService;
 import gov.cms.madie.terminology.service.FhirTerminologyService;
 import gov.cms.madie.terminology.service.VsacService;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,8 +19,10 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import reactor.core.publisher.Mono;
 
 import java.security.Principal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +35,8 @@ import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.csrf;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(VsacFhirTerminologyController.class)
@@ -43,6 +48,8 @@ class VsacFhirTerminologyControllerMvcTest {
 
   @MockBean private FhirTerminologyService fhirTerminologyService;
 
+  @MockBean private CodeLookupService codeLookupService;
+
   @MockBean private FhirContext fhirContext;
 
   @Autowired private MockMvc mockMvc;
@@ -84,16 +91,19 @@ class VsacFhirTerminologyControllerMvcTest {
     Principal principal = mock(Principal.class);
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
-    when(fhirTerminologyService.getManifests(any(UmlsUser.class))).thenReturn(mockManifests);
-    MvcResult result =
+    when(fhirTerminologyService.getManifests(any(UmlsUser.class)))
+        .thenReturn(Mono.just(mockManifests));
+    MvcResult asyncResult =
         mockMvc
             .perform(
                 MockMvcRequestBuilders.get("/terminology/manifest-list")
                     .with(user(TEST_USR))
                     .with(csrf())
                     .contentType(MediaType.APPLICATION_JSON_VALUE))
-            .andExpect(status().isOk())
+            .andExpect(request().asyncStarted())
             .andReturn();
+    MvcResult result =
+        mockMvc.perform(asyncDispatch(asyncResult)).andExpect(status().isOk()).andReturn();
     assertThat(result.getResponse().getStatus(), is(equalTo(200)));
     String content = result.getResponse().getContentAsString();
     verify(fhirTerminologyService, times(1)).getManifests(any(UmlsUser.class));
@@ -103,6 +113,25 @@ class VsacFhirTerminologyControllerMvcTest {
             "[{\"fullUrl\":\"https://cts.nlm.nih.gov/fhir/Library/ecqm-update-4q2017-eh\",\"id\":\"ecqm-update-4q2017-eh\"},{\"fullUrl\":\"https://cts.nlm.nih.gov/fhir/Library/mu2-update-2012-10-25\",\"id\":\"mu2-update-2012-10-25\"}]"));
   }
 
+  @Test
+  void testAsyncRequestsUseConfiguredTimeout() throws Exception {
+    when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
+    when(fhirTerminologyService.getManifests(any(UmlsUser.class))).thenReturn(Mono.never());
+    MvcResult asyncResult =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.get("/terminology/manifest-list")
+                    .with(user(TEST_USR))
+                    .with(csrf())
+                    .contentType(MediaType.APPLICATION_JSON_VALUE))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    // spring.mvc.async.request-timeout, rather than the 30 second servlet container default
+    assertThat(
+        asyncResult.getRequest().getAsyncContext().getTimeout(),
+        is(equalTo(Duration.ofMinutes(5).toMillis())));
+  }
+
   @Test
   void testUnAuthorizedUmlsUserWhileFetchingManifestsMvc() throws Exception {
     Principal principal = mock(Principal.class);
@@ -146,8 +175,8 @@ class VsacFhirTerminologyControllerMvcTest {
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
     when(fhirTerminologyService.getValueSetsExpansionsForQdm(
             any(ValueSetsSearchCriteria.class), any(UmlsUser.class)))
-        .thenReturn(mockQdmValueSets);
-    MvcResult result =
+        .thenReturn(Mono.just(mockQdmValueSets));
+    MvcResult asyncResult =
         mockMvc
             .perform(
                 MockMvcRequestBuilders.put("/terminology/value-sets/expansion/qdm")
@@ -155,8 +184,10 @@ class VsacFhirTerminologyControllerMvcTest {
                     .with(csrf())
                     .content(valueSetsSearchCriteria)
                     .contentType(MediaType.APPLICATION_JSON_VALUE))
-            .andExpect(status().isOk())
+            .andExpect(request().asyncStarted())
             .andReturn();
+    MvcResult result =
+        mockMvc.perform(asyncDispatch(asyncResult)).andExpect(status().isOk()).andReturn();
     assertThat(result.getResponse().getStatus(), is(equalTo(200)));
     String content = result.getResponse().getContentAsString();
     verify(fhirTerminologyService, times(1))
@@ -255,9 +286,9 @@ class VsacFhirTerminologyControllerMvcTest {
     Principal principal = mock(Principal.class);
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
-    when(fhirTerminologyService.retrieveCode(anyString(), anyString(), anyString(), anyString()))
-        .thenReturn(code);
-    MvcResult result =
+    when(codeLookupService.retrieveCode(anyString(), anyString(), anyString(), anyString()))
+        .thenReturn(Mono.just(code));
+    MvcResult asyncResult =
         mockMvc
             .perform(
                 MockMvcRequestBuilders.get("/terminology/code")
@@ -267,8 +298,10 @@ class VsacFhirTerminologyControllerMvcTest {
                     .param("codeSystem", codeSystem)
                     .param("version", version)
                     .header("Authorization", TEST_TOKEN))
-            .andExpect(status().isOk())
+            .andExpect(request().asyncStarted())
             .andReturn();
+    MvcResult result =
+        mockMvc.perform(asyncDispatch(asyncResult)).andExpect(status().isOk()).andReturn();
     assertThat(result.getResponse().getStatus(), is(equalTo(200)));
     assertThat(result.getResponse().getContentAsString(), containsString(code.getName()));
     assertThat(result.getResponse().getContentAsString(), containsString(code.getDisplay()));
@@ -3,9 +3,9 @@ package gov.cms.madie.terminology.controller;
 import gov.cms.madie.models.measure.ManifestExpansion;
 import gov.cms.madie.terminology.dto.*;
 import gov.cms.madie.terminology.exceptions.VsacUnauthorizedException;
-import gov.cms.madie.terminology.models.CodeSystem;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.service.CodeLookupService;
 import gov.cms.madie.terminology.service.FhirTerminologyService;
 import gov.cms.madie.terminology.service.VsacService;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,9 +14,13 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+import reactor.core.publisher.Mono;
 
 import java.security.Principal;
 import java.time.Instant;
@@ -33,6 +37,7 @@ class VsacFhirTerminologyControllerTest {
 
   @Mock private VsacService vsacService;
   @Mock FhirTerminologyService fhirTerminologyService;
+  @Mock CodeLookupService codeLookupService;
 
   @InjectMocks private VsacFhirTerminologyController vsacFhirTerminologyController;
   private UmlsUser umlsUser;
@@ -44,6 +49,8 @@ class VsacFhirTerminologyControllerTest {
   MockHttpServletRequest request;
   private final List<ManifestExpansion> mockManifests = new ArrayList<>();
   private final List<QdmValueSet> mockQdmValueSets = new ArrayList<>();
+  private final SerializedCodeSystems serializedCodeSystems =
+      new SerializedCodeSystems("v1", "[]".getBytes(), new byte[] {31, -117});
 
   @BeforeEach
   public void setUp() {
@@ -73,9 +80,10 @@ class VsacFhirTerminologyControllerTest {
     Principal principal = mock(Principal.class);
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
-    when(fhirTerminologyService.getManifests(any(UmlsUser.class))).thenReturn(mockManifests);
+    when(fhirTerminologyService.getManifests(any(UmlsUser.class)))
+        .thenReturn(Mono.just(mockManifests));
     ResponseEntity<List<ManifestExpansion>> response =
-        vsacFhirTerminologyController.getManifests(principal);
+        vsacFhirTerminologyController.getManifests(principal).block();
     assertEquals(response.getStatusCode(), HttpStatus.OK);
     assertEquals(response.getBody(), mockManifests);
   }
@@ -100,37 +108,29 @@ class VsacFhirTerminologyControllerTest {
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
     when(fhirTerminologyService.getValueSetsExpansionsForQdm(
             any(ValueSetsSearchCriteria.class), any(UmlsUser.class)))
-        .thenReturn(mockQdmValueSets);
+        .thenReturn(Mono.just(mockQdmValueSets));
     ResponseEntity<List<QdmValueSet>> response =
-        vsacFhirTerminologyController.getValueSetsExpansions(principal, valueSetsSearchCriteria);
+        vsacFhirTerminologyController
+            .getValueSetsExpansions(principal, valueSetsSearchCriteria)
+            .block();
     assertEquals(response.getStatusCode(), HttpStatus.OK);
     assertEquals(response.getBody(), mockQdmValueSets);
   }
 
   @Test
   void retrieveAndUpdateCodeSystemsSuccessfully() {
-    List<CodeSystem> mockCodeSystemsPage = new ArrayList<>();
-    mockCodeSystemsPage.add(
-        CodeSystem.builder()
-            .id("titleversion")
-            .title("title")
-            .name("name")
-            .version("version")
-            .versionId("vid")
-            .oid("urlval")
-            .lastUpdated(Instant.now())
-            .lastUpdatedUpstream(new Date())
-            .build());
+    CodeSystemRefreshResult refreshResult =
+        CodeSystemRefreshResult.builder().fullSweep(true).retrieved(1).inserted(1).build();
     Principal principal = mock(Principal.class);
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
-    when(fhirTerminologyService.retrieveAllCodeSystems(any())).thenReturn(mockCodeSystemsPage);
+    when(fhirTerminologyService.retrieveAllCodeSystems(any())).thenReturn(refreshResult);
 
-    ResponseEntity<List<CodeSystem>> response =
+    ResponseEntity<CodeSystemRefreshResult> response =
         vsacFhirTerminologyController.retrieveAndUpdateCodeSystems(
             principal, request, TEST_API_KEY, TEST_USER);
     assertEquals(response.getStatusCode(), HttpStatus.OK);
-    assertEquals(response.getBody(), mockCodeSystemsPage);
+    assertEquals(response.getBody(), refreshResult);
   }
 
   @Test
@@ -161,26 +161,93 @@ class VsacFhirTerminologyControllerTest {
 
   @Test
   void testGetAllCodeSystemsSuccessfully() {
-    List<CodeSystem> mockCodeSystemsPage = new ArrayList<>();
-    mockCodeSystemsPage.add(
-        CodeSystem.builder()
-            .id("titleversion")
-            .title("title")
-            .name("name")
-            .version("version")
-            .versionId("vid")
-            .oid("urlval")
-            .lastUpdated(Instant.now())
-            .lastUpdatedUpstream(new Date())
-            .build());
     Principal principal = mock(Principal.class);
     when(principal.getName()).thenReturn(TEST_USER);
-    when(fhirTerminologyService.getAllCodeSystems()).thenReturn(mockCodeSystemsPage);
+    when(fhirTerminologyService.getSerializedCodeSystems()).thenReturn(serializedCodeSystems);
 
-    ResponseEntity<List<CodeSystem>> response =
-        vsacFhirTerminologyController.getAllCodeSystems(principal);
-    assertEquals(response.getStatusCode(), HttpStatus.OK);
-    assertEquals(response.getBody(), mockCodeSystemsPage);
+    ResponseEntity<byte[]> response =
+        vsacFhirTerminologyController.getAllCodeSystems(
+            principal, webRequest(new MockHttpServletRequest()), null);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"v1\"", response.getHeaders().getETag());
+    assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertArrayEquals(serializedCodeSystems.getJson(), response.getBody());
+  }
+
+  @Test
+  void testGetAllCodeSystemsGzipped() {
+    Principal principal = mock(Principal.class);
+    when(principal.getName()).thenReturn(TEST_USER);
+    when(fhirTerminologyService.getSerializedCodeSystems()).thenReturn(serializedCodeSystems);
+
+    ResponseEntity<byte[]> response =
+        vsacFhirTerminologyController.getAllCodeSystems(
+            principal, webRequest(new MockHttpServletRequest()), "br;q=1.0, gzip;q=0.8");
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertEquals("\"v1-gzip\"", response.getHeaders().getETag());
+    assertArrayEquals(serializedCodeSystems.getGzippedJson(), response.getBody());
+
+    response =
+        vsacFhirTerminologyController.getAllCodeSystems(
+            principal, webRequest(new MockHttpServletRequest()), "gzip;q=0");
+    assertEquals("\"v1\"", response.getHeaders().getETag());
+    assertArrayEquals(serializedCodeSystems.getJson(), response.getBody());
+  }
+
+  @Test
+  void testGetAllCodeSystemsNotModified() {
+    Principal principal = mock(Principal.class);
+    when(principal.getName()).thenReturn(TEST_USER);
+    when(fhirTerminologyService.getSerializedCodeSystems()).thenReturn(serializedCodeSystems);
+    MockHttpServletRequest conditionalRequest = new MockHttpServletRequest("GET", "/");
+    conditionalRequest.addHeader(HttpHeaders.IF_NONE_MATCH, "\"v1-gzip\"");
+
+    ResponseEntity<byte[]> response =
+        vsacFhirTerminologyController.getAllCodeSystems(
+            principal, webRequest(conditionalRequest), "gzip");
+    assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+    assertEquals("\"v1-gzip\"", response.getHeaders().getETag());
+    assertNull(response.getBody());
+  }
+
+  @Test
+  void testGetAllCodeSystemsSendsGzippedListToClientWithIdentityTag() {
+    Principal principal = mock(Principal.class);
+    when(principal.getName()).thenReturn(TEST_USER);
+    when(fhirTerminologyService.getSerializedCodeSystems()).thenReturn(serializedCodeSystems);
+    MockHttpServletRequest conditionalRequest = new MockHttpServletRequest("GET", "/");
+    conditionalRequest.addHeader(HttpHeaders.IF_NONE_MATCH, "\"v1\"");
+
+    ResponseEntity<byte[]> response =
+        vsacFhirTerminologyController.getAllCodeSystems(
+            principal, webRequest(conditionalRequest), "gzip");
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals("\"v1-gzip\"", response.getHeaders().getETag());
+    assertArrayEquals(serializedCodeSystems.getGzippedJson(), response.getBody());
+  }
+
+  @Test
+  void testGetCodeSystemChanges() {
+    Principal principal = mock(Principal.class);
+    when(principal.getName()).thenReturn(TEST_USER);
+    Instant since = Instant.parse("2024-05-01T00:00:00Z");
+    CodeSystemDelta delta =
+        CodeSystemDelta.builder()
+            .codeSystems(List.of())
+            .deletedIds(List.of("LOINC2.40"))
+            .watermark(since.plusSeconds(3600))
+            .build();
+    when(fhirTerminologyService.getCodeSystemChangesSince(since)).thenReturn(delta);
+
+    ResponseEntity<CodeSystemDelta> response =
+        vsacFhirTerminologyController.getCodeSystemChanges(principal, since);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertSame(delta, response.getBody());
+  }
+
+  private ServletWebRequest webRequest(MockHttpServletRequest servletRequest) {
+    return new ServletWebRequest(servletRequest, new MockHttpServletResponse());
   }
 
   @Test
@@ -200,11 +267,11 @@ class VsacFhirTerminologyControllerTest {
             .build();
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
-    when(fhirTerminologyService.retrieveCode(anyString(), anyString(), anyString(), anyString()))
-        .thenReturn(code);
+    when(codeLookupService.retrieveCode(anyString(), anyString(), anyString(), anyString()))
+        .thenReturn(Mono.just(code));
 
     ResponseEntity<Code> response =
-        vsacFhirTerminologyController.getCode(codeName, codeSystem, version, principal);
+        vsacFhirTerminologyController.getCode(codeName, codeSystem, version, principal).block();
     assertEquals(response.getStatusCode(), HttpStatus.OK);
     assertEquals(response.getBody(), code);
   }
@@ -249,10 +316,10 @@ class VsacFhirTerminologyControllerTest {
     Principal principal = mock(Principal.class);
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
-    when(fhirTerminologyService.retrieveCodesAndCodeSystems(any(), anyString()))
-        .thenReturn(List.of(code));
+    when(codeLookupService.retrieveCodesAndCodeSystems(any(), anyString()))
+        .thenReturn(Mono.just(List.of(code)));
     ResponseEntity<List<Code>> response =
-        vsacFhirTerminologyController.getCodesAndCodeSystems(codeList, principal);
+        vsacFhirTerminologyController.getCodesAndCodeSystems(codeList, principal).block();
     assertEquals(response.getStatusCode(), HttpStatus.OK);
     assertEquals(response.getBody().get(0), code);
   }
@@ -286,12 +353,12 @@ class VsacFhirTerminologyControllerTest {
     when(principal.getName()).thenReturn(TEST_USER);
     when(vsacService.verifyUmlsAccess(anyString())).thenReturn(umlsUser);
     when(fhirTerminologyService.searchValueSets(any(), any()))
-        .thenReturn(ValueSetSearchResult.builder().valueSets(mockValueSets).build());
+        .thenReturn(Mono.just(ValueSetSearchResult.builder().valueSets(mockValueSets).build()));
     Map<String, String> queryParams = new HashMap<>();
     queryParams.put("param1", "value1");
     queryParams.put("param2", "value2");
     ResponseEntity<ValueSetSearchResult> response =
-        vsacFhirTerminologyController.searchValueSets(principal, queryParams);
+        vsacFhirTerminologyController.searchValueSets(principal, queryParams).block();
     assertEquals(response.getStatusCode(), HttpStatus.OK);
   }
 }
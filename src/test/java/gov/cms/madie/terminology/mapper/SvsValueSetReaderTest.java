@@ -0,0 +1,77 @@
+package gov.cms.madie.terminology.mapper;
+
+import gov.cms.madie.terminology.dto.QdmValueSet;
+import gov.cms.madie.terminology.exceptions.VsacGenericException;
+import gov.cms.madie.terminology.helpers.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SvsValueSetReaderTest {
+
+  @Test
+  void readQdmValueSet() throws IOException {
+    QdmValueSet valueSet;
+    try (InputStream svsResponse =
+        Files.newInputStream(
+            TestHelpers.getTestResourceFile("/value-sets/svs_office_visit.xml").toPath())) {
+      valueSet = SvsValueSetReader.readQdmValueSet(svsResponse);
+    }
+
+    assertEquals("2.16.840.1.113883.3.464.1003.101.12.1001", valueSet.getOid());
+    assertEquals("Office Visit", valueSet.getDisplayName());
+    assertEquals("N/A", valueSet.getVersion());
+    assertEquals(16, valueSet.getConcepts().size());
+    QdmValueSet.Concept concept = valueSet.getConcepts().get(0);
+    assertEquals("185463005", concept.getCode());
+    assertEquals("2.16.840.1.113883.6.96", concept.getCodeSystemOid());
+    assertEquals("SNOMEDCT", concept.getCodeSystemName());
+    assertEquals("2021-09", concept.getCodeSystemVersion());
+    assertEquals("Visit out of hours (procedure)", concept.getDisplayName());
+  }
+
+  @Test
+  void readQdmValueSetWithoutConceptList() {
+    QdmValueSet valueSet =
+        SvsValueSetReader.readQdmValueSet(
+            stream(
+                "<RetrieveMultipleValueSetsResponse xmlns=\"urn:ihe:iti:svs:2008\">"
+                    + "<DescribedValueSet ID=\"1.2.3\" displayName=\"Empty\" version=\"1\">"
+                    + "<Status>Active</Status>"
+                    + "</DescribedValueSet>"
+                    + "</RetrieveMultipleValueSetsResponse>"));
+
+    assertEquals("1.2.3", valueSet.getOid());
+    assertTrue(valueSet.getConcepts().isEmpty());
+  }
+
+  @Test
+  void readQdmValueSetThrowsWhenResponseHasNoValueSet() {
+    InputStream svsResponse =
+        stream("<RetrieveMultipleValueSetsResponse xmlns=\"urn:ihe:iti:svs:2008\"/>");
+    assertThrows(VsacGenericException.class, () -> SvsValueSetReader.readQdmValueSet(svsResponse));
+  }
+
+  @Test
+  void readQdmValueSetRejectsDocumentTypeDeclaration() {
+    InputStream svsResponse =
+        stream(
+            "<!DOCTYPE foo [<!ENTITY xxe SYSTEM \"file:///etc/passwd\">]>"
+                + "<RetrieveMultipleValueSetsResponse>"
+                + "<DescribedValueSet ID=\"&xxe;\"/>"
+                + "</RetrieveMultipleValueSetsResponse>");
+    assertThrows(VsacGenericException.class, () -> SvsValueSetReader.readQdmValueSet(svsResponse));
+  }
+
+  private InputStream stream(String xml) {
+    return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,138 @@
+package gov.cms.madie.terminology.mapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import generated.vsac.nlm.nih.gov.RetrieveMultipleValueSetsResponse.DescribedValueSet.ConceptList.Concept;
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import gov.cms.madie.terminology.service.MappingService;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the single-pass grouping of SVS concepts into compose includes with the previous
+ * grouping, which filtered the whole concept list once per code system and once per version. The
+ * benchmark forks its own JVM, so it is run with java on the test classpath rather than from within
+ * Maven:
+ *
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/cp
+ * java -cp target/test-classes:target/classes:$(cat target/cp) org.openjdk.jmh.Main \
+ *     VsacToFhirValueSetMapperBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VsacToFhirValueSetMapperBenchmark {
+  private static final int CODE_SYSTEMS = 8;
+  private static final int VERSIONS = 4;
+
+  @Param({"10000", "100000"})
+  int conceptCount;
+
+  VsacToFhirValueSetMapper mapper;
+  List<Concept> concepts;
+
+  @Setup
+  public void setUp() {
+    List<CodeSystemEntry> codeSystemEntries = new ArrayList<>();
+    for (int system = 0; system < CODE_SYSTEMS; system++) {
+      codeSystemEntries.add(
+          CodeSystemEntry.builder()
+              .name("system" + system)
+              .oid("2.16.840.1.113883.6." + system)
+              .url("http://example.org/CodeSystem/" + system)
+              .build());
+    }
+    CodeSystemEntryIndex codeSystemEntryIndex = CodeSystemEntryIndex.of(codeSystemEntries);
+    mapper =
+        new VsacToFhirValueSetMapper(
+            new MappingService(new ObjectMapper()) {
+              @Override
+              public CodeSystemEntryIndex getCodeSystemEntryIndex() {
+                return codeSystemEntryIndex;
+              }
+            });
+    concepts = new ArrayList<>(conceptCount);
+    for (int i = 0; i < conceptCount; i++) {
+      Concept concept = new Concept();
+      concept.setCode(Integer.toString(i));
+      concept.setCodeSystem("2.16.840.1.113883.6." + (i % CODE_SYSTEMS));
+      concept.setCodeSystemVersion("202" + (i / CODE_SYSTEMS % VERSIONS));
+      concept.setDisplayName("concept " + i);
+      concepts.add(concept);
+    }
+  }
+
+  @Benchmark
+  public ValueSet singlePassGrouping() {
+    ValueSet valueSet = new ValueSet();
+    mapper.addFhirValueSetComposeComponent(concepts, valueSet);
+    return valueSet;
+  }
+
+  @Benchmark
+  public ValueSet filterPerCodeSystemAndVersion() {
+    ValueSet valueSet = new ValueSet();
+    valueSet.setCompose(new ValueSet.ValueSetComposeComponent());
+    Map<String, List<Concept>> conceptsByCodeSystem = new HashMap<>();
+    concepts.forEach(
+        concept -> conceptsByCodeSystem.put(concept.getCodeSystem(), new ArrayList<>()));
+    for (String codeSystem : conceptsByCodeSystem.keySet()) {
+      List<Concept> codeSystemConcepts =
+          concepts.stream()
+              .filter(c -> codeSystem.equalsIgnoreCase(c.getCodeSystem()))
+              .collect(Collectors.toList());
+      Map<String, String> versions = new HashMap<>();
+      codeSystemConcepts.forEach(
+          c -> versions.put(c.getCodeSystemVersion(), c.getCodeSystemVersion()));
+      for (String version : versions.keySet()) {
+        List<Concept> versionConcepts =
+            codeSystemConcepts.stream()
+                .filter(
+                    c ->
+                        codeSystem.equalsIgnoreCase(c.getCodeSystem())
+                            && version.equalsIgnoreCase(c.getCodeSystemVersion()))
+                .collect(Collectors.toList());
+        ConceptSetComponent include = new ConceptSetComponent();
+        include.setVersion(version);
+        include.setSystem(mapper.getUrlByOid(codeSystem));
+        versionConcepts.forEach(c -> include.addConcept(mapper.createFhirConceptSetComponent(c)));
+        valueSet.getCompose().getInclude().add(include);
+      }
+    }
+    return valueSet;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(VsacToFhirValueSetMapperBenchmark.class.getSimpleName())
+                .build())
+        .run();
+  }
+}
@@ -7,7 +7,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Map;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -15,7 +14,7 @@ import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.hl7.fhir.r4.model.ValueSet;
 import org.hl7.fhir.r4.model.ValueSet.ConceptReferenceComponent;
-import org.hl7.fhir.r4.model.ValueSet.ValueSetComposeComponent;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -29,6 +28,7 @@ import generated.vsac.nlm.nih.gov.RetrieveMultipleValueSetsResponse.DescribedVal
 import generated.vsac.nlm.nih.gov.RetrieveMultipleValueSetsResponse.DescribedValueSet.ConceptList.Concept;
 import gov.cms.madie.models.mapping.CodeSystemEntry;
 import gov.cms.madie.terminology.service.MappingService;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
 
 @ExtendWith(MockitoExtension.class)
 public class VsacToFhirValueSetMapperTest {
@@ -143,56 +143,6 @@ public class VsacToFhirValueSetMapperTest {
     assertEquals(vs.getDate(), today);
   }
 
-  @Test
-  public void testGetVsacCodeMap() {
-
-    Map<String, String> vsacCodeMap = mapper.getVsacCodeMap(vsacConceptList);
-
-    assertEquals(vsacCodeMap.size(), 2);
-  }
-
-  @Test
-  public void testGetVsacConceptListByCode() {
-    List<Concept> result =
-        mapper.getVsacConceptListByCode("2.16.840.1.113883.6.96", vsacConceptList);
-    assertEquals(result.size(), 3);
-    result = mapper.getVsacConceptListByCode("2.16.840.1.113883.6.12", vsacConceptList);
-    assertEquals(result.size(), 2);
-    result = mapper.getVsacConceptListByCode(TEST, vsacConceptList);
-    assertEquals(result.size(), 0);
-  }
-
-  @Test
-  public void testGetVsacVersionMap() {
-    Map<String, String> vsacVersionMap = mapper.getVsacVersionMap(vsacConceptList);
-    assertEquals(vsacVersionMap.size(), 2);
-  }
-
-  @Test
-  public void testGetVsacConceptListByCodeAndVersion() {
-    List<Concept> conceptListByCodeAndVersion =
-        mapper.getVsacConceptListByCodeAndVersion(
-            "2.16.840.1.113883.6.96", "2022-03", vsacConceptList);
-    assertEquals(conceptListByCodeAndVersion.size(), 3);
-
-    conceptListByCodeAndVersion =
-        mapper.getVsacConceptListByCodeAndVersion(
-            "2.16.840.1.113883.6.12", "2021", vsacConceptList);
-    assertEquals(conceptListByCodeAndVersion.size(), 2);
-
-    conceptListByCodeAndVersion =
-        mapper.getVsacConceptListByCodeAndVersion(
-            "2.16.840.1.113883.6.12", "2022-03", vsacConceptList);
-    assertEquals(conceptListByCodeAndVersion.size(), 0);
-  }
-
-  @Test
-  public void testGetConceptMapByCodeAndVersion() {
-    Map<String, List<Concept>> conceptListMap =
-        mapper.getConceptMapByCodeAndVersion(vsacConceptList);
-    assertEquals(conceptListMap.size(), 2);
-  }
-
   @Test
   public void testCreateFhirConceptSetComponent() {
     ConceptReferenceComponent result = mapper.createFhirConceptSetComponent(vsacConcept1);
@@ -201,38 +151,48 @@ public class VsacToFhirValueSetMapperTest {
   }
 
   @Test
-  public void testCreateFhirConceptReferenceComponents() {
-    List<ConceptReferenceComponent> result =
-        mapper.createFhirConceptReferenceComponents(vsacConceptList);
-    assertEquals(result.size(), 5);
-  }
-
-  @Test
-  public void testCreateFhirConceptSetComponents() {
-    Map<String, List<Concept>> conceptListMap =
-        mapper.getConceptMapByCodeAndVersion(vsacConceptList);
-
-    ValueSetComposeComponent fhirValueSetComposeComponent = new ValueSetComposeComponent();
-    fhirValueSetComposeComponent.setInclude(new ArrayList<>());
+  public void testAddFhirValueSetComposeComponent() {
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     ValueSet fhirValueSet = new ValueSet();
-    fhirValueSet.setCompose(fhirValueSetComposeComponent);
 
-    mapper.createFhirConceptSetComponents(conceptListMap, fhirValueSetComposeComponent);
+    mapper.addFhirValueSetComposeComponent(vsacConceptList, fhirValueSet);
 
     assertEquals(fhirValueSet.getCompose().getInclude().size(), 2);
   }
 
   @Test
-  public void testAddFhirValueSetComposeComponent() {
+  public void testAddFhirValueSetComposeComponentKeepsEveryCodeSystemVersion() {
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    Concept olderSnomedConcept =
+        getVsacConcept(
+            "30346009",
+            "2.16.840.1.113883.6.96",
+            "SNOMEDCT",
+            "2018-03",
+            "Evaluation and management of established outpatient (procedure)");
+    vsacConceptList.add(1, olderSnomedConcept);
     ValueSet fhirValueSet = new ValueSet();
 
     mapper.addFhirValueSetComposeComponent(vsacConceptList, fhirValueSet);
 
-    assertEquals(fhirValueSet.getCompose().getInclude().size(), 2);
+    List<ConceptSetComponent> includes = fhirValueSet.getCompose().getInclude();
+    assertEquals(3, includes.size());
+    assertEquals("2022-03", includes.get(0).getVersion());
+    assertEquals(3, includes.get(0).getConcept().size());
+    assertEquals("185466002", includes.get(0).getConcept().get(2).getCode());
+    assertEquals("2018-03", includes.get(1).getVersion());
+    assertEquals("30346009", includes.get(1).getConcept().get(0).getCode());
+    assertEquals("2021", includes.get(2).getVersion());
+    assertEquals(2, includes.get(2).getConcept().size());
+    assertEquals("2.16.840.1.113883.6.12", includes.get(2).getSystem());
   }
 
   @Test
   public void testConvertToFHIRValueSet() {
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     RetrieveMultipleValueSetsResponse vsacValuesetResponse =
         new RetrieveMultipleValueSetsResponse();
     ConceptList conceptList = new ConceptList();
@@ -277,7 +237,8 @@ public class VsacToFhirValueSetMapperTest {
 
   @Test
   public void testGetUrlByOidFOUND() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
 
     String url = mapper.getUrlByOid(TEST_OID);
 
@@ -286,7 +247,8 @@ public class VsacToFhirValueSetMapperTest {
 
   @Test
   public void testGetUrlByOidNOTFOUND() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
 
     String url = mapper.getUrlByOid(TEST);
 
@@ -300,7 +262,8 @@ public class VsacToFhirValueSetMapperTest {
     CodeSystemEntry fullOid =
         CodeSystemEntry.builder().oid(TEST_OID + "1").url(TEST_URL + "/1").name(TEST + "1").build();
     List<CodeSystemEntry> codeSystemList = List.of(fullOid, substringOid);
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemList);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemList));
 
     String url = mapper.getUrlByOid(TEST_OID);
     assertEquals(TEST_URL, url);
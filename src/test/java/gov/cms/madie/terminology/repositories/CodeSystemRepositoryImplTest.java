@@ -0,0 +1,136 @@
+package gov.cms.madie.terminology.repositories;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import gov.cms.madie.terminology.dto.CodeSystemUpsertResult;
+import gov.cms.madie.terminology.models.CodeSystem;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CodeSystemRepositoryImplTest {
+
+  @Mock MongoTemplate mongoTemplate;
+  @Mock BulkOperations bulkOperations;
+
+  CodeSystemRepositoryImpl codeSystemRepository;
+
+  @BeforeEach
+  void setUp() {
+    codeSystemRepository = new CodeSystemRepositoryImpl(mongoTemplate, 2);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CodeSystem.class))
+        .thenReturn(bulkOperations);
+  }
+
+  @Test
+  void upsertAllWritesBatchesAndSumsCounts() {
+    when(bulkOperations.execute())
+        .thenReturn(
+            BulkWriteResult.acknowledged(0, 2, 0, 1, List.of(), List.of()),
+            BulkWriteResult.acknowledged(
+                0, 0, 0, 0, List.of(new BulkWriteUpsert(0, new BsonString("c3"))), List.of()));
+
+    CodeSystemUpsertResult result =
+        codeSystemRepository.upsertAll(
+            List.of(codeSystem("c1", "1"), codeSystem("c2", "1"), codeSystem("c3", "1")));
+
+    assertEquals(1, result.getInserted());
+    assertEquals(1, result.getModified());
+    assertEquals(1, result.getUnchanged());
+    verify(bulkOperations, times(3)).upsert(any(Query.class), any(Update.class));
+    verify(bulkOperations, times(2)).execute();
+    verify(mongoTemplate, times(2))
+        .updateMulti(any(Query.class), any(Update.class), eq(CodeSystem.class));
+  }
+
+  @Test
+  void upsertAllKeepsLastCodeSystemOfDuplicateId() {
+    when(bulkOperations.execute())
+        .thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+    codeSystemRepository.upsertAll(List.of(codeSystem("c1", "old"), codeSystem("c1", "new")));
+
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(1)).upsert(any(Query.class), update.capture());
+    Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+    assertEquals("new", set.get("versionId"));
+    // qdmDisplayVersion is resolved by the refresh and written with the code system
+    assertTrue(set.containsKey("qdmDisplayVersion"));
+  }
+
+  @Test
+  void upsertAllOnlyWritesAndStampsChangedCodeSystems() {
+    when(mongoTemplate.find(any(Query.class), eq(CodeSystem.class)))
+        .thenReturn(List.of(codeSystem("c1", "1"), codeSystem("c2", "1")));
+    when(bulkOperations.execute())
+        .thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+    CodeSystemUpsertResult result =
+        codeSystemRepository.upsertAll(List.of(codeSystem("c1", "1"), codeSystem("c2", "2")));
+
+    assertEquals(1, result.getModified());
+    assertEquals(1, result.getUnchanged());
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(1)).upsert(query.capture(), update.capture());
+    assertEquals("c2", query.getValue().getQueryObject().get("_id"));
+    Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+    assertNotNull(set.get("lastUpdated"));
+    // both were retrieved, so neither is deleted by a full sweep
+    ArgumentCaptor<Update> seen = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).updateMulti(any(Query.class), seen.capture(), eq(CodeSystem.class));
+    set = seen.getValue().getUpdateObject().get("$set", Document.class);
+    assertTrue(set.containsKey("lastSeen"));
+  }
+
+  @Test
+  void updateQdmDisplayVersionsWritesBatchesAndSumsModified() {
+    when(bulkOperations.execute())
+        .thenReturn(
+            BulkWriteResult.acknowledged(0, 2, 0, 2, List.of(), List.of()),
+            BulkWriteResult.acknowledged(0, 1, 0, 0, List.of(), List.of()));
+    Map<String, String> qdmDisplayVersions = new LinkedHashMap<>();
+    qdmDisplayVersions.put("c1", "1");
+    qdmDisplayVersions.put("c2", "2");
+    qdmDisplayVersions.put("c3", null);
+
+    int modified = codeSystemRepository.updateQdmDisplayVersions(qdmDisplayVersions);
+
+    assertEquals(2, modified);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(bulkOperations, times(3)).updateOne(any(Query.class), update.capture());
+    verify(bulkOperations, times(2)).execute();
+    Document set = update.getAllValues().get(2).getUpdateObject().get("$set", Document.class);
+    assertTrue(set.containsKey("qdmDisplayVersion"));
+    assertNull(set.get("qdmDisplayVersion"));
+    assertNotNull(set.get("lastUpdated"));
+  }
+
+  private CodeSystem codeSystem(String id, String versionId) {
+    return CodeSystem.builder().id(id).title(id).version("1").versionId(versionId).build();
+  }
+}
@@ -0,0 +1,87 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class CodeSystemSyncStateRepositoryImplTest {
+  private static final Instant STARTED = Instant.parse("2024-05-01T00:00:00Z");
+  private static final Instant WATERMARK = Instant.parse("2024-04-30T00:00:00Z");
+  private static final Instant CATALOG_UPDATED = Instant.parse("2024-05-01T00:05:00Z");
+
+  @Mock MongoTemplate mongoTemplate;
+
+  CodeSystemSyncStateRepositoryImpl codeSystemSyncStateRepository;
+
+  @BeforeEach
+  void setUp() {
+    codeSystemSyncStateRepository = new CodeSystemSyncStateRepositoryImpl(mongoTemplate);
+  }
+
+  @Test
+  void saveRefreshSetsOnlyRefreshFields() {
+    codeSystemSyncStateRepository.saveRefresh(STARTED, true, WATERMARK, CATALOG_UPDATED);
+
+    Document update = captureUpsert();
+    Document set = update.get("$set", Document.class);
+    assertEquals(STARTED, set.get("lastRefresh"));
+    assertEquals(STARTED, set.get("lastFullSweep"));
+    assertFalse(set.containsKey("qdmDisplayMappingVersion"));
+    Document max = update.get("$max", Document.class);
+    assertEquals(WATERMARK, max.get("upstreamWatermark"));
+    assertEquals(CATALOG_UPDATED, max.get("catalogUpdated"));
+  }
+
+  @Test
+  void saveRefreshKeepsLastFullSweepAndWatermarkOfIncrementalRefreshWithoutChanges() {
+    codeSystemSyncStateRepository.saveRefresh(STARTED, false, null, CATALOG_UPDATED);
+
+    Document update = captureUpsert();
+    assertFalse(update.get("$set", Document.class).containsKey("lastFullSweep"));
+    assertFalse(update.get("$max", Document.class).containsKey("upstreamWatermark"));
+  }
+
+  @Test
+  void saveQdmDisplayMappingVersionSetsOnlyMappingFields() {
+    codeSystemSyncStateRepository.saveQdmDisplayMappingVersion("v2", CATALOG_UPDATED);
+
+    Document update = captureUpsert();
+    Document set = update.get("$set", Document.class);
+    assertEquals("v2", set.get("qdmDisplayMappingVersion"));
+    assertEquals(1, set.size());
+    assertEquals(CATALOG_UPDATED, update.get("$max", Document.class).get("catalogUpdated"));
+  }
+
+  @Test
+  void saveQdmDisplayMappingVersionKeepsCatalogUpdatedWithoutChanges() {
+    codeSystemSyncStateRepository.saveQdmDisplayMappingVersion("v2", null);
+
+    assertNull(captureUpsert().get("$max"));
+  }
+
+  private Document captureUpsert() {
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate)
+        .upsert(query.capture(), update.capture(), eq(CodeSystemSyncState.class));
+    assertEquals(CodeSystemSyncState.CODE_SYSTEMS, query.getValue().getQueryObject().get("_id"));
+    return update.getValue().getUpdateObject();
+  }
+}
@@ -0,0 +1,110 @@
+package gov.cms.madie.terminology.repositories;
+
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.ValueSetExpansion;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MongoIndexInitializerTest {
+
+  @Mock MongoTemplate mongoTemplate;
+  @Mock IndexOperations codeSystemIndexOperations;
+  @Mock IndexOperations valueSetExpansionIndexOperations;
+  @InjectMocks MongoIndexInitializer mongoIndexInitializer;
+
+  @Test
+  void ensureIndexesCreatesTheIndexesDeclaredOnCodeSystem() {
+    stubIndexResolution();
+    when(codeSystemIndexOperations.getIndexInfo()).thenReturn(List.of(indexInfo("lastUpdated")));
+
+    mongoIndexInitializer.ensureIndexes();
+
+    ArgumentCaptor<IndexDefinition> indexes = ArgumentCaptor.forClass(IndexDefinition.class);
+    verify(codeSystemIndexOperations).ensureIndex(indexes.capture());
+    assertEquals(List.of("lastUpdated"), List.copyOf(indexes.getValue().getIndexKeys().keySet()));
+  }
+
+  @Test
+  void ensureIndexesCreatesTheTtlIndexOnValueSetExpansion() {
+    stubIndexResolution();
+
+    mongoIndexInitializer.ensureIndexes();
+
+    ArgumentCaptor<IndexDefinition> indexes = ArgumentCaptor.forClass(IndexDefinition.class);
+    verify(valueSetExpansionIndexOperations).ensureIndex(indexes.capture());
+    assertEquals(List.of("expiresAt"), List.copyOf(indexes.getValue().getIndexKeys().keySet()));
+    Document options = indexes.getValue().getIndexOptions();
+    assertEquals(0L, ((Number) options.get("expireAfterSeconds")).longValue());
+  }
+
+  @Test
+  void ensureIndexesReportsIndexesThatCouldNotBeCreated() {
+    stubIndexResolution();
+    doThrow(new IllegalStateException("not authorized"))
+        .when(codeSystemIndexOperations)
+        .ensureIndex(any(IndexDefinition.class));
+    when(codeSystemIndexOperations.getIndexInfo()).thenReturn(List.of(indexInfo("_id")));
+
+    mongoIndexInitializer.ensureIndexes();
+
+    verify(codeSystemIndexOperations).ensureIndex(any(IndexDefinition.class));
+    // a failure on one collection does not keep the indexes of the others from being created
+    verify(valueSetExpansionIndexOperations).ensureIndex(any(IndexDefinition.class));
+  }
+
+  @Test
+  void reportMissingIndexesMatchesIndexKeysInOrder() {
+    when(codeSystemIndexOperations.getIndexInfo())
+        .thenReturn(List.of(indexInfo("version", "name"), indexInfo("oid", "version")));
+
+    List<List<String>> missing =
+        mongoIndexInitializer.reportMissingIndexes(
+            codeSystemIndexOperations,
+            CodeSystem.class,
+            List.of(
+                new Index().on("name", Sort.Direction.ASC).on("version", Sort.Direction.ASC),
+                new Index().on("oid", Sort.Direction.ASC).on("version", Sort.Direction.ASC)));
+
+    assertEquals(List.of(List.of("name", "version")), missing);
+  }
+
+  private void stubIndexResolution() {
+    when(mongoTemplate.indexOps(CodeSystem.class)).thenReturn(codeSystemIndexOperations);
+    when(mongoTemplate.indexOps(ValueSetExpansion.class))
+        .thenReturn(valueSetExpansionIndexOperations);
+    when(mongoTemplate.getConverter())
+        .thenReturn(
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+  }
+
+  private IndexInfo indexInfo(String... keys) {
+    List<IndexField> fields =
+        Arrays.stream(keys).map(key -> IndexField.create(key, Sort.Direction.ASC)).toList();
+    return new IndexInfo(fields, String.join("_", keys), false, false, null);
+  }
+}
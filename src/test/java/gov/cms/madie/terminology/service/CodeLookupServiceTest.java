@@ -0,0 +1,344 @@
+package gov.cms.madie.terminology.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import gov.cms.madie.terminology.dto.Code;
+import gov.cms.madie.terminology.dto.CodeStatus;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
+import gov.cms.madie.terminology.webclient.FhirTerminologyServiceWebClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CodeLookupServiceTest {
+  private static final String TEST_API_KEY = "te$tKey";
+
+  @Mock FhirTerminologyServiceWebClient fhirTerminologyServiceWebClient;
+  @Mock FhirContext fhirContext;
+  @Mock MappingService mappingService;
+  @Mock CodeSystemCatalog codeSystemCatalog;
+  @Mock VsacService vsacService;
+  SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Spy
+  CodeDeduplicationMetrics codeDeduplicationMetrics = new CodeDeduplicationMetrics(meterRegistry);
+
+  @InjectMocks CodeLookupService codeLookupService;
+
+  List<CodeSystemEntry> codeSystemEntries;
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(codeLookupService, "codeLookupConcurrency", 4);
+  }
+
+  @Test
+  void testRetrieveCodeWhenCodeIsNull() {
+    String codeSystem = "LOINC";
+    String version = "2.40";
+    assertThat(
+        codeLookupService.retrieveCode(null, codeSystem, version, TEST_API_KEY).block(),
+        is(equalTo(null)));
+  }
+
+  @Test
+  void testRetrieveCodeWhenCodeSystemIsNull() {
+    String codeName = "1963-8";
+    String version = "2.40";
+    assertThat(
+        codeLookupService.retrieveCode(codeName, null, version, TEST_API_KEY).block(),
+        is(equalTo(null)));
+  }
+
+  @Test
+  void testRetrieveCodeWhenCodeSystemVersionIsNull() {
+    String codeName = "1963-8";
+    String codeSystem = "LOINC";
+    assertThat(
+        codeLookupService.retrieveCode(codeName, codeSystem, null, TEST_API_KEY).block(),
+        is(equalTo(null)));
+  }
+
+  @Test
+  void testRetrieveCodeWhenCodeSystemNotFound() {
+    String codeName = "1963-8";
+    String codeSystem = "LOINC";
+    String version = "2.40";
+    when(codeSystemCatalog.findByNameAndVersion(codeSystem, version))
+        .thenReturn(Optional.empty());
+    assertThat(
+        codeLookupService.retrieveCode(codeName, codeSystem, version, TEST_API_KEY).block(),
+        is(equalTo(null)));
+  }
+
+  @Test
+  void testRetrieveCodeSuccessfully() {
+    String codeName = "1963-8";
+    String codeSystemName = "LOINC";
+    String version = "2.40";
+    String codeJson =
+        "{\n"
+            + "  \"resourceType\": \"Parameters\",\n"
+            + "  \"parameter\": [ {\n"
+            + "    \"name\": \"name\",\n"
+            + "    \"valueString\": \"LOINC\"\n"
+            + "  }, {\n"
+            + "    \"name\": \"version\",\n"
+            + "    \"valueString\": \"2.40\"\n"
+            + "  }, {\n"
+            + "    \"name\": \"display\",\n"
+            + "    \"valueString\": \"Bicarbonate [Moles/volume] in Serum\"\n"
+            + "  }, {\n"
+            + "    \"name\": \"Oid\",\n"
+            + "    \"valueString\": \"2.16.840.1.113883.6.1\"\n"
+            + "  } ]\n"
+            + "}";
+    codeSystemEntries = new ArrayList<>();
+    CodeSystemEntry.Version versions = new CodeSystemEntry.Version();
+    versions.setVsac("2.40");
+    versions.setFhir("2.40");
+    var codeSystemEntry =
+        CodeSystemEntry.builder()
+            .name("1963-8")
+            .oid("urn:oid:2.16.840.1.113883.6.1")
+            .url("http://loinc.org")
+            .versions(List.of(versions))
+            .build();
+    codeSystemEntries.add(codeSystemEntry);
+
+    var codeSystem =
+        gov.cms.madie.terminology.models.CodeSystem.builder()
+            .fullUrl("http://loinc.org")
+            .title("LOINC")
+            .name("LOINC")
+            .version("2.40")
+            .versionId("2084800774")
+            .oid("urn:oid:2.16.840.1.113883.6.1")
+            .build();
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    when(codeSystemCatalog.findByNameAndVersion(anyString(), anyString()))
+        .thenReturn(Optional.of(codeSystem));
+    when(fhirTerminologyServiceWebClient.getCodeResourceMono(codeName, codeSystem, TEST_API_KEY))
+        .thenReturn(Mono.just(codeJson));
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    when(vsacService.getCodeStatus(any(Code.class), anyString()))
+        .thenReturn(Mono.just(CodeStatus.ACTIVE));
+    Code code =
+        codeLookupService
+            .retrieveCode(codeName, codeSystemName, version, TEST_API_KEY)
+            .block();
+    assertThat(code.getName(), is(equalTo(codeName)));
+    assertThat(code.getDisplay(), is(equalTo("Bicarbonate [Moles/volume] in Serum")));
+    assertThat(code.getCodeSystem(), is(equalTo(codeSystemName)));
+    assertThat(code.getFhirVersion(), is(equalTo(version)));
+    assertThat(code.getStatus(), is(equalTo(CodeStatus.ACTIVE)));
+  }
+
+  @Test
+  void testRetrieveCodesListSuccessfully() {
+    List<Map<String, String>> codeList =
+        List.of(
+            Map.of(
+                "code",
+                "1963-8",
+                "codeSystem",
+                "LOINC",
+                "oid",
+                "'urn:oid:2.16.840.1.113883.6.1'",
+                "versionIncluded",
+                "false"));
+
+    stubCodeRetrieval();
+    List<Code> code =
+        codeLookupService.retrieveCodesAndCodeSystems(codeList, TEST_API_KEY).block();
+    assertThat(code.get(0).getName(), is(equalTo("1963-8")));
+    assertThat(code.get(0).getDisplay(), is(equalTo("Bicarbonate [Moles/volume] in Serum")));
+    assertThat(code.get(0).getCodeSystem(), is(equalTo("LOINC")));
+    assertThat(code.get(0).getFhirVersion(), is(equalTo("2.40")));
+    assertThat(code.get(0).getStatus(), is(equalTo(CodeStatus.ACTIVE)));
+    assertThat(code.get(0).isVersionIncluded(), is(equalTo(false)));
+  }
+
+  @Test
+  void testRetrieveCodesListReadsCodeSystemsFromCatalogAndKeepsInputOrder() {
+    Map<String, String> bicarbonate =
+        Map.of("code", "1963-8", "codeSystem", "LOINC", "oid", "'urn:oid:2.16.840.1.113883.6.1'");
+    Map<String, String> unmappedCodeSystem =
+        Map.of("code", "1963-8", "codeSystem", "Unknown", "oid", "'urn:oid:1.2.3'");
+    Map<String, String> glucose =
+        Map.of("code", "2345-7", "codeSystem", "LOINC", "oid", "'urn:oid:2.16.840.1.113883.6.1'");
+
+    stubCodeRetrieval();
+    List<Code> codes =
+        codeLookupService
+            .retrieveCodesAndCodeSystems(
+                List.of(bicarbonate, unmappedCodeSystem, glucose), TEST_API_KEY)
+            .block();
+
+    assertThat(codes.size(), is(equalTo(3)));
+    assertThat(codes.get(0).getName(), is(equalTo("1963-8")));
+    assertThat(codes.get(1), is(equalTo(null)));
+    assertThat(codes.get(2).getName(), is(equalTo("2345-7")));
+    verify(codeSystemCatalog, times(2))
+        .findByOidAndVersion("urn:oid:2.16.840.1.113883.6.1", "2.40");
+    verify(fhirTerminologyServiceWebClient, times(2))
+        .getCodeResourceMono(anyString(), any(), any());
+  }
+
+  @Test
+  void testRetrieveCodesListRetrievesRepeatedCodeOnce() {
+    Map<String, String> codeDetails =
+        Map.of(
+            "code",
+            "1963-8",
+            "codeSystem",
+            "LOINC",
+            "oid",
+            "'urn:oid:2.16.840.1.113883.6.1'",
+            "versionIncluded",
+            "false");
+    Map<String, String> repeatWithVersion = new HashMap<>(codeDetails);
+    repeatWithVersion.put("versionIncluded", "true");
+
+    stubCodeRetrieval();
+    List<Code> codes =
+        codeLookupService
+            .retrieveCodesAndCodeSystems(List.of(codeDetails, repeatWithVersion), TEST_API_KEY)
+            .block();
+
+    assertThat(codes.size(), is(equalTo(2)));
+    assertThat(codes.get(0).getName(), is(equalTo("1963-8")));
+    assertThat(codes.get(0).isVersionIncluded(), is(equalTo(false)));
+    assertThat(codes.get(1).getName(), is(equalTo("1963-8")));
+    assertThat(codes.get(1).isVersionIncluded(), is(equalTo(true)));
+    verify(fhirTerminologyServiceWebClient, times(1))
+        .getCodeResourceMono(anyString(), any(), any());
+    verify(vsacService, times(1)).getCodeStatus(any(), anyString());
+    assertThat(
+        meterRegistry
+            .get("terminology.codes.lookups.saved")
+            .tag("operation", "retrieve-codes")
+            .counter()
+            .count(),
+        is(equalTo(1.0)));
+  }
+
+  @Test
+  void testRetrieveCodesRequestsLookupAndStatusConcurrently() {
+    Map<String, String> codeDetails =
+        Map.of(
+            "code",
+            "1963-8",
+            "codeSystem",
+            "LOINC",
+            "oid",
+            "'urn:oid:2.16.840.1.113883.6.1'",
+            "versionIncluded",
+            "false");
+    String codeJson = stubCodeSystemMapping();
+    // the $lookup only completes once the status has been requested, so it would never complete
+    // if the status were requested after it
+    Sinks.One<String> lookup = Sinks.one();
+    when(fhirTerminologyServiceWebClient.getCodeResourceMono(anyString(), any(), any()))
+        .thenReturn(lookup.asMono());
+    when(vsacService.getCodeStatus(any(), anyString()))
+        .thenReturn(
+            Mono.fromCallable(
+                () -> {
+                  lookup.tryEmitValue(codeJson);
+                  return CodeStatus.INACTIVE;
+                }));
+
+    List<Code> codes =
+        codeLookupService
+            .retrieveCodesAndCodeSystems(List.of(codeDetails), TEST_API_KEY)
+            .block(Duration.ofSeconds(5));
+
+    assertThat(codes.get(0).getDisplay(), is(equalTo("Bicarbonate [Moles/volume] in Serum")));
+    assertThat(codes.get(0).getCodeSystemOid(), is(equalTo("2.16.840.1.113883.6.1")));
+    assertThat(codes.get(0).getStatus(), is(equalTo(CodeStatus.INACTIVE)));
+  }
+
+  private void stubCodeRetrieval() {
+    String codeJson = stubCodeSystemMapping();
+    when(fhirTerminologyServiceWebClient.getCodeResourceMono(anyString(), any(), any()))
+        .thenReturn(Mono.just(codeJson));
+    when(vsacService.getCodeStatus(any(), anyString())).thenReturn(Mono.just(CodeStatus.ACTIVE));
+  }
+
+  /** @return $lookup response json for the mapped code */
+  private String stubCodeSystemMapping() {
+    String codeJson =
+        "{\n"
+            + "  \"resourceType\": \"Parameters\",\n"
+            + "  \"parameter\": [ {\n"
+            + "    \"name\": \"name\",\n"
+            + "    \"valueString\": \"LOINC\"\n"
+            + "  }, {\n"
+            + "    \"name\": \"version\",\n"
+            + "    \"valueString\": \"2.40\"\n"
+            + "  }, {\n"
+            + "    \"name\": \"display\",\n"
+            + "    \"valueString\": \"Bicarbonate [Moles/volume] in Serum\"\n"
+            + "  }, {\n"
+            + "    \"name\": \"Oid\",\n"
+            + "    \"valueString\": \"2.16.840.1.113883.6.1\"\n"
+            + "  } ]\n"
+            + "}";
+
+    codeSystemEntries = new ArrayList<>();
+    CodeSystemEntry.Version version = new CodeSystemEntry.Version();
+    version.setVsac("2.40");
+    version.setFhir("2.40");
+    var codeSystemEntry =
+        CodeSystemEntry.builder()
+            .name("8462-4")
+            .oid("urn:oid:2.16.840.1.113883.6.1")
+            .url("http://loinc.org")
+            .versions(List.of(version))
+            .build();
+    codeSystemEntries.add(codeSystemEntry);
+
+    gov.cms.madie.terminology.models.CodeSystem codeSystem =
+        gov.cms.madie.terminology.models.CodeSystem.builder()
+            .id("LOINC2.40")
+            .fullUrl("http://loinc.org")
+            .title("LOINC")
+            .name("LOINC")
+            .version("2.40")
+            .versionId("404676818")
+            .oid("urn:oid:2.16.840.1.113883.6.1")
+            .lastUpdated(Instant.parse("2024-04-30T20:18:48.706Z"))
+            .lastUpdatedUpstream(new Date("Fri Apr 01 00:00:00 EDT 2022"))
+            .build();
+
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    when(codeSystemCatalog.findByOidAndVersion("urn:oid:2.16.840.1.113883.6.1", "2.40"))
+        .thenReturn(Optional.of(codeSystem));
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    return codeJson;
+  }
+}
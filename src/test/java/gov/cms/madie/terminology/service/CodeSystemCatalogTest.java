@@ -0,0 +1,148 @@
+package gov.cms.madie.terminology.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.cms.madie.terminology.dto.SerializedCodeSystems;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemSyncStateRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CodeSystemCatalogTest {
+  private static final CodeSystem LOINC =
+      CodeSystem.builder()
+          .id("LOINC2.40")
+          .name("LOINC")
+          .version("2.40")
+          .oid("urn:oid:2.16.840.1.113883.6.1")
+          .build();
+  private static final CodeSystem SNOMED =
+      CodeSystem.builder()
+          .id("SNOMEDCT2024-03")
+          .name("SNOMEDCT")
+          .version("2024-03")
+          .oid("urn:oid:2.16.840.1.113883.6.96")
+          .build();
+
+  @Mock CodeSystemRepository codeSystemRepository;
+  @Mock CodeSystemSyncStateRepository codeSystemSyncStateRepository;
+  @Spy ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+  @InjectMocks CodeSystemCatalog codeSystemCatalog;
+
+  @Test
+  void catalogIsLoadedOnceOnFirstUse() {
+    when(codeSystemRepository.findAll()).thenReturn(List.of(LOINC, SNOMED));
+
+    assertEquals(List.of(LOINC, SNOMED), codeSystemCatalog.getAll());
+    assertEquals(Optional.of(SNOMED), codeSystemCatalog.findById("SNOMEDCT2024-03"));
+    assertEquals(Optional.of(LOINC), codeSystemCatalog.findByNameAndVersion("LOINC", "2.40"));
+    assertEquals(
+        Optional.of(SNOMED),
+        codeSystemCatalog.findByOidAndVersion("urn:oid:2.16.840.1.113883.6.96", "2024-03"));
+    assertTrue(codeSystemCatalog.findByNameAndVersion("LOINC", "2.41").isEmpty());
+    assertTrue(codeSystemCatalog.findByOidAndVersion(null, "2.40").isEmpty());
+
+    verify(codeSystemRepository, times(1)).findAll();
+  }
+
+  @Test
+  void reloadIfChangedWaitsForFirstUse() {
+    codeSystemCatalog.reloadIfChanged();
+
+    verifyNoInteractions(codeSystemRepository, codeSystemSyncStateRepository);
+  }
+
+  @Test
+  void reloadIfChangedReloadsWhenAnotherReplicaRefreshed() {
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(Optional.of(syncState(Instant.parse("2024-05-01T00:00:00Z"))))
+        .thenReturn(Optional.of(syncState(Instant.parse("2024-05-02T00:00:00Z"))));
+    when(codeSystemRepository.findAll()).thenReturn(List.of(LOINC)).thenReturn(List.of(SNOMED));
+    assertEquals(List.of(LOINC), codeSystemCatalog.getAll());
+
+    codeSystemCatalog.reloadIfChanged();
+
+    assertEquals(List.of(SNOMED), codeSystemCatalog.getAll());
+    assertTrue(codeSystemCatalog.findById("LOINC2.40").isEmpty());
+  }
+
+  @Test
+  void reloadIfChangedKeepsCatalogWhenNothingChanged() {
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(Optional.of(syncState(Instant.parse("2024-05-01T00:00:00Z"))));
+    when(codeSystemRepository.findAll()).thenReturn(List.of(LOINC));
+    codeSystemCatalog.getAll();
+
+    codeSystemCatalog.reloadIfChanged();
+
+    verify(codeSystemRepository, times(1)).findAll();
+  }
+
+  @Test
+  void reloadIfChangedKeepsCatalogWhenCheckFails() {
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(Optional.empty())
+        .thenThrow(new IllegalStateException("Mongo is unavailable"));
+    when(codeSystemRepository.findAll()).thenReturn(List.of(LOINC));
+    codeSystemCatalog.getAll();
+
+    codeSystemCatalog.reloadIfChanged();
+
+    assertEquals(List.of(LOINC), codeSystemCatalog.getAll());
+    verify(codeSystemRepository, times(1)).findAll();
+  }
+
+  @Test
+  void serializedCodeSystemsAreBuiltOncePerLoad() throws IOException {
+    when(codeSystemRepository.findAll())
+        .thenReturn(List.of(LOINC, SNOMED))
+        .thenReturn(List.of(LOINC));
+
+    SerializedCodeSystems serialized = codeSystemCatalog.getSerialized();
+
+    assertSame(serialized, codeSystemCatalog.getSerialized());
+    assertEquals(
+        List.of(LOINC, SNOMED),
+        objectMapper.readValue(serialized.getJson(), new TypeReference<List<CodeSystem>>() {}));
+    try (GZIPInputStream gunzip =
+        new GZIPInputStream(new ByteArrayInputStream(serialized.getGzippedJson()))) {
+      assertArrayEquals(serialized.getJson(), gunzip.readAllBytes());
+    }
+    assertEquals(64, serialized.getVersion().length());
+
+    codeSystemCatalog.reload();
+
+    assertNotEquals(serialized.getVersion(), codeSystemCatalog.getSerialized().getVersion());
+  }
+
+  private CodeSystemSyncState syncState(Instant catalogUpdated) {
+    return CodeSystemSyncState.builder()
+        .id(CodeSystemSyncState.CODE_SYSTEMS)
+        .catalogUpdated(catalogUpdated)
+        .build();
+  }
+}
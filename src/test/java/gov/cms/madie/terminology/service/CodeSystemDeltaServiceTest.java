@@ -0,0 +1,127 @@
+package gov.cms.madie.terminology.service;
+
+import gov.cms.madie.terminology.dto.CodeSystemDelta;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemTombstone;
+import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemTombstoneRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CodeSystemDeltaServiceTest {
+  private static final CodeSystem LOINC =
+      CodeSystem.builder().id("LOINC2.40").name("LOINC").version("2.40").build();
+
+  @Mock CodeSystemRepository codeSystemRepository;
+  @Mock CodeSystemTombstoneRepository codeSystemTombstoneRepository;
+  @InjectMocks CodeSystemDeltaService codeSystemDeltaService;
+
+  @BeforeEach
+  void setUp() {
+    ReflectionTestUtils.setField(codeSystemDeltaService, "settleTime", Duration.ofMinutes(1));
+    ReflectionTestUtils.setField(codeSystemDeltaService, "tombstoneRetention", Duration.ofDays(90));
+  }
+
+  @Test
+  void getChangesSinceSendsChangedAndDeletedCodeSystems() {
+    Instant since = Instant.now().minus(Duration.ofDays(1));
+    when(codeSystemRepository.findByLastUpdatedBetween(eq(since), any(Instant.class)))
+        .thenReturn(List.of(LOINC));
+    when(codeSystemTombstoneRepository.findByDeletedBetween(eq(since), any(Instant.class)))
+        .thenReturn(List.of(new CodeSystemTombstone("SNOMEDCT2024-03", since.plusSeconds(60))));
+
+    CodeSystemDelta delta = codeSystemDeltaService.getChangesSince(since);
+
+    assertFalse(delta.isFullSync());
+    assertEquals(List.of(LOINC), delta.getCodeSystems());
+    assertEquals(List.of("SNOMEDCT2024-03"), delta.getDeletedIds());
+    // changes younger than the settle time are left for the next sync
+    assertTrue(delta.getWatermark().isBefore(Instant.now().minus(Duration.ofSeconds(59))));
+    assertTrue(delta.getWatermark().isAfter(since));
+  }
+
+  @Test
+  void getChangesSinceKeepsWatermarkNewerThanSettledChanges() {
+    Instant since = Instant.now();
+    when(codeSystemRepository.findByLastUpdatedBetween(eq(since), any(Instant.class)))
+        .thenReturn(List.of());
+    when(codeSystemTombstoneRepository.findByDeletedBetween(eq(since), any(Instant.class)))
+        .thenReturn(List.of());
+
+    CodeSystemDelta delta = codeSystemDeltaService.getChangesSince(since);
+
+    assertEquals(since, delta.getWatermark());
+  }
+
+  @Test
+  void getChangesSinceSendsAllCodeSystemsWithoutWatermark() {
+    when(codeSystemRepository.findByLastUpdatedUpTo(any(Instant.class))).thenReturn(List.of(LOINC));
+
+    CodeSystemDelta delta = codeSystemDeltaService.getChangesSince(null);
+
+    assertTrue(delta.isFullSync());
+    assertEquals(List.of(LOINC), delta.getCodeSystems());
+    assertTrue(delta.getDeletedIds().isEmpty());
+    verify(codeSystemTombstoneRepository, never()).findByDeletedBetween(any(), any());
+  }
+
+  @Test
+  void getChangesSinceSendsAllCodeSystemsWhenTombstonesExpired() {
+    when(codeSystemRepository.findByLastUpdatedUpTo(any(Instant.class))).thenReturn(List.of(LOINC));
+
+    CodeSystemDelta delta =
+        codeSystemDeltaService.getChangesSince(Instant.now().minus(Duration.ofDays(91)));
+
+    assertTrue(delta.isFullSync());
+    verify(codeSystemTombstoneRepository, never()).findByDeletedBetween(any(), any());
+  }
+
+  @Test
+  void deleteCodeSystemsNotSeenSinceRecordsTombstones() {
+    Instant sweepStartedAt = Instant.now().minus(Duration.ofMinutes(5));
+    when(codeSystemRepository.findIdsByLastSeenBefore(sweepStartedAt))
+        .thenReturn(List.of(CodeSystem.builder().id("cs1").build()));
+    when(codeSystemRepository.deleteByLastSeenBefore(sweepStartedAt)).thenReturn(1L);
+
+    long deleted = codeSystemDeltaService.deleteCodeSystemsNotSeenSince(sweepStartedAt);
+
+    assertEquals(1, deleted);
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<CodeSystemTombstone>> tombstones = ArgumentCaptor.forClass(List.class);
+    verify(codeSystemTombstoneRepository).saveAll(tombstones.capture());
+    assertEquals(1, tombstones.getValue().size());
+    assertEquals("cs1", tombstones.getValue().get(0).getId());
+    assertTrue(tombstones.getValue().get(0).getDeleted().isAfter(sweepStartedAt));
+    verify(codeSystemTombstoneRepository).deleteByDeletedBefore(any(Instant.class));
+  }
+
+  @Test
+  void deleteCodeSystemsNotSeenSinceWithNothingToDelete() {
+    Instant sweepStartedAt = Instant.now();
+    when(codeSystemRepository.findIdsByLastSeenBefore(sweepStartedAt)).thenReturn(List.of());
+
+    assertEquals(0, codeSystemDeltaService.deleteCodeSystemsNotSeenSince(sweepStartedAt));
+    verify(codeSystemTombstoneRepository).saveAll(anyList());
+  }
+}
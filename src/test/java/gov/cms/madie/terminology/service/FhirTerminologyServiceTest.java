@@ -3,13 +3,16 @@ package gov.cms.madie.terminology.service;
 import ca.uhn.fhir.context.FhirContext;
 import gov.cms.madie.models.mapping.CodeSystemEntry;
 import gov.cms.madie.models.measure.ManifestExpansion;
-import gov.cms.madie.terminology.dto.Code;
-import gov.cms.madie.terminology.dto.CodeStatus;
+import gov.cms.madie.terminology.dto.CodeSystemDelta;
+import gov.cms.madie.terminology.dto.CodeSystemUpsertResult;
 import gov.cms.madie.terminology.dto.QdmValueSet;
 import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
 import gov.cms.madie.terminology.helpers.TestHelpers;
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemSyncStateRepository;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
 import gov.cms.madie.terminology.webclient.FhirTerminologyServiceWebClient;
 import org.apache.commons.io.FileUtils;
 import org.hl7.fhir.r4.model.Bundle;
@@ -20,14 +23,15 @@ import org.hl7.fhir.r4.model.Meta;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
 
-import static org.hamcrest.CoreMatchers.equalTo;
-import static org.hamcrest.CoreMatchers.is;
-import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
 
@@ -36,8 +40,10 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
@@ -49,7 +55,11 @@ class FhirTerminologyServiceTest {
   @Mock FhirContext fhirContext;
   @Mock MappingService mappingService;
   @Mock CodeSystemRepository codeSystemRepository;
-  @Mock VsacService vsacService;
+  @Mock ValueSetExpansionCache valueSetExpansionCache;
+  @Mock CodeSystemSyncStateRepository codeSystemSyncStateRepository;
+  @Mock CodeSystemCatalog codeSystemCatalog;
+  @Mock QdmDisplayVersionService qdmDisplayVersionService;
+  @Mock CodeSystemDeltaService codeSystemDeltaService;
   @InjectMocks FhirTerminologyService fhirTerminologyService;
 
   List<CodeSystemEntry> codeSystemEntries;
@@ -124,6 +134,11 @@ class FhirTerminologyServiceTest {
   @BeforeEach
   public void setUp() throws IOException {
     umlsUser = UmlsUser.builder().apiKey(TEST_API_KEY).harpId(TEST_HARP_ID).build();
+    ReflectionTestUtils.setField(fhirTerminologyService, "valueSetConcurrency", 4);
+    ReflectionTestUtils.setField(fhirTerminologyService, "expansionPageConcurrency", 4);
+    ReflectionTestUtils.setField(fhirTerminologyService, "fullSweepInterval", Duration.ofDays(7));
+    ReflectionTestUtils.setField(fhirTerminologyService, "codeSystemPageSize", 1000);
+    ReflectionTestUtils.setField(fhirTerminologyService, "codeSystemPageConcurrency", 4);
     File fileWithCodes =
         TestHelpers.getTestResourceFile("/value-sets/value_set_with_expansion_codes.json");
     File fileWithNoCodes =
@@ -150,9 +165,9 @@ class FhirTerminologyServiceTest {
   @Test
   void getManifests() {
     when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
-    when(fhirTerminologyServiceWebClient.getManifestBundle(anyString()))
-        .thenReturn(mockManifestResource);
-    var result = fhirTerminologyService.getManifests(umlsUser);
+    when(fhirTerminologyServiceWebClient.getManifestBundleMono(anyString()))
+        .thenReturn(Mono.just(mockManifestResource));
+    var result = fhirTerminologyService.getManifests(umlsUser).block();
     assertEquals(2, result.size());
     assertEquals("ecqm-update-4q2017-eh", result.get(0).getId());
     assertEquals(
@@ -179,13 +194,17 @@ class FhirTerminologyServiceTest {
                     .id("ecqm-update-2022-05-05")
                     .build())
             .build();
-    when(fhirTerminologyServiceWebClient.getValueSetResource(
+    when(fhirTerminologyServiceWebClient.getValueSetResourceMono(
             anyString(), any(), anyString(), anyString(), any()))
-        .thenReturn(mockValueSetResourceWithCodes);
+        .thenReturn(Mono.just(mockValueSetResourceWithCodes));
     when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    passThroughExpansionCache();
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<QdmValueSet> result =
-        fhirTerminologyService.getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser);
+        fhirTerminologyService
+            .getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser)
+            .block();
     assertEquals(1, result.size());
     assertEquals("2.16.840.1.113883.3.464.1003.113.11.1090", result.get(0).getOid());
     assertEquals("20180310", result.get(0).getVersion());
@@ -198,6 +217,119 @@ class FhirTerminologyServiceTest {
     assertEquals("2022-05", result.get(0).getConcepts().get(1).getCodeSystemVersion());
   }
 
+  @Test
+  void getValueSetsExpansionsForQdmRequestsRemainingPagesAndMergesThemInOffsetOrder() {
+    var valueSetsSearchCriteria =
+        ValueSetsSearchCriteria.builder()
+            .valueSetParams(
+                List.of(
+                    ValueSetsSearchCriteria.ValueSetParams.builder()
+                        .oid("2.16.840.1.113883.3.464.1003.113.11.1090")
+                        .build()))
+            .profile("test-profile")
+            .includeDraft("false")
+            .build();
+    String firstPage = mockValueSetResourceWithCodes.replace("\"total\": 10", "\"total\": 2500");
+    String secondPage = firstPage.replace("\"code\": \"M45.", "\"code\": \"P1.");
+    String thirdPage = firstPage.replace("\"code\": \"M45.", "\"code\": \"P2.");
+    when(fhirTerminologyServiceWebClient.getValueSetResourceMono(
+            anyString(), any(), anyString(), anyString(), any()))
+        .thenAnswer(
+            invocation -> {
+              ValueSetsSearchCriteria.ValueSetParams page = invocation.getArgument(1);
+              return switch (page.getOffset()) {
+                case 0 -> Mono.just(firstPage);
+                  // the second page completes last, it must still be merged second
+                case 1000 -> Mono.just(secondPage).delayElement(Duration.ofMillis(50));
+                case 2000 -> Mono.just(thirdPage);
+                default -> Mono.error(new IllegalStateException("unexpected offset"));
+              };
+            });
+    when(fhirContext.newJsonParser()).thenAnswer(invocation -> FhirContext.forR4().newJsonParser());
+    passThroughExpansionCache();
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+
+    List<QdmValueSet> result =
+        fhirTerminologyService
+            .getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser)
+            .block();
+
+    assertEquals(1, result.size());
+    List<QdmValueSet.Concept> concepts = result.get(0).getConcepts();
+    assertEquals(30, concepts.size());
+    assertEquals("M45.0", concepts.get(0).getCode());
+    assertEquals("P1.0", concepts.get(10).getCode());
+    assertEquals("P2.0", concepts.get(20).getCode());
+    verify(fhirTerminologyServiceWebClient, times(3))
+        .getValueSetResourceMono(anyString(), any(), anyString(), anyString(), any());
+  }
+
+  @Test
+  void getValueSetsExpansionsForQdmReportsFailedValueSetInInputOrder() {
+    String failingOid = "2.16.840.1.113883.3.464.1003.113.11.9999";
+    var valueSetsSearchCriteria =
+        ValueSetsSearchCriteria.builder()
+            .valueSetParams(
+                List.of(
+                    ValueSetsSearchCriteria.ValueSetParams.builder().oid(failingOid).build(),
+                    ValueSetsSearchCriteria.ValueSetParams.builder()
+                        .oid("2.16.840.1.113883.3.464.1003.113.11.1090")
+                        .build()))
+            .profile("test-profile")
+            .includeDraft("false")
+            .build();
+    when(fhirTerminologyServiceWebClient.getValueSetResourceMono(
+            anyString(), any(), anyString(), anyString(), any()))
+        .thenAnswer(
+            invocation -> {
+              ValueSetsSearchCriteria.ValueSetParams vsParam = invocation.getArgument(1);
+              return failingOid.equals(vsParam.getOid())
+                  ? Mono.error(new IllegalStateException("VSAC unavailable"))
+                  : Mono.just(mockValueSetResourceWithCodes);
+            });
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    passThroughExpansionCache();
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+
+    List<QdmValueSet> result =
+        fhirTerminologyService
+            .getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser)
+            .block();
+
+    assertEquals(2, result.size());
+    assertEquals(failingOid, result.get(0).getOid());
+    assertTrue(result.get(0).getError().contains("VSAC unavailable"));
+    assertEquals("2.16.840.1.113883.3.464.1003.113.11.1090", result.get(1).getOid());
+    assertEquals(10, result.get(1).getConcepts().size());
+    assertNull(result.get(1).getError());
+  }
+
+  @Test
+  void getValueSetsExpansionsForQdmFailsWhenAllValueSetsFail() {
+    var valueSetsSearchCriteria =
+        ValueSetsSearchCriteria.builder()
+            .valueSetParams(
+                List.of(
+                    ValueSetsSearchCriteria.ValueSetParams.builder()
+                        .oid("2.16.840.1.113883.3.464.1003.113.11.1090")
+                        .build()))
+            .profile("test-profile")
+            .includeDraft("false")
+            .build();
+    when(fhirTerminologyServiceWebClient.getValueSetResourceMono(
+            anyString(), any(), anyString(), anyString(), any()))
+        .thenReturn(Mono.error(new IllegalStateException("VSAC unavailable")));
+    passThroughExpansionCache();
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+
+    Mono<List<QdmValueSet>> result =
+        fhirTerminologyService.getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser);
+    assertThrows(IllegalStateException.class, result::block);
+  }
+
   @Test
   void getsValueSetsExpansionsForQdm_withNoCodes_When_ManifestExpansionIsProvided() {
     var valueSetsSearchCriteria =
@@ -216,16 +348,20 @@ class FhirTerminologyServiceTest {
                     .build())
             .build();
     when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
-    when(fhirTerminologyServiceWebClient.getValueSetResource(
+    when(fhirTerminologyServiceWebClient.getValueSetResourceMono(
             anyString(),
             any(ValueSetsSearchCriteria.ValueSetParams.class),
             anyString(),
             anyString(),
             any(ManifestExpansion.class)))
-        .thenReturn(mockValueSetResourceWithNoCodes);
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+        .thenReturn(Mono.just(mockValueSetResourceWithNoCodes));
+    passThroughExpansionCache();
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<QdmValueSet> result =
-        fhirTerminologyService.getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser);
+        fhirTerminologyService
+            .getValueSetsExpansionsForQdm(valueSetsSearchCriteria, umlsUser)
+            .block();
     assertEquals(1, result.size());
     assertEquals("2.16.840.1.113883.3.464.1003.113.11.1090", result.get(0).getOid());
     assertEquals("20180310", result.get(0).getVersion());
@@ -274,15 +410,24 @@ class FhirTerminologyServiceTest {
             .setFullUrl("http://terminology.hl7.org/CodeSystem/v3-ObservationInterpretation")
             .setResource(c2);
     bundle.addEntry(t);
-    when(fhirTerminologyServiceWebClient.getCodeSystemsPage(anyInt(), anyInt(), anyString()))
-        .thenReturn(mockCodeSystemsResource);
-    when(codeSystemRepository.findById(anyString())).thenReturn(Optional.empty());
-
-    List<gov.cms.madie.terminology.models.CodeSystem> result =
-        fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
-    assertEquals(2, result.size());
-    assertEquals(result.get(1).getFullUrl(), t.getFullUrl());
-    verify(codeSystemRepository, times(2))
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().inserted(2).build());
+    when(qdmDisplayVersionService.resolve(anyString(), anyString(), any()))
+        .thenAnswer(invocation -> "qdm-" + invocation.getArgument(1));
+
+    CodeSystemRefreshResult result = fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+    assertEquals(2, result.getRetrieved());
+    assertEquals(2, result.getInserted());
+    ArgumentCaptor<List<gov.cms.madie.terminology.models.CodeSystem>> upserted =
+        ArgumentCaptor.forClass(List.class);
+    verify(codeSystemRepository, times(1)).upsertAll(upserted.capture());
+    assertEquals(2, upserted.getValue().size());
+    assertEquals(upserted.getValue().get(1).getFullUrl(), t.getFullUrl());
+    assertEquals("qdm-2019-03-01", upserted.getValue().get(0).getQdmDisplayVersion());
+    verify(codeSystemRepository, never())
         .save(any(gov.cms.madie.terminology.models.CodeSystem.class));
   }
 
@@ -307,244 +452,157 @@ class FhirTerminologyServiceTest {
     c1.setIdentifier(identifierList);
     bundle.addEntry().setResource(c1);
 
-    when(fhirTerminologyServiceWebClient.getCodeSystemsPage(anyInt(), anyInt(), anyString()))
-        .thenReturn(mockCodeSystemsResource);
-    var existingCodeSystem =
-        gov.cms.madie.terminology.models.CodeSystem.builder()
-            .id("titleversion")
-            .title("title")
-            .name("name1")
-            .version("version")
-            .versionId("vid")
-            .oid("codeUrl")
-            .lastUpdated(Instant.now())
-            .lastUpdatedUpstream(new Date())
-            .build();
-
-    when(codeSystemRepository.findById(anyString()))
-        .thenReturn(Optional.ofNullable(existingCodeSystem));
-
-    List<gov.cms.madie.terminology.models.CodeSystem> result =
-        fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
-    verify(codeSystemRepository, times(2))
-        .save(any(gov.cms.madie.terminology.models.CodeSystem.class));
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().modified(1).unchanged(1).build());
+
+    CodeSystemRefreshResult result = fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+    assertEquals(1, result.getModified());
+    assertEquals(1, result.getUnchanged());
+    verify(codeSystemRepository, times(1)).upsertAll(anyList());
+    verify(codeSystemRepository, never()).findById(anyString());
   }
 
   @Test
-  void testGetAllCodeSystems() {
-    var c1 = new gov.cms.madie.terminology.models.CodeSystem();
-    c1.setTitle("t1");
-    c1.setOid("fakeoid1");
-    c1.setVersion("1.0");
-    var c2 = new gov.cms.madie.terminology.models.CodeSystem();
-    c2.setTitle("t2");
-    c2.setOid("fakeoid2");
-    c2.setVersion("2.0");
-    var c3 = new gov.cms.madie.terminology.models.CodeSystem();
-    c3.setTitle("t3");
-    c3.setOid("fakeoid3");
-    c3.setVersion("2024");
-
-    CodeSystemEntry.Version cv1 =
-        new CodeSystemEntry.Version().toBuilder().fhir("1.0").vsac("1").build();
-    CodeSystemEntry.Version cv2 =
-        new CodeSystemEntry.Version().toBuilder().fhir("2.0").vsac("2").build();
-    CodeSystemEntry.Version cv3 = new CodeSystemEntry.Version().toBuilder().fhir("latest").build();
-    var ce1 = new CodeSystemEntry().toBuilder().versions(List.of(cv1)).oid("fakeoid1").build();
-    var ce2 = new CodeSystemEntry().toBuilder().versions(List.of(cv2)).oid("fakeoid2").build();
-    var ce3 = new CodeSystemEntry().toBuilder().versions(List.of(cv3)).oid("NOT.IN.VSAC").build();
-
-    List<CodeSystemEntry> codeSystemEntries = Arrays.asList(ce1, ce2, ce3);
-    List<gov.cms.madie.terminology.models.CodeSystem> codeSystems = Arrays.asList(c1, c2, c3);
-    when(mappingService.getCodeSystemEntries()).thenAnswer(invocation -> codeSystemEntries);
-    when(codeSystemRepository.findAll()).thenAnswer(invocation -> codeSystems);
-    List<gov.cms.madie.terminology.models.CodeSystem> result =
-        fhirTerminologyService.getAllCodeSystems();
-
-    verify(codeSystemRepository).findAll();
-    assertEquals(3, result.size());
-    assertEquals("t1", result.get(0).getTitle());
-    assertEquals("1", result.get(0).getQdmDisplayVersion());
-
-    assertEquals("t2", result.get(1).getTitle());
-    assertEquals("2", result.get(1).getQdmDisplayVersion());
-
-    // Verify FHIR only Code Systems appear in the result set
-    assertEquals("t3", result.get(2).getTitle());
-    assertEquals("2024", result.get(2).getVersion());
-    assertNull(result.get(2).getQdmDisplayVersion());
+  void testRetrieveAllCodeSystemsRequestsRemainingPagesOnceTotalIsKnown() {
+    ReflectionTestUtils.setField(fhirTerminologyService, "codeSystemPageSize", 500);
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().inserted(2).build());
+
+    CodeSystemRefreshResult result = fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+
+    // the first page reports a total of 831 code systems
+    verify(fhirTerminologyServiceWebClient).getCodeSystemsPageMono(0, 500, null, TEST_API_KEY);
+    verify(fhirTerminologyServiceWebClient).getCodeSystemsPageMono(500, 500, null, TEST_API_KEY);
+    verify(codeSystemRepository, times(2)).upsertAll(anyList());
+    assertEquals(4, result.getRetrieved());
+    assertEquals(4, result.getInserted());
+    assertTrue(result.isFullSweep());
   }
 
   @Test
-  void testRetrieveCodeWhenCodeIsNull() {
-    String codeSystem = "LOINC";
-    String version = "2.40";
-    assertThat(
-        fhirTerminologyService.retrieveCode(null, codeSystem, version, TEST_API_KEY),
-        is(equalTo(null)));
+  void testRetrieveAllCodeSystemsFullSweepDeletesCodeSystemsNoLongerInVsac() {
+    umlsUser = UmlsUser.builder().apiKey(TEST_API_KEY).harpId(TEST_HARP_ID).build();
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(
+            Optional.of(
+                CodeSystemSyncState.builder()
+                    .id(CodeSystemSyncState.CODE_SYSTEMS)
+                    .lastFullSweep(Instant.now().minus(Duration.ofDays(8)))
+                    .build()));
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource.replace("\"total\":831", "\"total\":2")));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().unchanged(2).build());
+    when(codeSystemDeltaService.deleteCodeSystemsNotSeenSince(any(Instant.class))).thenReturn(3L);
+
+    fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+
+    verify(codeSystemDeltaService, times(1)).deleteCodeSystemsNotSeenSince(any(Instant.class));
+    verify(codeSystemSyncStateRepository)
+        .saveRefresh(
+            any(Instant.class),
+            eq(true),
+            eq(Instant.parse("2020-01-16T05:00:00Z")),
+            any(Instant.class));
+    verify(codeSystemCatalog).reload();
   }
 
   @Test
-  void testRetrieveCodeWhenCodeSystemIsNull() {
-    String codeName = "1963-8";
-    String version = "2.40";
-    assertThat(
-        fhirTerminologyService.retrieveCode(codeName, null, version, TEST_API_KEY),
-        is(equalTo(null)));
+  void testRetrieveAllCodeSystemsTruncatedFullSweepDeletesNothing() {
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    // the only page reports a total of 831 code systems, but holds 2 and links no next page
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().unchanged(2).build());
+
+    CodeSystemRefreshResult result = fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+
+    assertEquals(0, result.getDeleted());
+    verify(codeSystemDeltaService, never()).deleteCodeSystemsNotSeenSince(any(Instant.class));
   }
 
   @Test
-  void testRetrieveCodeWhenCodeSystemVersionIsNull() {
-    String codeName = "1963-8";
-    String codeSystem = "LOINC";
-    assertThat(
-        fhirTerminologyService.retrieveCode(codeName, codeSystem, null, TEST_API_KEY),
-        is(equalTo(null)));
+  void testRetrieveAllCodeSystemsWithoutTotalDeletesNothingIfFewerThanStored() {
+    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource.replace("\"total\":831,", "")));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().unchanged(2).build());
+    when(codeSystemRepository.count()).thenReturn(3L);
+
+    fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+
+    verify(codeSystemDeltaService, never()).deleteCodeSystemsNotSeenSince(any(Instant.class));
   }
 
   @Test
-  void testRetrieveCodeWhenCodeSystemNotFound() {
-    String codeName = "1963-8";
-    String codeSystem = "LOINC";
-    String version = "2.40";
-    when(codeSystemRepository.findByNameAndVersion(codeSystem, version))
-        .thenReturn(Optional.empty());
-    assertThat(
-        fhirTerminologyService.retrieveCode(codeName, codeSystem, version, TEST_API_KEY),
-        is(equalTo(null)));
+  void testRetrieveAllCodeSystemsFailedRefreshKeepsSyncState() {
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), isNull(), anyString()))
+        .thenReturn(Mono.error(new IllegalStateException("VSAC unavailable")));
+
+    assertThrows(
+        IllegalStateException.class, () -> fhirTerminologyService.retrieveAllCodeSystems(umlsUser));
+
+    // neither the watermark nor the last full sweep advance past code systems never stored
+    verify(codeSystemSyncStateRepository, never())
+        .saveRefresh(any(), anyBoolean(), any(), any());
+    verify(codeSystemDeltaService, never()).deleteCodeSystemsNotSeenSince(any(Instant.class));
   }
 
   @Test
-  void testRetrieveCodeSuccessfully() {
-    String codeName = "1963-8";
-    String codeSystemName = "LOINC";
-    String version = "2.40";
-    String codeJson =
-        "{\n"
-            + "  \"resourceType\": \"Parameters\",\n"
-            + "  \"parameter\": [ {\n"
-            + "    \"name\": \"name\",\n"
-            + "    \"valueString\": \"LOINC\"\n"
-            + "  }, {\n"
-            + "    \"name\": \"version\",\n"
-            + "    \"valueString\": \"2.40\"\n"
-            + "  }, {\n"
-            + "    \"name\": \"display\",\n"
-            + "    \"valueString\": \"Bicarbonate [Moles/volume] in Serum\"\n"
-            + "  }, {\n"
-            + "    \"name\": \"Oid\",\n"
-            + "    \"valueString\": \"2.16.840.1.113883.6.1\"\n"
-            + "  } ]\n"
-            + "}";
-    codeSystemEntries = new ArrayList<>();
-    CodeSystemEntry.Version versions = new CodeSystemEntry.Version();
-    versions.setVsac("2.40");
-    versions.setFhir("2.40");
-    var codeSystemEntry =
-        CodeSystemEntry.builder()
-            .name("1963-8")
-            .oid("urn:oid:2.16.840.1.113883.6.1")
-            .url("http://loinc.org")
-            .versions(List.of(versions))
-            .build();
-    codeSystemEntries.add(codeSystemEntry);
-
-    var codeSystem =
-        gov.cms.madie.terminology.models.CodeSystem.builder()
-            .fullUrl("http://loinc.org")
-            .title("LOINC")
-            .name("LOINC")
-            .version("2.40")
-            .versionId("2084800774")
-            .oid("urn:oid:2.16.840.1.113883.6.1")
-            .build();
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
-    when(codeSystemRepository.findByNameAndVersion(anyString(), anyString()))
-        .thenReturn(Optional.of(codeSystem));
-    when(fhirTerminologyServiceWebClient.getCodeResource(codeName, codeSystem, TEST_API_KEY))
-        .thenReturn(codeJson);
+  void testRetrieveAllCodeSystemsIncrementalRequestsCodeSystemsUpdatedSinceWatermark() {
+    umlsUser = UmlsUser.builder().apiKey(TEST_API_KEY).harpId(TEST_HARP_ID).build();
     when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
-    when(vsacService.getCodeStatus(any(Code.class), anyString())).thenReturn(CodeStatus.ACTIVE);
-    Code code =
-        fhirTerminologyService.retrieveCode(codeName, codeSystemName, version, TEST_API_KEY);
-    assertThat(code.getName(), is(equalTo(codeName)));
-    assertThat(code.getDisplay(), is(equalTo("Bicarbonate [Moles/volume] in Serum")));
-    assertThat(code.getCodeSystem(), is(equalTo(codeSystemName)));
-    assertThat(code.getFhirVersion(), is(equalTo(version)));
-    assertThat(code.getStatus(), is(equalTo(CodeStatus.ACTIVE)));
+    Instant lastFullSweep = Instant.now().minus(Duration.ofDays(1));
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(
+            Optional.of(
+                CodeSystemSyncState.builder()
+                    .id(CodeSystemSyncState.CODE_SYSTEMS)
+                    .lastFullSweep(lastFullSweep)
+                    .upstreamWatermark(Instant.parse("2019-06-01T00:00:00Z"))
+                    .build()));
+    when(fhirTerminologyServiceWebClient.getCodeSystemsPageMono(
+            anyInt(), anyInt(), eq(Instant.parse("2019-06-01T00:00:00Z")), anyString()))
+        .thenReturn(Mono.just(mockCodeSystemsResource));
+    when(codeSystemRepository.upsertAll(anyList()))
+        .thenReturn(CodeSystemUpsertResult.builder().modified(2).build());
+
+    fhirTerminologyService.retrieveAllCodeSystems(umlsUser);
+
+    verify(codeSystemDeltaService, never()).deleteCodeSystemsNotSeenSince(any(Instant.class));
+    verify(codeSystemSyncStateRepository)
+        .saveRefresh(
+            any(Instant.class),
+            eq(false),
+            eq(Instant.parse("2020-01-16T05:00:00Z")),
+            any(Instant.class));
   }
 
   @Test
-  void testRetrieveCodesListSuccessfully() {
-    List<Map<String, String>> codeList =
-        List.of(
-            Map.of(
-                "code",
-                "1963-8",
-                "codeSystem",
-                "LOINC",
-                "oid",
-                "'urn:oid:2.16.840.1.113883.6.1'",
-                "versionIncluded",
-                "false"));
-
-    String codeJson =
-        "{\n"
-            + "  \"resourceType\": \"Parameters\",\n"
-            + "  \"parameter\": [ {\n"
-            + "    \"name\": \"name\",\n"
-            + "    \"valueString\": \"LOINC\"\n"
-            + "  }, {\n"
-            + "    \"name\": \"version\",\n"
-            + "    \"valueString\": \"2.40\"\n"
-            + "  }, {\n"
-            + "    \"name\": \"display\",\n"
-            + "    \"valueString\": \"Bicarbonate [Moles/volume] in Serum\"\n"
-            + "  }, {\n"
-            + "    \"name\": \"Oid\",\n"
-            + "    \"valueString\": \"2.16.840.1.113883.6.1\"\n"
-            + "  } ]\n"
-            + "}";
+  void testGetCodeSystemChangesSinceDelegatesToDeltaService() {
+    Instant since = Instant.parse("2024-05-01T00:00:00Z");
+    CodeSystemDelta delta = CodeSystemDelta.builder().watermark(since).build();
+    when(codeSystemDeltaService.getChangesSince(since)).thenReturn(delta);
 
-    codeSystemEntries = new ArrayList<>();
-    CodeSystemEntry.Version version = new CodeSystemEntry.Version();
-    version.setVsac("2.40");
-    version.setFhir("2.40");
-    var codeSystemEntry =
-        CodeSystemEntry.builder()
-            .name("8462-4")
-            .oid("urn:oid:2.16.840.1.113883.6.1")
-            .url("http://loinc.org")
-            .versions(List.of(version))
-            .build();
-    codeSystemEntries.add(codeSystemEntry);
-
-    gov.cms.madie.terminology.models.CodeSystem codeSystem =
-        gov.cms.madie.terminology.models.CodeSystem.builder()
-            .id("LOINC2.40")
-            .fullUrl("http://loinc.org")
-            .title("LOINC")
-            .name("LOINC")
-            .version("2.40")
-            .versionId("404676818")
-            .oid("urn:oid:2.16.840.1.113883.6.1")
-            .lastUpdated(Instant.parse("2024-04-30T20:18:48.706Z"))
-            .lastUpdatedUpstream(new Date("Fri Apr 01 00:00:00 EDT 2022"))
-            .build();
+    assertSame(delta, fhirTerminologyService.getCodeSystemChangesSince(since));
+  }
 
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
-    when(codeSystemRepository.findByOidAndVersion(anyString(), anyString()))
-        .thenReturn(Optional.ofNullable(codeSystem));
-    when(fhirTerminologyServiceWebClient.getCodeResource(anyString(), any(), any()))
-        .thenReturn(codeJson);
-    when(fhirContext.newJsonParser()).thenReturn(FhirContext.forR4().newJsonParser());
-    when(vsacService.getCodeStatus(any(), anyString())).thenReturn(CodeStatus.ACTIVE);
-    List<Code> code = fhirTerminologyService.retrieveCodesAndCodeSystems(codeList, TEST_API_KEY);
-    assertThat(code.get(0).getName(), is(equalTo("1963-8")));
-    assertThat(code.get(0).getDisplay(), is(equalTo("Bicarbonate [Moles/volume] in Serum")));
-    assertThat(code.get(0).getCodeSystem(), is(equalTo("LOINC")));
-    assertThat(code.get(0).getFhirVersion(), is(equalTo("2.40")));
-    assertThat(code.get(0).getStatus(), is(equalTo(CodeStatus.ACTIVE)));
-    assertThat(code.get(0).isVersionIncluded(), is(equalTo(false)));
+  private void passThroughExpansionCache() {
+    when(valueSetExpansionCache.getOrExpand(any(), any(), any()))
+        .thenAnswer(invocation -> invocation.<Supplier<Mono<QdmValueSet>>>getArgument(2).get());
   }
 }
@@ -4,20 +4,34 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.okta.commons.lang.Collections;
 import gov.cms.madie.models.mapping.CodeSystemEntry;
 
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
-import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 
 @ExtendWith(MockitoExtension.class)
@@ -27,11 +41,20 @@ class MappingServiceTest {
 
   @InjectMocks MappingService mappingService;
 
+  @TempDir Path tempDir;
+
+  Path mappingFile;
+
   CodeSystemEntry[] codeSystemEntries;
 
   @BeforeEach
-  public void setup() {
-    ReflectionTestUtils.setField(mappingService, "codeSystemEntryUrl", "https://Codesystem.com");
+  public void setup() throws IOException {
+    mappingFile = tempDir.resolve("code-system-entry.json");
+    Files.writeString(mappingFile, "[{\"name\":\"ActPriority\"}]");
+    ReflectionTestUtils.setField(
+        mappingService, "codeSystemEntryUrl", mappingFile.toUri().toString());
+    ReflectionTestUtils.setField(mappingService, "connectTimeout", Duration.ofSeconds(5));
+    ReflectionTestUtils.setField(mappingService, "readTimeout", Duration.ofSeconds(30));
 
     codeSystemEntries = new CodeSystemEntry[1];
     CodeSystemEntry.Version version = new CodeSystemEntry.Version();
@@ -48,10 +71,163 @@ class MappingServiceTest {
   }
 
   @Test
-  void getCodeSystemEntries() throws IOException {
-    when(objectMapper.readValue(any(URL.class), eq(CodeSystemEntry[].class)))
+  void getCodeSystemEntryIndex() throws IOException {
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
         .thenReturn(codeSystemEntries);
-    List<CodeSystemEntry> response = mappingService.getCodeSystemEntries();
+    List<CodeSystemEntry> response = mappingService.getCodeSystemEntryIndex().getEntries();
     assertFalse(response.isEmpty());
   }
+
+  @Test
+  void getCodeSystemEntryIndexIsServedFromMemoryAfterFirstLoad() throws IOException {
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+    List<CodeSystemEntry> first = mappingService.getCodeSystemEntryIndex().getEntries();
+    List<CodeSystemEntry> second = mappingService.getCodeSystemEntryIndex().getEntries();
+    assertSame(first, second);
+    verify(objectMapper, times(1)).readValue(any(byte[].class), eq(CodeSystemEntry[].class));
+  }
+
+  @Test
+  void refreshCodeSystemEntriesSwapsSnapshot() throws IOException {
+    CodeSystemEntry[] refreshed =
+        new CodeSystemEntry[] {
+          codeSystemEntries[0], CodeSystemEntry.builder().name("LOINC").oid("2.16.1").build()
+        };
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries, refreshed);
+    assertEquals(1, mappingService.getCodeSystemEntryIndex().getEntries().size());
+    String loadedVersion = mappingService.getSnapshotVersion();
+
+    Files.writeString(mappingFile, "[{\"name\":\"ActPriority\"},{\"name\":\"LOINC\"}]");
+    mappingService.refreshCodeSystemEntries();
+    assertEquals(2, mappingService.getCodeSystemEntryIndex().getEntries().size());
+    assertNotEquals(loadedVersion, mappingService.getSnapshotVersion());
+  }
+
+  @Test
+  void refreshCodeSystemEntriesSkipsParsingUnchangedDocument() throws IOException {
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+    List<CodeSystemEntry> loaded = mappingService.getCodeSystemEntryIndex().getEntries();
+    String loadedVersion = mappingService.getSnapshotVersion();
+
+    mappingService.refreshCodeSystemEntries();
+    assertSame(loaded, mappingService.getCodeSystemEntryIndex().getEntries());
+    assertEquals(loadedVersion, mappingService.getSnapshotVersion());
+    verify(objectMapper, times(1)).readValue(any(byte[].class), eq(CodeSystemEntry[].class));
+  }
+
+  @Test
+  void refreshCodeSystemEntriesSendsValidatorsAndKeepsSnapshotOnNotModified()
+      throws IOException, InterruptedException {
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(
+          new MockResponse()
+              .setBody("[]")
+              .addHeader("ETag", "\"v1\"")
+              .addHeader("Last-Modified", "Wed, 01 May 2024 00:00:00 GMT"));
+      server.enqueue(new MockResponse().setResponseCode(304));
+      server.start();
+      ReflectionTestUtils.setField(
+          mappingService, "codeSystemEntryUrl", server.url("/code-system-entry.json").toString());
+      when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+          .thenReturn(codeSystemEntries);
+
+      List<CodeSystemEntry> loaded = mappingService.getCodeSystemEntryIndex().getEntries();
+      mappingService.refreshCodeSystemEntries();
+
+      assertSame(loaded, mappingService.getCodeSystemEntryIndex().getEntries());
+      server.takeRequest();
+      RecordedRequest conditionalRequest = server.takeRequest();
+      assertEquals("\"v1\"", conditionalRequest.getHeader("If-None-Match"));
+      assertEquals(
+          "Wed, 01 May 2024 00:00:00 GMT", conditionalRequest.getHeader("If-Modified-Since"));
+      verify(objectMapper, times(1)).readValue(any(byte[].class), eq(CodeSystemEntry[].class));
+    }
+  }
+
+  @Test
+  void refreshCodeSystemEntriesKeepsSnapshotWhenDownloadFails() throws IOException {
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+    List<CodeSystemEntry> loaded = mappingService.getCodeSystemEntryIndex().getEntries();
+    Files.delete(mappingFile);
+    mappingService.refreshCodeSystemEntries();
+    assertSame(loaded, mappingService.getCodeSystemEntryIndex().getEntries());
+  }
+
+  @Test
+  void refreshCodeSystemEntriesSavesLocalSnapshot() throws IOException {
+    Path snapshotFile = tempDir.resolve("snapshot/code-system-entry.json");
+    ReflectionTestUtils.setField(mappingService, "snapshotPath", snapshotFile.toString());
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+    mappingService.refreshCodeSystemEntries();
+    assertEquals(Files.readString(mappingFile), Files.readString(snapshotFile));
+  }
+
+  @Test
+  void loadLocalSnapshotServesEntriesWhenRemoteDocumentIsUnavailable() throws IOException {
+    Path snapshotFile = tempDir.resolve("snapshot.json");
+    Files.copy(mappingFile, snapshotFile);
+    Files.delete(mappingFile);
+    ReflectionTestUtils.setField(mappingService, "snapshotPath", snapshotFile.toString());
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+
+    mappingService.loadLocalSnapshot();
+    mappingService.refreshCodeSystemEntries();
+
+    assertEquals(1, mappingService.getCodeSystemEntryIndex().getEntries().size());
+  }
+
+  @Test
+  void getConfirmedSnapshotVersionWaitsForRemoteDocument() throws IOException {
+    Path snapshotFile = tempDir.resolve("snapshot.json");
+    Files.copy(mappingFile, snapshotFile);
+    ReflectionTestUtils.setField(mappingService, "snapshotPath", snapshotFile.toString());
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+
+    mappingService.loadLocalSnapshot();
+    assertNotNull(mappingService.getSnapshotVersion());
+    assertNull(mappingService.getConfirmedSnapshotVersion());
+
+    mappingService.refreshCodeSystemEntries();
+    assertEquals(
+        mappingService.getSnapshotVersion(), mappingService.getConfirmedSnapshotVersion());
+    // the remote document matches the local snapshot, so it is not parsed again
+    verify(objectMapper, times(1)).readValue(any(byte[].class), eq(CodeSystemEntry[].class));
+  }
+
+  @Test
+  void getConfirmedSnapshotVersionStaysNullWhenRemoteDocumentIsUnavailable() throws IOException {
+    Path snapshotFile = tempDir.resolve("snapshot.json");
+    Files.copy(mappingFile, snapshotFile);
+    Files.delete(mappingFile);
+    ReflectionTestUtils.setField(mappingService, "snapshotPath", snapshotFile.toString());
+    when(objectMapper.readValue(any(byte[].class), eq(CodeSystemEntry[].class)))
+        .thenReturn(codeSystemEntries);
+
+    mappingService.loadLocalSnapshot();
+    mappingService.refreshCodeSystemEntries();
+
+    assertNull(mappingService.getConfirmedSnapshotVersion());
+  }
+
+  @Test
+  void loadLocalSnapshotIgnoresMissingFile() {
+    ReflectionTestUtils.setField(
+        mappingService, "snapshotPath", tempDir.resolve("missing.json").toString());
+    mappingService.loadLocalSnapshot();
+    assertNull(mappingService.getSnapshotVersion());
+  }
+
+  @Test
+  void getCodeSystemEntryIndexThrowsWhenNothingCanBeLoaded() throws IOException {
+    Files.delete(mappingFile);
+    assertThrows(RuntimeException.class, () -> mappingService.getCodeSystemEntryIndex());
+    assertNull(mappingService.getSnapshotVersion());
+  }
 }
@@ -0,0 +1,162 @@
+package gov.cms.madie.terminology.service;
+
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.models.CodeSystemSyncState;
+import gov.cms.madie.terminology.repositories.CodeSystemRepository;
+import gov.cms.madie.terminology.repositories.CodeSystemSyncStateRepository;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class QdmDisplayVersionServiceTest {
+
+  @Mock MappingService mappingService;
+  @Mock CodeSystemRepository codeSystemRepository;
+  @Mock CodeSystemSyncStateRepository codeSystemSyncStateRepository;
+  @Mock CodeSystemCatalog codeSystemCatalog;
+  @InjectMocks QdmDisplayVersionService qdmDisplayVersionService;
+
+  CodeSystemEntryIndex codeSystemEntryIndex;
+
+  @BeforeEach
+  void setUp() {
+    CodeSystemEntry.Version cv1 =
+        new CodeSystemEntry.Version().toBuilder().fhir("1.0").vsac("1").build();
+    CodeSystemEntry.Version cv2 =
+        new CodeSystemEntry.Version().toBuilder().fhir("2.0").vsac("2").build();
+    CodeSystemEntry.Version cv3 = new CodeSystemEntry.Version().toBuilder().fhir("latest").build();
+    var ce1 = new CodeSystemEntry().toBuilder().versions(List.of(cv1)).oid("fakeoid1").build();
+    var ce2 = new CodeSystemEntry().toBuilder().versions(List.of(cv2)).oid("fakeoid2").build();
+    var ce3 = new CodeSystemEntry().toBuilder().versions(List.of(cv3)).oid("NOT.IN.VSAC").build();
+    codeSystemEntryIndex = CodeSystemEntryIndex.of(List.of(ce1, ce2, ce3));
+  }
+
+  @Test
+  void resolveMapsFhirVersionToVsacVersion() {
+    assertEquals("1", qdmDisplayVersionService.resolve("fakeoid1", "1.0", codeSystemEntryIndex));
+    assertEquals("2", qdmDisplayVersionService.resolve("fakeoid2", "2.0", codeSystemEntryIndex));
+  }
+
+  @Test
+  void resolveUsesLastMatchingVersionWithVsacVersion() {
+    CodeSystemEntry.Version first =
+        new CodeSystemEntry.Version().toBuilder().fhir("3.0").vsac("3").build();
+    CodeSystemEntry.Version last =
+        new CodeSystemEntry.Version().toBuilder().fhir("3.0").vsac("3b").build();
+    CodeSystemEntry.Version fhirOnly =
+        new CodeSystemEntry.Version().toBuilder().fhir("3.0").build();
+    var entry =
+        new CodeSystemEntry()
+            .toBuilder()
+            .versions(List.of(first, last, fhirOnly))
+            .oid("fakeoid4")
+            .build();
+
+    assertEquals(
+        "3b",
+        qdmDisplayVersionService.resolve(
+            "fakeoid4", "3.0", CodeSystemEntryIndex.of(List.of(entry))));
+  }
+
+  @Test
+  void resolveReturnsNullForFhirOnlyCodeSystems() {
+    assertNull(qdmDisplayVersionService.resolve("fakeoid3", "2024", codeSystemEntryIndex));
+    assertNull(qdmDisplayVersionService.resolve("NOT.IN.VSAC", "latest", codeSystemEntryIndex));
+    assertNull(qdmDisplayVersionService.resolve("fakeoid1", "9.9", codeSystemEntryIndex));
+  }
+
+  @Test
+  void updateIfMappingChangedWritesOnlyChangedDisplayVersions() {
+    CodeSystem unchanged = codeSystem("cs1", "fakeoid1", "1.0", "1");
+    CodeSystem changed = codeSystem("cs2", "fakeoid2", "2.0", "old");
+    CodeSystem fhirOnly = codeSystem("cs3", "fakeoid3", "2024", null);
+    when(mappingService.getConfirmedSnapshotVersion()).thenReturn("v2");
+    when(mappingService.getCodeSystemEntryIndex()).thenReturn(codeSystemEntryIndex);
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(Optional.of(syncState("v1")));
+    when(codeSystemCatalog.getAll()).thenReturn(List.of(unchanged, changed, fhirOnly));
+    when(codeSystemRepository.updateQdmDisplayVersions(anyMap())).thenReturn(1);
+
+    qdmDisplayVersionService.updateIfMappingChanged();
+
+    verify(codeSystemRepository).updateQdmDisplayVersions(Map.of("cs2", "2"));
+    verify(codeSystemSyncStateRepository).saveQdmDisplayMappingVersion(eq("v2"), notNull());
+    verify(codeSystemCatalog).reload();
+  }
+
+  @Test
+  void updateIfMappingChangedRecordsMappingWithoutChangedDisplayVersions() {
+    CodeSystem unchanged = codeSystem("cs1", "fakeoid1", "1.0", "1");
+    when(mappingService.getConfirmedSnapshotVersion()).thenReturn("v2");
+    when(mappingService.getCodeSystemEntryIndex()).thenReturn(codeSystemEntryIndex);
+    when(codeSystemCatalog.getAll()).thenReturn(List.of(unchanged));
+
+    qdmDisplayVersionService.updateIfMappingChanged();
+
+    verify(codeSystemRepository, never()).updateQdmDisplayVersions(anyMap());
+    verify(codeSystemSyncStateRepository).saveQdmDisplayMappingVersion("v2", null);
+    verify(codeSystemCatalog, never()).reload();
+  }
+
+  @Test
+  void updateIfMappingChangedSkipsMappingAlreadyApplied() {
+    when(mappingService.getConfirmedSnapshotVersion()).thenReturn("v2");
+    when(codeSystemSyncStateRepository.findById(CodeSystemSyncState.CODE_SYSTEMS))
+        .thenReturn(Optional.of(syncState("v2")));
+
+    qdmDisplayVersionService.updateIfMappingChanged();
+    qdmDisplayVersionService.updateIfMappingChanged();
+
+    // another replica already applied the mapping, and this instance only checks it once
+    verify(codeSystemSyncStateRepository, times(1)).findById(CodeSystemSyncState.CODE_SYSTEMS);
+    verify(codeSystemRepository, never()).updateQdmDisplayVersions(anyMap());
+    verify(codeSystemSyncStateRepository, never()).saveQdmDisplayMappingVersion(any(), any());
+  }
+
+  @Test
+  void updateIfMappingChangedWaitsForConfirmedMapping() {
+    when(mappingService.getConfirmedSnapshotVersion()).thenReturn(null);
+
+    qdmDisplayVersionService.updateIfMappingChanged();
+
+    verify(codeSystemSyncStateRepository, never()).findById(any());
+  }
+
+  private CodeSystem codeSystem(
+      String id, String oid, String version, String qdmDisplayVersion) {
+    return CodeSystem.builder()
+        .id(id)
+        .oid(oid)
+        .version(version)
+        .qdmDisplayVersion(qdmDisplayVersion)
+        .build();
+  }
+
+  private CodeSystemSyncState syncState(String qdmDisplayMappingVersion) {
+    return CodeSystemSyncState.builder()
+        .id(CodeSystemSyncState.CODE_SYSTEMS)
+        .qdmDisplayMappingVersion(qdmDisplayMappingVersion)
+        .build();
+  }
+}
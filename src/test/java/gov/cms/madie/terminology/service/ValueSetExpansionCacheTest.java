@@ -0,0 +1,229 @@
+package gov.cms.madie.terminology.service;
+
+import gov.cms.madie.models.measure.ManifestExpansion;
+import gov.cms.madie.terminology.dto.QdmValueSet;
+import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
+import gov.cms.madie.terminology.models.ValueSetExpansion;
+import gov.cms.madie.terminology.repositories.ValueSetExpansionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ValueSetExpansionCacheTest {
+  private static final String OID = "2.16.840.1.113883.3.464.1003.113.11.1090";
+  private static final String MANIFEST = "https://cts.nlm.nih.gov/fhir/Library/ecqm-update-2022";
+
+  @Mock ValueSetExpansionRepository valueSetExpansionRepository;
+  @Mock MappingService mappingService;
+
+  ValueSetExpansionCache valueSetExpansionCache;
+  QdmValueSet expandedValueSet;
+  AtomicInteger expansions;
+  AtomicLong tickerNanos;
+
+  @BeforeEach
+  void setUp() {
+    tickerNanos = new AtomicLong();
+    valueSetExpansionCache =
+        new ValueSetExpansionCache(
+            valueSetExpansionRepository,
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()),
+            mappingService,
+            Duration.ofMinutes(10),
+            1000,
+            tickerNanos::get);
+    expandedValueSet =
+        QdmValueSet.builder().oid(OID).version("20180310").concepts(List.of()).build();
+    expansions = new AtomicInteger();
+    when(mappingService.getSnapshotVersion()).thenReturn("mapping-v1");
+  }
+
+  @Test
+  void getOrExpandCachesManifestExpansionWithoutExpiry() {
+    when(valueSetExpansionRepository.findById(anyString())).thenReturn(Optional.empty());
+    ValueSetsSearchCriteria criteria = criteria(MANIFEST);
+
+    QdmValueSet first = getOrExpand(criteria, null);
+    QdmValueSet second = getOrExpand(criteria, null);
+
+    assertSame(expandedValueSet, first);
+    assertSame(expandedValueSet, second);
+    assertEquals(1, expansions.get());
+    ArgumentCaptor<ValueSetExpansion> stored = ArgumentCaptor.forClass(ValueSetExpansion.class);
+    verify(valueSetExpansionRepository, timeout(1000)).save(stored.capture());
+    assertEquals(OID + "|manifest:" + MANIFEST + "|test-profile", stored.getValue().getId());
+    assertEquals("mapping-v1", stored.getValue().getMappingVersion());
+    assertNull(stored.getValue().getExpiresAt());
+    verify(valueSetExpansionRepository, times(1)).findById(anyString());
+  }
+
+  @Test
+  void getOrExpandExpiresLatestExpansion() {
+    when(valueSetExpansionRepository.findById(anyString())).thenReturn(Optional.empty());
+
+    getOrExpand(criteria(null), null);
+
+    ArgumentCaptor<ValueSetExpansion> stored = ArgumentCaptor.forClass(ValueSetExpansion.class);
+    verify(valueSetExpansionRepository, timeout(1000)).save(stored.capture());
+    assertEquals(OID + "|latest:false|test-profile", stored.getValue().getId());
+    assertTrue(stored.getValue().getExpiresAt().isAfter(Instant.now().plusSeconds(540)));
+  }
+
+  @Test
+  void getOrExpandExpiresLatestExpansionInMemoryAfterTtl() {
+    when(valueSetExpansionRepository.findById(anyString())).thenReturn(Optional.empty());
+    ValueSetsSearchCriteria criteria = criteria(null);
+
+    getOrExpand(criteria, null);
+    tickerNanos.addAndGet(Duration.ofMinutes(5).toNanos());
+    getOrExpand(criteria, null);
+    assertEquals(1, expansions.get());
+
+    tickerNanos.addAndGet(Duration.ofMinutes(6).toNanos());
+    getOrExpand(criteria, null);
+    assertEquals(2, expansions.get());
+  }
+
+  @Test
+  void getOrExpandKeysValueSetVersionBeforeManifest() {
+    when(valueSetExpansionRepository.findById(anyString())).thenReturn(Optional.empty());
+
+    getOrExpand(criteria(MANIFEST), "20180310");
+
+    ArgumentCaptor<ValueSetExpansion> stored = ArgumentCaptor.forClass(ValueSetExpansion.class);
+    verify(valueSetExpansionRepository, timeout(1000)).save(stored.capture());
+    assertEquals(OID + "|version:20180310|test-profile", stored.getValue().getId());
+    assertNull(stored.getValue().getManifest());
+    assertNull(stored.getValue().getExpiresAt());
+  }
+
+  @Test
+  void getOrExpandServesExpansionStoredInMongo() {
+    QdmValueSet storedValueSet = QdmValueSet.builder().oid(OID).concepts(List.of()).build();
+    when(valueSetExpansionRepository.findById(OID + "|manifest:" + MANIFEST + "|test-profile"))
+        .thenReturn(Optional.of(stored(storedValueSet, "mapping-v1", null)));
+
+    QdmValueSet result = getOrExpand(criteria(MANIFEST), null);
+
+    assertSame(storedValueSet, result);
+    assertEquals(0, expansions.get());
+  }
+
+  @Test
+  void getOrExpandIgnoresExpansionMappedWithOtherMappingVersion() {
+    QdmValueSet storedValueSet = QdmValueSet.builder().oid(OID).concepts(List.of()).build();
+    when(valueSetExpansionRepository.findById(anyString()))
+        .thenReturn(Optional.of(stored(storedValueSet, "mapping-v0", null)));
+
+    QdmValueSet result = getOrExpand(criteria(MANIFEST), null);
+
+    assertSame(expandedValueSet, result);
+    assertEquals(1, expansions.get());
+  }
+
+  @Test
+  void getOrExpandIgnoresExpiredExpansion() {
+    QdmValueSet storedValueSet = QdmValueSet.builder().oid(OID).concepts(List.of()).build();
+    when(valueSetExpansionRepository.findById(anyString()))
+        .thenReturn(
+            Optional.of(stored(storedValueSet, "mapping-v1", Instant.now().minusSeconds(1))));
+
+    QdmValueSet result = getOrExpand(criteria(null), null);
+
+    assertSame(expandedValueSet, result);
+    assertEquals(1, expansions.get());
+  }
+
+  @Test
+  void getOrExpandDoesNotCacheFailedExpansion() {
+    when(valueSetExpansionRepository.findById(anyString())).thenReturn(Optional.empty());
+    ValueSetsSearchCriteria criteria = criteria(MANIFEST);
+
+    Mono<QdmValueSet> failed =
+        valueSetExpansionCache.getOrExpand(
+            criteria,
+            criteria.getValueSetParams().get(0),
+            () -> Mono.error(new IllegalStateException("VSAC unavailable")));
+
+    assertThrows(IllegalStateException.class, failed::block);
+    assertSame(expandedValueSet, getOrExpand(criteria, null));
+  }
+
+  @Test
+  void getOrExpandKeepsExpansionTooLargeForMongoInMemory() {
+    when(valueSetExpansionRepository.findById(anyString())).thenReturn(Optional.empty());
+    QdmValueSet.Concept concept =
+        QdmValueSet.Concept.builder()
+            .code("1")
+            .displayName("x".repeat(ValueSetExpansionCache.MAX_DOCUMENT_BYTES))
+            .build();
+    expandedValueSet.setConcepts(List.of(concept));
+    ValueSetsSearchCriteria criteria = criteria(MANIFEST);
+
+    getOrExpand(criteria, null);
+    getOrExpand(criteria, null);
+
+    assertEquals(1, expansions.get());
+    verify(valueSetExpansionRepository, after(500).never()).save(any(ValueSetExpansion.class));
+  }
+
+  private QdmValueSet getOrExpand(ValueSetsSearchCriteria criteria, String version) {
+    ValueSetsSearchCriteria.ValueSetParams vsParam = criteria.getValueSetParams().get(0);
+    vsParam.setVersion(version);
+    return valueSetExpansionCache
+        .getOrExpand(
+            criteria,
+            vsParam,
+            () -> {
+              expansions.incrementAndGet();
+              return Mono.just(expandedValueSet);
+            })
+        .block();
+  }
+
+  private ValueSetsSearchCriteria criteria(String manifest) {
+    return ValueSetsSearchCriteria.builder()
+        .profile("test-profile")
+        .valueSetParams(List.of(ValueSetsSearchCriteria.ValueSetParams.builder().oid(OID).build()))
+        .manifestExpansion(
+            manifest == null ? null : ManifestExpansion.builder().fullUrl(manifest).build())
+        .build();
+  }
+
+  private ValueSetExpansion stored(QdmValueSet valueSet, String mappingVersion, Instant expiresAt) {
+    return ValueSetExpansion.builder()
+        .oid(OID)
+        .valueSet(valueSet)
+        .mappingVersion(mappingVersion)
+        .expiresAt(expiresAt)
+        .build();
+  }
+}
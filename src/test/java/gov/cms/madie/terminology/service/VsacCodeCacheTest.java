@@ -0,0 +1,121 @@
+package gov.cms.madie.terminology.service;
+
+import gov.cms.madie.models.cql.terminology.VsacCode;
+import gov.cms.madie.models.cql.terminology.VsacCode.VsacError;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class VsacCodeCacheTest {
+  private static final String CODE_PATH =
+      "/CodeSystem/ActPriority/Version/HL7V3.0_2021-03/Code/P/Info";
+
+  VsacCodeCache vsacCodeCache;
+  AtomicInteger lookups;
+  AtomicLong tickerNanos;
+
+  @BeforeEach
+  void setUp() {
+    tickerNanos = new AtomicLong();
+    vsacCodeCache =
+        new VsacCodeCache(Duration.ofHours(1), Duration.ofMinutes(5), 100, tickerNanos::get);
+    lookups = new AtomicInteger();
+  }
+
+  @Test
+  void getOrLookupCachesFoundCode() {
+    VsacCode found = vsacCode("ok", null);
+
+    VsacCode first = getOrLookup(found);
+    VsacCode second = getOrLookup(found);
+
+    assertSame(found, first);
+    assertSame(found, second);
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  void getOrLookupCachesNotFoundCodeForShorterTtl() {
+    VsacCode notFound = vsacCode("error", "802");
+
+    getOrLookup(notFound);
+    getOrLookup(notFound);
+    assertEquals(1, lookups.get());
+
+    tickerNanos.addAndGet(Duration.ofMinutes(6).toNanos());
+    getOrLookup(notFound);
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  void getOrLookupExpiresFoundCodeAfterTtl() {
+    VsacCode found = vsacCode("ok", null);
+
+    getOrLookup(found);
+    tickerNanos.addAndGet(Duration.ofMinutes(6).toNanos());
+    getOrLookup(found);
+    assertEquals(1, lookups.get());
+
+    tickerNanos.addAndGet(Duration.ofHours(1).toNanos());
+    getOrLookup(found);
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  void getOrLookupDoesNotCacheCommunicationError() {
+    VsacCode communicationError = vsacCode("500", null);
+
+    getOrLookup(communicationError);
+    getOrLookup(communicationError);
+
+    assertEquals(2, lookups.get());
+  }
+
+  @Test
+  void getOrLookupDoesNotCacheFailedLookup() {
+    Mono<VsacCode> failed =
+        vsacCodeCache.getOrLookup(
+            CODE_PATH,
+            () -> {
+              lookups.incrementAndGet();
+              return Mono.error(new RuntimeException("timeout"));
+            });
+    failed.onErrorResume(ex -> Mono.empty()).block();
+
+    getOrLookup(vsacCode("ok", null));
+
+    assertEquals(2, lookups.get());
+  }
+
+  private VsacCode getOrLookup(VsacCode response) {
+    return vsacCodeCache
+        .getOrLookup(
+            CODE_PATH,
+            () -> {
+              lookups.incrementAndGet();
+              return Mono.just(response);
+            })
+        .block();
+  }
+
+  private VsacCode vsacCode(String status, String errorCode) {
+    VsacCode vsacCode = new VsacCode();
+    vsacCode.setStatus(status);
+    if (errorCode != null) {
+      VsacCode.VsacErrorResultSet errorResultSet = new VsacCode.VsacErrorResultSet();
+      errorResultSet.setErrCode(errorCode);
+      VsacError vsacError = new VsacError();
+      vsacError.setResultSet(List.of(errorResultSet));
+      vsacCode.setErrors(vsacError);
+    }
+    return vsacCode;
+  }
+}
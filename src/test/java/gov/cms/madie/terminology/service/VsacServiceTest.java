@@ -2,6 +2,7 @@ package gov.cms.madie.terminology.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Ticker;
 import com.okta.commons.lang.Collections;
 import generated.vsac.nlm.nih.gov.RetrieveMultipleValueSetsResponse;
 import gov.cms.madie.models.cql.terminology.CqlCode;
@@ -17,23 +18,37 @@ import gov.cms.madie.terminology.exceptions.VsacUnauthorizedException;
 import gov.cms.madie.terminology.helpers.TestHelpers;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.repositories.UmlsUserRepository;
+import gov.cms.madie.terminology.util.CodeSystemEntryIndex;
 import gov.cms.madie.terminology.webclient.TerminologyServiceWebClient;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
 
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Unmarshaller;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
@@ -57,6 +72,15 @@ class VsacServiceTest {
 
   @Mock UmlsUserRepository umlsUserRepository;
 
+  @Spy
+  VsacCodeCache vsacCodeCache =
+      new VsacCodeCache(Duration.ofHours(1), Duration.ofMinutes(5), 100, Ticker.systemTicker());
+
+  SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Spy
+  CodeDeduplicationMetrics codeDeduplicationMetrics = new CodeDeduplicationMetrics(meterRegistry);
+
   @InjectMocks VsacService vsacService;
 
   List<CqlCode> cqlCodes;
@@ -64,6 +88,7 @@ class VsacServiceTest {
   List<CodeSystemEntry> codeSystemEntries;
   private ValueSetsSearchCriteria valueSetsSearchCriteria;
   private RetrieveMultipleValueSetsResponse svsValueSet;
+  private String svsValueSetXml;
   private UmlsUser umlsUser;
   private static final String TEST_HARP_ID = "te$tHarpId";
   private static final String TEST_API_KEY = "te$tKey";
@@ -71,7 +96,9 @@ class VsacServiceTest {
   private static final String FHIR_MODEL = "FHIR";
 
   @BeforeEach
-  public void setUp() throws JAXBException {
+  public void setUp() throws JAXBException, IOException {
+    ReflectionTestUtils.setField(vsacService, "valueSetConcurrency", 4);
+    ReflectionTestUtils.setField(vsacService, "codeValidationConcurrency", 4);
     cqlCodes = new ArrayList<>();
     CqlCode cqlCode =
         CqlCode.builder()
@@ -107,6 +134,7 @@ class VsacServiceTest {
     JAXBContext jaxbContext = JAXBContext.newInstance(RetrieveMultipleValueSetsResponse.class);
     Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
     svsValueSet = (RetrieveMultipleValueSetsResponse) jaxbUnmarshaller.unmarshal(file);
+    svsValueSetXml = Files.readString(file.toPath());
     valueSetsSearchCriteria =
         ValueSetsSearchCriteria.builder()
             .profile("eCQM Update 2030-05-05")
@@ -122,17 +150,125 @@ class VsacServiceTest {
 
   @Test
   void testAValidCodeFromVsac() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
-    when(terminologyServiceWebClient.getCode(
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    when(terminologyServiceWebClient.getCodeMono(
+            eq("/CodeSystem/ActPriority/Version/HL7V3.0_2021-03/Code/P/Info"), anyString()))
+        .thenReturn(Mono.just(vsacCode));
+    List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
+    assertTrue(result.get(0).isValid());
+  }
+
+  @Test
+  void testValidateCodesLooksUpSameCodeInVsacOnce() {
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    when(terminologyServiceWebClient.getCodeMono(
+            eq("/CodeSystem/ActPriority/Version/HL7V3.0_2021-03/Code/P/Info"), anyString()))
+        .thenReturn(Mono.just(vsacCode));
+
+    vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
+    List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
+
+    assertTrue(result.get(0).isValid());
+    verify(terminologyServiceWebClient, times(1)).getCodeMono(anyString(), anyString());
+  }
+
+  @Test
+  void testValidateCodesValidatesRepeatedCodeOnce() {
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    when(terminologyServiceWebClient.getCodeMono(
             eq("/CodeSystem/ActPriority/Version/HL7V3.0_2021-03/Code/P/Info"), anyString()))
-        .thenReturn(vsacCode);
+        .thenReturn(Mono.just(vsacCode));
+    CqlCode repeat =
+        CqlCode.builder()
+            .name("preop again")
+            .codeId("'P'")
+            .codeSystem(
+                CqlCode.CqlCodeSystem.builder()
+                    .oid("'https://terminology.hl7.org/CodeSystem/v3-ActPriority'")
+                    .name("ActPriority:HL7V3.0_2021-03")
+                    .version("'HL7V3.0_2021-03'")
+                    .build())
+            .build();
+    cqlCodes.add(repeat);
+
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
+
+    assertEquals(2, result.size());
     assertTrue(result.get(0).isValid());
+    assertTrue(result.get(1).isValid());
+    assertTrue(result.get(1).getCodeSystem().isValid());
+    verify(terminologyServiceWebClient, times(1)).getCodeMono(anyString(), anyString());
+    assertEquals(
+        0.5,
+        meterRegistry
+            .get("terminology.codes.dedup.ratio")
+            .tag("operation", "validate-codes")
+            .summary()
+            .totalAmount());
+    assertEquals(
+        1,
+        meterRegistry
+            .get("terminology.codes.lookups.saved")
+            .tag("operation", "validate-codes")
+            .counter()
+            .count());
+  }
+
+  @Test
+  void testValidateCodesRequestsVsacConcurrentlyAndKeepsInputOrder() {
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
+    CqlCode slowCode =
+        CqlCode.builder()
+            .name("slow")
+            .codeId("'S'")
+            .codeSystem(
+                CqlCode.CqlCodeSystem.builder()
+                    .oid("'https://terminology.hl7.org/CodeSystem/v3-ActPriority'")
+                    .name("ActPriority:HL7V3.0_2021-03")
+                    .version("'HL7V3.0_2021-03'")
+                    .build())
+            .build();
+    List<CqlCode> codes = List.of(slowCode, cqlCodes.get(0));
+    VsacCode codeNotFound = new VsacCode();
+    codeNotFound.setStatus("error");
+    VsacCode.VsacErrorResultSet vsacErrorResultSet = new VsacCode.VsacErrorResultSet();
+    vsacErrorResultSet.setErrCode("802");
+    vsacErrorResultSet.setErrDesc("Code not found");
+    VsacError vsacError = new VsacError();
+    vsacError.setResultSet(Collections.toList(vsacErrorResultSet));
+    codeNotFound.setErrors(vsacError);
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenAnswer(
+            invocation -> {
+              boolean slow = invocation.<String>getArgument(0).contains("/Code/S/");
+              return Mono.defer(
+                      () -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        return Mono.just(slow ? codeNotFound : vsacCode)
+                            .delayElement(Duration.ofMillis(slow ? 100 : 10));
+                      })
+                  .doFinally(signal -> inFlight.decrementAndGet());
+            });
+
+    List<CqlCode> result = vsacService.validateCodes(codes, umlsUser, FHIR_MODEL);
+
+    assertEquals(2, maxInFlight.get());
+    assertEquals("slow", result.get(0).getName());
+    assertFalse(result.get(0).isValid());
+    assertEquals("Code not found", result.get(0).getErrorMessage());
+    assertTrue(result.get(1).isValid());
   }
 
   @Test
   void testCodeSystemNotFoundFromVsac() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     vsacCode.setStatus("error");
 
     VsacCode.VsacErrorResultSet vsacErrorResultSet = new VsacCode.VsacErrorResultSet();
@@ -141,7 +277,8 @@ class VsacServiceTest {
     VsacError vsacError = new VsacError();
     vsacError.setResultSet((Collections.toList(vsacErrorResultSet)));
     vsacCode.setErrors(vsacError);
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).getCodeSystem().isValid());
     assertEquals("CodeSystem not found", result.get(0).getCodeSystem().getErrorMessage());
@@ -149,7 +286,8 @@ class VsacServiceTest {
 
   @Test
   void testCodeSystemVersionNotFoundFromVsac() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     vsacCode.setStatus("error");
 
     VsacCode.VsacErrorResultSet vsacErrorResultSet = new VsacCode.VsacErrorResultSet();
@@ -158,7 +296,8 @@ class VsacServiceTest {
     VsacError vsacError = new VsacError();
     vsacError.setResultSet((Collections.toList(vsacErrorResultSet)));
     vsacCode.setErrors(vsacError);
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).getCodeSystem().isValid());
     assertEquals("CodeSystem version not found", result.get(0).getCodeSystem().getErrorMessage());
@@ -166,7 +305,8 @@ class VsacServiceTest {
 
   @Test
   void testCodeNotFoundFromVsac() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     vsacCode.setStatus("error");
 
     VsacCode.VsacErrorResultSet vsacErrorResultSet = new VsacCode.VsacErrorResultSet();
@@ -175,7 +315,8 @@ class VsacServiceTest {
     VsacError vsacError = new VsacError();
     vsacError.setResultSet((Collections.toList(vsacErrorResultSet)));
     vsacCode.setErrors(vsacError);
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).isValid());
     assertEquals("Code not found", result.get(0).getErrorMessage());
@@ -183,13 +324,14 @@ class VsacServiceTest {
 
   @Test
   void testVsacCommunicationError() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     VsacCode badRequest = new VsacCode();
     badRequest.setStatus(
         "400"); // VSAC's response to using the updated Basic Authn scheme on code validation.
-    when(terminologyServiceWebClient.getCode(
+    when(terminologyServiceWebClient.getCodeMono(
             eq("/CodeSystem/ActPriority/Version/HL7V3.0_2021-03/Code/P/Info"), anyString()))
-        .thenReturn(badRequest);
+        .thenReturn(Mono.just(badRequest));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).isValid());
     assertTrue(result.get(0).getErrorMessage().contains("Communication Error with VSAC"));
@@ -197,14 +339,16 @@ class VsacServiceTest {
 
   @Test
   void testIfCqlCodesListIsEmpty() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<CqlCode> result = vsacService.validateCodes(new ArrayList<>(), umlsUser, FHIR_MODEL);
     assertEquals(0, result.size());
   }
 
   @Test
   void testIfCqlCodeDoesNotContainOid() {
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     cqlCodes.get(0).getCodeSystem().setOid(null);
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).getCodeSystem().isValid());
@@ -214,7 +358,8 @@ class VsacServiceTest {
   @Test
   void testIfThereIsNoAssociatedCodeSystemEntry() {
     codeSystemEntries.get(0).setUrl("test-Url");
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).getCodeSystem().isValid());
     assertEquals("Invalid Code system", result.get(0).getCodeSystem().getErrorMessage());
@@ -223,7 +368,8 @@ class VsacServiceTest {
   @Test
   void testIfCodeSystemIsNotInVsac() {
     codeSystemEntries.get(0).setOid("NOT.IN.VSAC");
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertTrue(result.get(0).isValid());
   }
@@ -231,7 +377,8 @@ class VsacServiceTest {
   @Test
   void testIfCodeIdIsNotProvided() {
     cqlCodes.get(0).setCodeId(null);
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).isValid());
     assertEquals("Code Id is required", result.get(0).getErrorMessage());
@@ -241,7 +388,8 @@ class VsacServiceTest {
   void testIfCodeSystemEntryDoesNotHaveAnyKnownVersionsWhenCqlCodeSystemVersionIsNotProvided() {
     cqlCodes.get(0).getCodeSystem().setVersion(null);
     codeSystemEntries.get(0).setVersions(null);
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).getCodeSystem().isValid());
     assertEquals(
@@ -252,7 +400,8 @@ class VsacServiceTest {
   void testIfCodeSystemEntryHasAKnownVersionButTheVsacValueIsNull() {
     cqlCodes.get(0).getCodeSystem().setVersion(null);
     codeSystemEntries.get(0).getVersions().get(0).setVsac(null);
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertFalse(result.get(0).getCodeSystem().isValid());
     assertEquals(
@@ -262,9 +411,11 @@ class VsacServiceTest {
   @Test
   void testIfCodeSystemEntryDoesNotHaveAnyKnownVersionsWhenCqlCodeSystemVersionIsProvided() {
     codeSystemEntries.get(0).setVersions(null);
-    when(mappingService.getCodeSystemEntries()).thenReturn(codeSystemEntries);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(codeSystemEntries));
 
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
     List<CqlCode> result = vsacService.validateCodes(cqlCodes, umlsUser, FHIR_MODEL);
     assertTrue(result.get(0).isValid());
   }
@@ -272,8 +423,8 @@ class VsacServiceTest {
   @Test
   public void testGetValueSets() {
 
-    when(terminologyServiceWebClient.getValueSet(any(), any(), any(), any(), any(), any()))
-        .thenReturn(svsValueSet);
+    when(terminologyServiceWebClient.getValueSetMono(any(), any(), any(), any(), any(), any()))
+        .thenReturn(Mono.just(svsValueSet));
 
     List<RetrieveMultipleValueSetsResponse> vsacValueSets =
         vsacService.getValueSets(valueSetsSearchCriteria, umlsUser);
@@ -315,11 +466,12 @@ class VsacServiceTest {
             + "}";
     ObjectMapper objectMapper = new ObjectMapper();
     CodeSystemEntry snomedCsEntry = objectMapper.readValue(snomedMapping, CodeSystemEntry.class);
-    when(mappingService.getCodeSystemEntries()).thenReturn(List.of(snomedCsEntry));
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(snomedCsEntry)));
 
-    when(terminologyServiceWebClient.getCode(
+    when(terminologyServiceWebClient.getCodeMono(
             eq("/CodeSystem/SNOMEDCT/Version/2022-03/Code/37687000/Info"), anyString()))
-        .thenReturn(vsacCode);
+        .thenReturn(Mono.just(vsacCode));
     List<CqlCode> result = vsacService.validateCodes(List.of(snomedCode), umlsUser, FHIR_MODEL);
     assertTrue(result.get(0).isValid());
   }
@@ -385,11 +537,12 @@ class VsacServiceTest {
             + "}";
     ObjectMapper objectMapper = new ObjectMapper();
     CodeSystemEntry snomedCsEntry = objectMapper.readValue(snomedMapping, CodeSystemEntry.class);
-    when(mappingService.getCodeSystemEntries()).thenReturn(List.of(snomedCsEntry));
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(snomedCsEntry)));
 
-    when(terminologyServiceWebClient.getCode(
+    when(terminologyServiceWebClient.getCodeMono(
             eq("/CodeSystem/SNOMEDCT/Version/2022-03/Code/37687000/Info"), anyString()))
-        .thenReturn(vsacCode);
+        .thenReturn(Mono.just(vsacCode));
     List<CqlCode> result = vsacService.validateCodes(List.of(snomedCode), umlsUser, QDM_MODEL);
     assertTrue(result.get(0).isValid());
   }
@@ -397,8 +550,9 @@ class VsacServiceTest {
   @Test
   public void testGetQdmValueSets() {
 
-    when(terminologyServiceWebClient.getValueSet(any(), any(), any(), any(), any(), any()))
-        .thenReturn(svsValueSet);
+    when(terminologyServiceWebClient.readValueSetMono(
+            any(), any(), any(), any(), any(), any(), any()))
+        .thenAnswer(invocation -> readValueSet(invocation, svsValueSetXml));
 
     List<QdmValueSet> valueSets =
         vsacService.getValueSetsInQdmFormat(valueSetsSearchCriteria, umlsUser);
@@ -413,9 +567,10 @@ class VsacServiceTest {
   @Test
   public void testGetEmptyQdmValueSets() {
 
-    svsValueSet.getDescribedValueSet().setConceptList(null);
-    when(terminologyServiceWebClient.getValueSet(any(), any(), any(), any(), any(), any()))
-        .thenReturn(svsValueSet);
+    String emptyValueSetXml = svsValueSetXml.replaceAll("(?s)<ConceptList>.*</ConceptList>", "");
+    when(terminologyServiceWebClient.readValueSetMono(
+            any(), any(), any(), any(), any(), any(), any()))
+        .thenAnswer(invocation -> readValueSet(invocation, emptyValueSetXml));
 
     List<QdmValueSet> valueSets =
         vsacService.getValueSetsInQdmFormat(valueSetsSearchCriteria, umlsUser);
@@ -427,6 +582,47 @@ class VsacServiceTest {
     assertThat(valueSets.get(0).getConcepts().size(), is(equalTo(0)));
   }
 
+  @Test
+  public void testGetQdmValueSetsReportsFailedValueSet() {
+    String failingOid = "2.16.840.1.113883.3.464.1003.101.12.9999";
+    valueSetsSearchCriteria.setValueSetParams(
+        List.of(
+            ValueSetsSearchCriteria.ValueSetParams.builder().oid(failingOid).build(),
+            valueSetsSearchCriteria.getValueSetParams().get(0)));
+    when(terminologyServiceWebClient.readValueSetMono(
+            eq(failingOid), any(), any(), any(), any(), any(), any()))
+        .thenReturn(Mono.error(new IllegalStateException("VSAC unavailable")));
+    when(terminologyServiceWebClient.readValueSetMono(
+            eq("2.16.840.1.113883.3.464.1003.101.12.1001"),
+            any(),
+            any(),
+            any(),
+            any(),
+            any(),
+            any()))
+        .thenAnswer(invocation -> readValueSet(invocation, svsValueSetXml));
+
+    List<QdmValueSet> valueSets =
+        vsacService.getValueSetsInQdmFormat(valueSetsSearchCriteria, umlsUser);
+
+    assertThat(valueSets.size(), is(equalTo(2)));
+    assertThat(valueSets.get(0).getOid(), is(equalTo(failingOid)));
+    assertTrue(valueSets.get(0).getError().contains("VSAC unavailable"));
+    assertThat(valueSets.get(1).getDisplayName(), is(equalTo("Office Visit")));
+    assertThat(valueSets.get(1).getError(), is(equalTo(null)));
+  }
+
+  @Test
+  public void testGetQdmValueSetsFailsWhenAllValueSetsFail() {
+    when(terminologyServiceWebClient.readValueSetMono(
+            any(), any(), any(), any(), any(), any(), any()))
+        .thenReturn(Mono.error(new VsacUnauthorizedException("Please login to UMLS")));
+
+    assertThrows(
+        VsacUnauthorizedException.class,
+        () -> vsacService.getValueSetsInQdmFormat(valueSetsSearchCriteria, umlsUser));
+  }
+
   @Test
   void testVerifyUmlsAccessUmlsUserNotFound() {
     when(umlsUserRepository.findByHarpId(anyString())).thenReturn(Optional.empty());
@@ -456,29 +652,38 @@ class VsacServiceTest {
 
   @Test
   void testGetCodeStatusIfCodeSystemMappingAbsent() {
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(null);
+    when(mappingService.getCodeSystemEntryIndex()).thenReturn(CodeSystemEntryIndex.empty());
     assertThat(
-        vsacService.getCodeStatus(
-            Code.builder().codeSystemOid("oid").fhirVersion("version").build(), TEST_API_KEY),
+        vsacService
+            .getCodeStatus(
+                Code.builder().codeSystemOid("oid").fhirVersion("version").build(), TEST_API_KEY)
+            .block(),
         is(equalTo(CodeStatus.NA)));
   }
 
   @Test
   void testGetCodeStatusIfCodeSystemNotInSvs() {
     var cse = CodeSystemEntry.builder().oid("NOT.IN.VSAC1").build();
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(cse);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(cse)));
     assertThat(
-        vsacService.getCodeStatus(
-            Code.builder().codeSystemOid("oid").fhirVersion("version").build(), TEST_API_KEY),
+        vsacService
+            .getCodeStatus(
+                Code.builder().codeSystemOid("NOT.IN.VSAC1").fhirVersion("version").build(),
+                TEST_API_KEY)
+            .block(),
         is(equalTo(CodeStatus.NA)));
   }
 
   @Test
   void testGetCodeStatusIfCodeSystemVersionEmpty() {
     var cse = CodeSystemEntry.builder().oid("1.1.1.1").versions(List.of()).build();
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(cse);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(cse)));
     assertThat(
-        vsacService.getCodeStatus(Code.builder().codeSystemOid("oid").build(), TEST_API_KEY),
+        vsacService
+            .getCodeStatus(Code.builder().codeSystemOid("1.1.1.1").build(), TEST_API_KEY)
+            .block(),
         is(equalTo(CodeStatus.NA)));
   }
 
@@ -488,9 +693,12 @@ class VsacServiceTest {
     version.setVsac(null);
     version.setFhir("https://fhir-version");
     var cse = CodeSystemEntry.builder().oid("1.1.1.1").versions(List.of(version)).build();
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(cse);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(cse)));
     assertThat(
-        vsacService.getCodeStatus(Code.builder().codeSystemOid("oid").build(), TEST_API_KEY),
+        vsacService
+            .getCodeStatus(Code.builder().codeSystemOid("1.1.1.1").build(), TEST_API_KEY)
+            .block(),
         is(equalTo(CodeStatus.NA)));
   }
 
@@ -521,9 +729,11 @@ class VsacServiceTest {
     VsacCode vsacCode = new VsacCode();
     vsacCode.setStatus("ok");
     vsacCode.setData(codeData);
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(codeSystemEntry);
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
-    CodeStatus status = vsacService.getCodeStatus(code, TEST_API_KEY);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(codeSystemEntry)));
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
+    CodeStatus status = vsacService.getCodeStatus(code, TEST_API_KEY).block();
     assertThat(status, is(equalTo(CodeStatus.ACTIVE)));
   }
 
@@ -554,9 +764,11 @@ class VsacServiceTest {
     VsacCode vsacCode = new VsacCode();
     vsacCode.setStatus("ok");
     vsacCode.setData(codeData);
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(codeSystemEntry);
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
-    CodeStatus status = vsacService.getCodeStatus(code, TEST_API_KEY);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(codeSystemEntry)));
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
+    CodeStatus status = vsacService.getCodeStatus(code, TEST_API_KEY).block();
     assertThat(status, is(equalTo(CodeStatus.INACTIVE)));
   }
 
@@ -587,9 +799,18 @@ class VsacServiceTest {
     VsacCode vsacCode = new VsacCode();
     vsacCode.setStatus("non-ok");
     vsacCode.setData(codeData);
-    when(mappingService.getCodeSystemEntryByOid(anyString())).thenReturn(codeSystemEntry);
-    when(terminologyServiceWebClient.getCode(anyString(), anyString())).thenReturn(vsacCode);
-    CodeStatus status = vsacService.getCodeStatus(code, TEST_API_KEY);
+    when(mappingService.getCodeSystemEntryIndex())
+        .thenReturn(CodeSystemEntryIndex.of(List.of(codeSystemEntry)));
+    when(terminologyServiceWebClient.getCodeMono(anyString(), anyString()))
+        .thenReturn(Mono.just(vsacCode));
+    CodeStatus status = vsacService.getCodeStatus(code, TEST_API_KEY).block();
     assertThat(status, is(equalTo(CodeStatus.NA)));
   }
+
+  private Mono<QdmValueSet> readValueSet(InvocationOnMock invocation, String svsResponse) {
+    Function<InputStream, QdmValueSet> valueSetReader = invocation.getArgument(6);
+    return Mono.just(
+        valueSetReader.apply(
+            new ByteArrayInputStream(svsResponse.getBytes(StandardCharsets.UTF_8))));
+  }
 }
@@ -1,6 +1,6 @@
 package gov.cms.madie.terminology.task;
 
-import gov.cms.madie.terminology.models.CodeSystem;
+import gov.cms.madie.terminology.dto.CodeSystemRefreshResult;
 import gov.cms.madie.terminology.models.UmlsUser;
 import gov.cms.madie.terminology.service.FhirTerminologyService;
 import org.junit.jupiter.api.Test;
@@ -9,8 +9,6 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.util.*;
-
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -21,7 +19,8 @@ public class UpdateCodeSystemTaskTest {
   @Test
   void updateCodeSystemTaskTest() {
     UmlsUser umlsUser = new UmlsUser();
-    List<CodeSystem> codeSystems = Arrays.asList(new CodeSystem(), new CodeSystem());
+    when(fhirTerminologyService.retrieveAllCodeSystems(umlsUser))
+        .thenReturn(CodeSystemRefreshResult.builder().retrieved(2).build());
     updateCodeSystemTask.updateCodeSystems();
     verify(fhirTerminologyService).retrieveAllCodeSystems(umlsUser);
   }
@@ -0,0 +1,70 @@
+package gov.cms.madie.terminology.util;
+
+import gov.cms.madie.models.mapping.CodeSystemEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CodeSystemEntryIndexTest {
+
+  private final CodeSystemEntry first =
+      CodeSystemEntry.builder()
+          .name("LOINC")
+          .oid("urn:oid:2.16.840.1.113883.6.1")
+          .versions(List.of(version("2.40", "2.40")))
+          .build();
+  private final CodeSystemEntry repeated =
+      CodeSystemEntry.builder()
+          .name("LOINC")
+          .oid("urn:oid:2.16.840.1.113883.6.1")
+          .versions(List.of(version("2.40", "2.40a"), version("2.46", "2.46")))
+          .build();
+  private final CodeSystemEntryIndex index = CodeSystemEntryIndex.of(List.of(first, repeated));
+
+  @Test
+  void findByOidReturnsFirstEntryWithOrWithoutPrefix() {
+    assertEquals(first, index.findByOid("urn:oid:2.16.840.1.113883.6.1").orElseThrow());
+    assertEquals(first, index.findByOid("2.16.840.1.113883.6.1").orElseThrow());
+  }
+
+  @Test
+  void findVersionByOidSearchesEveryEntryWithTheOid() {
+    assertEquals("2.46", index.findVersionByVsac("2.16.840.1.113883.6.1", "2.46").get().getFhir());
+    assertEquals(
+        "2.46", index.findVersionByFhir("urn:oid:2.16.840.1.113883.6.1", "2.46").get().getVsac());
+    // the first entry listing a version wins
+    assertEquals(
+        "2.40", index.findVersionByVsac("2.16.840.1.113883.6.1", "2.40").get().getFhir());
+    assertTrue(index.findVersionByFhir(first, "2.46").isEmpty());
+    assertTrue(index.findVersionByVsac("2.16.840.1.113883.6.96", "2.46").isEmpty());
+  }
+
+  @Test
+  void findLastVsacVersionByFhirSkipsVersionsWithoutVsacVersion() {
+    CodeSystemEntry entry =
+        CodeSystemEntry.builder()
+            .oid("2.16.840.1.113883.6.96")
+            .versions(
+                List.of(
+                    version("2023-03", "2023-03"),
+                    version("2023-03b", "2023-03"),
+                    version(null, "2023-03"),
+                    version(null, "2024-03")))
+            .build();
+    CodeSystemEntryIndex entryIndex = CodeSystemEntryIndex.of(List.of(entry));
+
+    assertEquals(
+        "2023-03b", entryIndex.findLastVsacVersionByFhir(entry, "2023-03").get().getVsac());
+    assertTrue(entryIndex.findLastVsacVersionByFhir(entry, "2024-03").isEmpty());
+  }
+
+  private static CodeSystemEntry.Version version(String vsac, String fhir) {
+    CodeSystemEntry.Version version = new CodeSystemEntry.Version();
+    version.setVsac(vsac);
+    version.setFhir(fhir);
+    return version;
+  }
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Instant;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -25,36 +26,97 @@ public class TerminologyServiceUtilTest {
     cse = CodeSystemEntry.builder().versions(List.of(v1, v2)).build();
   }
 
+  @Test
+  void testBuildRetrieveCodeSystemsUriOnlyRequestsUpdatedCodeSystems() {
+    String uri =
+        TerminologyServiceUtil.buildRetrieveCodeSystemsUri(
+                "https://cts.nlm.nih.gov/fhir/CodeSystem",
+                50,
+                100,
+                Instant.parse("2024-01-02T03:04:05Z"))
+            .toString();
+    assertThat(
+        uri,
+        is(
+            equalTo(
+                "https://cts.nlm.nih.gov/fhir/CodeSystem"
+                    + "?_offset=50&_count=100&_lastUpdated=gt2024-01-02T03:04:05Z")));
+  }
+
   @Test
   void testGetCodeSystemVersionForQdmModel() {
-    String version = TerminologyServiceUtil.getCodeSystemVersion(cse, v1.getFhir(), "QDM");
+    String version =
+        TerminologyServiceUtil.getCodeSystemVersion(index(), cse, v1.getFhir(), "QDM");
     assertThat(version, is(equalTo(v1.getVsac())));
   }
 
   @Test
   void testGetCodeSystemVersionForFhirModel() {
-    String version = TerminologyServiceUtil.getCodeSystemVersion(cse, v1.getFhir(), "FHIR");
+    String version =
+        TerminologyServiceUtil.getCodeSystemVersion(index(), cse, v1.getFhir(), "FHIR");
     assertThat(version, is(equalTo(v1.getFhir())));
   }
 
   @Test
   void testGetCodeSystemVersionWhenCodeSystemIsNull() {
     cse.setVersions(List.of());
-    String version = TerminologyServiceUtil.getCodeSystemVersion(null, v1.getFhir(), "FHIR");
+    String version =
+        TerminologyServiceUtil.getCodeSystemVersion(index(), null, v1.getFhir(), "FHIR");
     assertThat(version, is(equalTo(v1.getFhir())));
   }
 
   @Test
   void testGetCodeSystemVersionWhenFhirVersionIsNull() {
     cse.setVersions(List.of());
-    String version = TerminologyServiceUtil.getCodeSystemVersion(cse, null, "FHIR");
+    String version =
+        TerminologyServiceUtil.getCodeSystemVersion(index(), cse, null, "FHIR");
     assertThat(version, is(equalTo(null)));
   }
 
   @Test
   void testGetCodeSystemVersionWhenEquivalentQdmVersionIsNull() {
     v1.setVsac(null);
-    String version = TerminologyServiceUtil.getCodeSystemVersion(cse, v1.getFhir(), "QDM");
+    String version =
+        TerminologyServiceUtil.getCodeSystemVersion(index(), cse, v1.getFhir(), "QDM");
     assertThat(version, is(equalTo(null)));
   }
+
+  @Test
+  void testGetCodeSystemEntryForQdmModelMatchesOidWithOrWithoutUrnPrefix() {
+    cse =
+        CodeSystemEntry.builder()
+            .oid("urn:oid:2.16.840.1.113883.6.96")
+            .url("http://snomed.info/sct")
+            .build();
+    CodeSystemEntryIndex index = index();
+    assertThat(
+        TerminologyServiceUtil.getCodeSystemEntry(index, "'urn:oid:2.16.840.1.113883.6.96'", "QDM")
+            .orElse(null),
+        is(equalTo(cse)));
+    assertThat(
+        TerminologyServiceUtil.getCodeSystemEntry(index, "2.16.840.1.113883.6.96", "QDM")
+            .orElse(null),
+        is(equalTo(cse)));
+  }
+
+  @Test
+  void testGetCodeSystemEntryForFhirModelMatchesUrlIgnoringCase() {
+    cse =
+        CodeSystemEntry.builder()
+            .oid("urn:oid:2.16.840.1.113883.6.96")
+            .url("http://snomed.info/sct")
+            .build();
+    CodeSystemEntryIndex index = index();
+    assertThat(
+        TerminologyServiceUtil.getCodeSystemEntry(index, "'HTTP://snomed.info/sct'", "FHIR")
+            .orElse(null),
+        is(equalTo(cse)));
+    assertThat(
+        TerminologyServiceUtil.getCodeSystemEntry(index, "http://loinc.org", "FHIR").isPresent(),
+        is(equalTo(false)));
+  }
+
+  private CodeSystemEntryIndex index() {
+    return CodeSystemEntryIndex.of(List.of(cse));
+  }
 }
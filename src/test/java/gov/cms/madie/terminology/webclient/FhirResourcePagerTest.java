@@ -0,0 +1,92 @@
+package gov.cms.madie.terminology.webclient;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FhirResourcePagerTest {
+
+  @Test
+  void followNextLinksRequestsEveryLinkedPage() {
+    Bundle first = bundle("first", "https://cts.nlm.nih.gov/fhir/ValueSet?page=2");
+    Bundle second = bundle("second", "https://cts.nlm.nih.gov/fhir/ValueSet?page=3");
+    Bundle third = bundle("third", null);
+    List<String> requestedUrls = new ArrayList<>();
+
+    List<Bundle> pages =
+        FhirResourcePager.followNextLinks(
+                Mono.just(first),
+                url -> {
+                  requestedUrls.add(url);
+                  return Mono.just(url.endsWith("2") ? second : third);
+                })
+            .collectList()
+            .block();
+
+    assertEquals(List.of(first, second, third), pages);
+    assertEquals(
+        List.of(
+            "https://cts.nlm.nih.gov/fhir/ValueSet?page=2",
+            "https://cts.nlm.nih.gov/fhir/ValueSet?page=3"),
+        requestedUrls);
+  }
+
+  @Test
+  void pageByOffsetStopsAtLastPage() {
+    List<Integer> requestedOffsets = new ArrayList<>();
+
+    List<Bundle> pages =
+        FhirResourcePager.pageByOffset(
+                0,
+                50,
+                (offset, count) -> {
+                  requestedOffsets.add(offset);
+                  return Mono.just(bundle("page" + offset, offset < 100 ? "next" : null));
+                })
+            .collectList()
+            .block();
+
+    assertEquals(3, pages.size());
+    assertEquals(List.of(0, 50, 100), requestedOffsets);
+    assertEquals("page100", pages.get(2).getId());
+  }
+
+  @Test
+  void requestRemainingPagesEmitsPagesInOffsetOrder() {
+    List<Integer> offsets =
+        FhirResourcePager.requestRemainingPages(
+                0,
+                1000,
+                3500,
+                4,
+                offset ->
+                    Mono.just(offset).delayElement(Duration.ofMillis(offset == 1000 ? 50 : 0)))
+            .collectList()
+            .block();
+
+    assertEquals(List.of(1000, 2000, 3000), offsets);
+  }
+
+  @Test
+  void requestRemainingPagesRequestsNothingForSinglePage() {
+    List<Integer> offsets =
+        FhirResourcePager.requestRemainingPages(0, 1000, 10, 4, Mono::just).collectList().block();
+
+    assertEquals(List.of(), offsets);
+  }
+
+  private Bundle bundle(String id, String nextUrl) {
+    Bundle bundle = new Bundle();
+    bundle.setId(id);
+    if (nextUrl != null) {
+      bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(nextUrl);
+    }
+    return bundle;
+  }
+}
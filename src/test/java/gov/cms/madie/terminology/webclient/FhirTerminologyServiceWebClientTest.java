@@ -2,6 +2,7 @@ package gov.cms.madie.terminology.webclient;
 
 import gov.cms.madie.models.measure.ManifestExpansion;
 import gov.cms.madie.terminology.dto.ValueSetsSearchCriteria;
+import gov.cms.madie.terminology.exceptions.VsacResourceNotFoundException;
 import gov.cms.madie.terminology.models.CodeSystem;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -11,8 +12,12 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -49,7 +54,10 @@ class FhirTerminologyServiceWebClientTest {
             MOCK_CODE_SYSTEM_URN,
             MOCK_CODE_LOOKUP,
             DEFAULT_PROFILE,
-            SEARCH_VALUE_SET_ENDPOINT);
+            SEARCH_VALUE_SET_ENDPOINT,
+            4,
+            16,
+            Duration.ofSeconds(10));
   }
 
   @AfterAll
@@ -64,7 +72,8 @@ class FhirTerminologyServiceWebClientTest {
             .setResponseCode(200)
             .setBody(MOCK_RESPONSE_STRING)
             .addHeader("Content-Type", "application/fhir+json"));
-    String actualResponse = fhirTerminologyServiceWebClient.getManifestBundle(MOCK_API_KEY);
+    String actualResponse =
+        fhirTerminologyServiceWebClient.getManifestBundleMono(MOCK_API_KEY).block();
     assertNotNull(actualResponse);
     assertEquals(MOCK_RESPONSE_STRING, actualResponse);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -76,7 +85,7 @@ class FhirTerminologyServiceWebClientTest {
     mockBackEnd.enqueue(new MockResponse().setResponseCode(HttpStatus.UNAUTHORIZED.value()));
     assertThrows(
         WebClientResponseException.class,
-        () -> fhirTerminologyServiceWebClient.getManifestBundle(MOCK_API_KEY));
+        () -> fhirTerminologyServiceWebClient.getManifestBundleMono(MOCK_API_KEY).block());
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
     assertEquals("/manifestUrn", recordedRequest.getPath());
   }
@@ -90,8 +99,10 @@ class FhirTerminologyServiceWebClientTest {
             .setBody(MOCK_RESPONSE_STRING)
             .addHeader("Content-Type", "application/fhir+json"));
     String actualResponse =
-        fhirTerminologyServiceWebClient.getValueSetResource(
-            MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion());
+        fhirTerminologyServiceWebClient
+            .getValueSetResourceMono(
+                MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion())
+            .block();
     assertNotNull(actualResponse);
     assertEquals(MOCK_RESPONSE_STRING, actualResponse);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -107,8 +118,10 @@ class FhirTerminologyServiceWebClientTest {
             .setBody(MOCK_RESPONSE_STRING)
             .addHeader("Content-Type", "application/fhir+json"));
     String actualResponse =
-        fhirTerminologyServiceWebClient.getValueSetResource(
-            MOCK_API_KEY, testValueSetParams, null, "yes", new ManifestExpansion());
+        fhirTerminologyServiceWebClient
+            .getValueSetResourceMono(
+                MOCK_API_KEY, testValueSetParams, null, "yes", new ManifestExpansion())
+            .block();
     assertNotNull(actualResponse);
     assertEquals(MOCK_RESPONSE_STRING, actualResponse);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -124,15 +137,17 @@ class FhirTerminologyServiceWebClientTest {
             .setBody(MOCK_RESPONSE_STRING)
             .addHeader("Content-Type", "application/fhir+json"));
     String actualResponse =
-        fhirTerminologyServiceWebClient.getValueSetResource(
-            MOCK_API_KEY,
-            testValueSetParams,
-            null,
-            null,
-            ManifestExpansion.builder()
-                .id("test-manifest-456")
-                .fullUrl("https://cts.nlm.nih.gov/fhir/Library/test-manifest-456")
-                .build());
+        fhirTerminologyServiceWebClient
+            .getValueSetResourceMono(
+                MOCK_API_KEY,
+                testValueSetParams,
+                null,
+                null,
+                ManifestExpansion.builder()
+                    .id("test-manifest-456")
+                    .fullUrl("https://cts.nlm.nih.gov/fhir/Library/test-manifest-456")
+                    .build())
+            .block();
     assertNotNull(actualResponse);
     assertEquals(MOCK_RESPONSE_STRING, actualResponse);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -151,8 +166,10 @@ class FhirTerminologyServiceWebClientTest {
             .addHeader("Content-Type", "application/fhir+json"));
     testValueSetParams.setVersion("test-value-set-version-2024");
     String actualResponse =
-        fhirTerminologyServiceWebClient.getValueSetResource(
-            MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion());
+        fhirTerminologyServiceWebClient
+            .getValueSetResourceMono(
+                MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion())
+            .block();
     assertNotNull(actualResponse);
     assertEquals(MOCK_RESPONSE_STRING, actualResponse);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -161,6 +178,33 @@ class FhirTerminologyServiceWebClientTest {
         recordedRequest.getPath());
   }
 
+  @Test
+  void getValueSetResourceMonoIsLazyAndEmitsResource() throws InterruptedException {
+    mockBackEnd.enqueue(
+        new MockResponse()
+            .setResponseCode(200)
+            .setBody(MOCK_RESPONSE_STRING)
+            .addHeader("Content-Type", "application/fhir+json"));
+    Mono<String> response =
+        fhirTerminologyServiceWebClient.getValueSetResourceMono(
+            MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion());
+    assertNull(mockBackEnd.takeRequest(100, TimeUnit.MILLISECONDS));
+    assertEquals(MOCK_RESPONSE_STRING, response.block());
+    RecordedRequest recordedRequest = mockBackEnd.takeRequest();
+    assertEquals("/ValueSet/test-vs-id/$expand", recordedRequest.getPath());
+  }
+
+  @Test
+  void fetchResourceFromVsacMonoErrorsWithNotFound() throws InterruptedException {
+    mockBackEnd.enqueue(new MockResponse().setResponseCode(HttpStatus.NOT_FOUND.value()));
+    Mono<String> response =
+        fhirTerminologyServiceWebClient.fetchResourceFromVsacMono(
+            "/ValueSet/missing", MOCK_API_KEY, "ValueSet");
+    assertThrows(VsacResourceNotFoundException.class, response::block);
+    RecordedRequest recordedRequest = mockBackEnd.takeRequest();
+    assertEquals("/ValueSet/missing", recordedRequest.getPath());
+  }
+
   @Test
   void getValueSetResource_ReturnsException() throws InterruptedException {
     testValueSetParams.setVersion("");
@@ -168,8 +212,10 @@ class FhirTerminologyServiceWebClientTest {
     assertThrows(
         WebClientResponseException.class,
         () ->
-            fhirTerminologyServiceWebClient.getValueSetResource(
-                MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion()));
+            fhirTerminologyServiceWebClient
+                .getValueSetResourceMono(
+                    MOCK_API_KEY, testValueSetParams, null, null, new ManifestExpansion())
+                .block());
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
     assertEquals("/ValueSet/test-vs-id/$expand", recordedRequest.getPath());
   }
@@ -182,7 +228,8 @@ class FhirTerminologyServiceWebClientTest {
             .setBody(MOCK_RESPONSE_STRING)
             .addHeader("Content-Type", "application/fhir+json"));
     testValueSetParams.setVersion("test-value-set-version-2024");
-    String actualResponse = fhirTerminologyServiceWebClient.getCodeSystemsPage(0, 50, MOCK_API_KEY);
+    String actualResponse =
+        fhirTerminologyServiceWebClient.getCodeSystemsPageMono(0, 50, null, MOCK_API_KEY).block();
     assertNotNull(actualResponse);
     assertEquals(MOCK_RESPONSE_STRING, actualResponse);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -194,7 +241,10 @@ class FhirTerminologyServiceWebClientTest {
     mockBackEnd.enqueue(new MockResponse().setResponseCode(HttpStatus.UNAUTHORIZED.value()));
     assertThrows(
         WebClientResponseException.class,
-        () -> fhirTerminologyServiceWebClient.getCodeSystemsPage(0, 50, MOCK_API_KEY));
+        () ->
+            fhirTerminologyServiceWebClient
+                .getCodeSystemsPageMono(0, 50, null, MOCK_API_KEY)
+                .block());
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
     assertEquals("/codeSystemUrn?_offset=0&_count=50", recordedRequest.getPath());
   }
@@ -211,7 +261,9 @@ class FhirTerminologyServiceWebClientTest {
             .addHeader("Content-Type", "application/fhir+json"));
 
     String codeJson =
-        fhirTerminologyServiceWebClient.getCodeResource(codeName, codeSystem, MOCK_API_KEY);
+        fhirTerminologyServiceWebClient
+            .getCodeResourceMono(codeName, codeSystem, MOCK_API_KEY)
+            .block();
     assertNotNull(codeJson);
     assertEquals(MOCK_RESPONSE_STRING, codeJson);
     RecordedRequest recordedRequest = mockBackEnd.takeRequest();
@@ -6,14 +6,25 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.function.Consumer;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
@@ -50,14 +61,22 @@ public class TerminologyServiceWebClientTest {
   @BeforeEach
   void setUp() {
     when(webClientBuilderMock.baseUrl(anyString())).thenReturn(webClientBuilderMock);
+    when(webClientBuilderMock.clientConnector(any())).thenReturn(webClientBuilderMock);
     when(webClientBuilderMock.build()).thenReturn(webClientMock);
     terminologyServiceWebClient =
         new TerminologyServiceWebClient(
-            webClientBuilderMock, BASE_URL, VALUE_SET_ENDPOINT, DEFAULT_PROFILE);
+            webClientBuilderMock,
+            BASE_URL,
+            VALUE_SET_ENDPOINT,
+            DEFAULT_PROFILE,
+            4,
+            16,
+            Duration.ofSeconds(10),
+            DataSize.ofBytes(100));
   }
 
   @Test
-  void testGetCode() {
+  void testGetCodeMono() {
     VsacCode vsacCode = new VsacCode();
     String codePath = "/CodeSystem/LOINC22/Version/2.67/Code/21112-8/Info";
     when(webClientMock.get()).thenReturn(requestHeadersUriSpecMock);
@@ -65,6 +84,86 @@ public class TerminologyServiceWebClientTest {
     when(requestHeadersSpecMock.headers(any(Consumer.class))).thenReturn(requestHeadersSpecMock);
     when(requestHeadersSpecMock.exchangeToMono(any())).thenReturn(Mono.just(vsacCode));
 
-    assertNotNull(terminologyServiceWebClient.getCode(codePath, API_KEY));
+    assertSame(vsacCode, terminologyServiceWebClient.getCodeMono(codePath, API_KEY).block());
+  }
+
+  @Test
+  void testReadValueSetMonoReadsJoinedResponseBody() {
+    DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    when(webClientMock.get()).thenReturn(requestHeadersUriSpecMock);
+    when(requestHeadersUriSpecMock.uri(any(URI.class))).thenReturn(requestHeadersSpecMock);
+    when(requestHeadersSpecMock.headers(any(Consumer.class))).thenReturn(requestHeadersSpecMock);
+    when(requestHeadersSpecMock.retrieve()).thenReturn(responseSpecMock);
+    when(responseSpecMock.onStatus(any(), any())).thenReturn(responseSpecMock);
+    when(responseSpecMock.bodyToFlux(DataBuffer.class))
+        .thenReturn(
+            Flux.just(
+                bufferFactory.wrap("<RetrieveMultipleValueSetsResponse>".getBytes()),
+                bufferFactory.wrap("</RetrieveMultipleValueSetsResponse>".getBytes())));
+
+    String body =
+        terminologyServiceWebClient
+            .readValueSetMono(
+                "oid",
+                API_KEY,
+                null,
+                null,
+                null,
+                null,
+                inputStream -> {
+                  try {
+                    return new String(inputStream.readAllBytes());
+                  } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                  }
+                })
+            .block();
+
+    assertEquals("<RetrieveMultipleValueSetsResponse></RetrieveMultipleValueSetsResponse>", body);
+  }
+
+  @Test
+  void testReadValueSetMonoReadsBodyOnBoundedElasticScheduler() {
+    DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    when(webClientMock.get()).thenReturn(requestHeadersUriSpecMock);
+    when(requestHeadersUriSpecMock.uri(any(URI.class))).thenReturn(requestHeadersSpecMock);
+    when(requestHeadersSpecMock.headers(any(Consumer.class))).thenReturn(requestHeadersSpecMock);
+    when(requestHeadersSpecMock.retrieve()).thenReturn(responseSpecMock);
+    when(responseSpecMock.onStatus(any(), any())).thenReturn(responseSpecMock);
+    when(responseSpecMock.bodyToFlux(DataBuffer.class))
+        .thenReturn(
+            Flux.just(bufferFactory.wrap("<RetrieveMultipleValueSetsResponse/>".getBytes())));
+
+    String threadName =
+        terminologyServiceWebClient
+            .readValueSetMono(
+                "oid",
+                API_KEY,
+                null,
+                null,
+                null,
+                null,
+                inputStream -> Thread.currentThread().getName())
+            .block();
+
+    assertTrue(threadName.startsWith("boundedElastic"));
+  }
+
+  @Test
+  void testReadValueSetMonoFailsOnBodyOverMaxInMemorySize() {
+    DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+    when(webClientMock.get()).thenReturn(requestHeadersUriSpecMock);
+    when(requestHeadersUriSpecMock.uri(any(URI.class))).thenReturn(requestHeadersSpecMock);
+    when(requestHeadersSpecMock.headers(any(Consumer.class))).thenReturn(requestHeadersSpecMock);
+    when(requestHeadersSpecMock.retrieve()).thenReturn(responseSpecMock);
+    when(responseSpecMock.onStatus(any(), any())).thenReturn(responseSpecMock);
+    when(responseSpecMock.bodyToFlux(DataBuffer.class))
+        .thenReturn(Flux.just(bufferFactory.wrap(new byte[60]), bufferFactory.wrap(new byte[60])));
+
+    Mono<Integer> read =
+        terminologyServiceWebClient.readValueSetMono(
+            "oid", API_KEY, null, null, null, null, inputStream -> 0);
+
+    assertThrows(DataBufferLimitException.class, read::block);
   }
 }